@@ -1,18 +1,20 @@
 /*
  * This program runs the AES algorithm. To run the program, input the message
  * as 16 8-byte groups in binary. Then, input the key as a 16 digit long hex number.
- * 
+ *
  * For example, for our problem, we input:
- * 11111111 11111111 11111111 11111111 11111111 11111111 11111111 11111111 
+ * 11111111 11111111 11111111 11111111 11111111 11111111 11111111 11111111
  * 11111111 11111111 11111111 11111111 11111111 11111111 11111111 11111111
  * 2B 7E 15 16 28 AE D2 A6 AB F7 15 88 09 CF 4F 3C
  *
  * Key Schedule
  * First four keys are just columns of the key matrix. After that
- * k[i] = k[i-4] ^ [subBytes(k[i-1](1)) ^ (x^(1-4/4)), subBytes(k[i-1](2)), subBytes(k[i-1](3)), 
+ * k[i] = k[i-4] ^ [subBytes(k[i-1](1)) ^ (x^(1-4/4)), subBytes(k[i-1](2)), subBytes(k[i-1](3)),
  *                 subBytes(k[i-1](0))] if i is divisible by 4,
  * otherwise k[i] = k[i-1] ^ k[i-4]
- * 
+ * The 44 keys are kept in a flat int array, with each key (a column) packed into an int. Expanded
+ * schedules are cached by KeyScheduleCache so a key that is used again is not expanded again.
+ *
  * Encryption
  * Add key 1 to message
  * for 10 times
@@ -21,332 +23,248 @@
  *		mixColumns
  *		addKey
  *
+ * The state is a 16 byte array holding the 4x4 matrix column by column, so row r of column c is
+ * state[r + 4c]. Every step below updates it in place.
+ *
+ * Field Arithmetic: Bytes are polynomials over GF(2) mod x^8+x^4+x^3+x+1. Multiplying by x is a
+ *			  shift and a conditional XOR with 0x1B (xtime). Since x+1 generates the nonzero
+ *			  elements, we build log/antilog tables with it, and a*b = x+1^(log a + log b).
  * Add Key: XOR round key with the input (message in round 0)
- * Sub Bytes: Convert byte to polynomial and finds its inverse w.r.t. x^8+x^4+x^3+x+1, then multiply
- * 			  with S and adds CV to get a byte.
+ * Sub Bytes: Find the inverse of the byte w.r.t. x^8+x^4+x^3+x+1 from the log tables, then multiply
+ * 			  with S and adds CV to get a byte. Multiplying by the circulant S is the XOR of
+ * 			  the byte rotated by 0, 1, 2, 3 and 4 bits, and CV is 0x63.
  * Shift Rows: Shift 2nd, 3rd and 4th rows by 1, 2, and 3 respectively
  * Mix Columns: Multiply current state matrix with a given matrix to mix up columns
+ *
+ * Every round and step is reported to an AESTraceListener. By default PrintingTraceListener prints
+ * the key and message after each round. Running with "silent" as the argument skips the tracing and
+ * just prints the cipher text.
  */
- 
+
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.util.Arrays;
-import java.util.HashMap;
 import java.util.Scanner;
 
 
 public class AES
 {
-    PolynomialInverse inverseFinder;
+    //This matrix represents the M matrix, given to us, we used x+1=3, x=2, 1=1(Polynomials to byte)
+    private static final int[][] M = new int[][] { { 2, 3, 1, 1 }, { 1, 2, 3, 1 },
+            { 1, 1, 2, 3 }, { 3, 1, 1, 2 } };
+    //LOG[a] = i and ALOG[i] = a when a = (x+1)^i
+    private static final int[] LOG = new int[256];
+    private static final int[] ALOG = new int[256];
+
+    static
+    {
+        //Walk through the powers of x+1, multiplying by x+1 is xtime(a) ^ a
+        int a = 1;
+        for (int i = 0; i < 255; ++i)
+        {
+            ALOG[i] = a;
+            LOG[a] = i;
+            a = xtime(a) ^ a;
+        }
+        ALOG[255] = 1;
+    }
 
     public static void main(String[] args) throws FileNotFoundException
 	{
 		//Read in the input
         Scanner scan = new Scanner(new File("IN.txt"));
-		//use 4x4 matrices to represent the message and the key
-        int[][] message = new int[4][4];
-        int[][] key = new int[4][4];
-		//Use a map to record the key schedule
-        HashMap<Integer, int[]> keyMap = new HashMap<Integer, int[]>();
+		//use 16 byte arrays for the message state and the key
+        byte[] message = new byte[16];
+        byte[] key = new byte[16];
         for (int i = 0; i < 4; ++i)
             for (int j = 0; j < 4; ++j)
 				//Read the message as bits into columns
-                message[j][i] = Integer.parseInt(scan.next(), 2);
+                message[j + 4 * i] = (byte) Integer.parseInt(scan.next(), 2);
         for (int i = 0; i < 4; ++i)
             for (int j = 0; j < 4; ++j)
 				//Read the key in hex into columns
-                key[j][i] = Integer.parseInt(scan.next(), 16);
+                key[j + 4 * i] = (byte) Integer.parseInt(scan.next(), 16);
         //Generate the keys before running encryption algorithm
-		populateKeys(keyMap, key);
-        encrypt(message, keyMap);
-        scan.close();
-    }
-
-    private static void printMatrix(int[][] matrix, boolean flag)
-    {
-		//This function will print out the matrix, in either row major or column major order
-        if (flag)
-		{
-            for (int i = 0; i < 4; ++i)
-            {
-                for (int j = 0; j < 4; ++j)
-                    System.out.printf("%02x ", matrix[i][j]);
-                System.out.println();
-            }
-		}
+        int[] w = KeyScheduleCache.DEFAULT.get(key);
+        //Print every round, unless silent is given on the command line
+        if (args.length > 0 && args[0].equalsIgnoreCase("silent"))
+        {
+            encrypt(message, w, null);
+            System.out.println(FastAES.toHex(message));
+        }
         else
-		{
-            for (int i = 0; i < 4; ++i)
-            {
-                for (int j = 0; j < 4; ++j)
-                    System.out.printf("%02x ", matrix[j][i]);
-                System.out.println();
-            }
-		}
+            encrypt(message, w, new PrintingTraceListener(w));
+        scan.close();
     }
 
-    private static void encrypt(int[][] message, HashMap<Integer, int[]> keyMap)
+    static void encrypt(byte[] message, int[] w, AESTraceListener listener)
 	{
-        System.out.println("Round 0");
+		//Encrypts the 16 byte state in place. If there is a listener, it is told about every round
+		//and step, otherwise nothing else is done
+        if (listener != null)
+            listener.roundStarted(0);
         //Start the encryption with just a XOR with the key
-		addKey(0, keyMap, message);
-        System.out.print("Message:\n--------\n");
-        printMatrix(message, true);
-        System.out.println();
+        if (listener != null)
+            listener.phaseStarted(AESTraceListener.Phase.ADD_KEY, 0);
+		addKey(0, w, message);
+        if (listener != null)
+        {
+            listener.phaseFinished(AESTraceListener.Phase.ADD_KEY, 0, message);
+            listener.roundFinished(0, message);
+        }
 		//Run the algorithm 10 times
         for (int i = 1; i < 11; ++i) {
-            for (int j = 0; j < 4; ++j)
-                for (int k = 0; k < 4; ++k)
-					//Do subBytes first
-                    message[j][k] = subBytes(message[j][k]);
+            if (listener != null)
+            {
+                listener.roundStarted(i);
+                listener.phaseStarted(AESTraceListener.Phase.SUB_BYTES, i);
+            }
+            for (int j = 0; j < 16; ++j)
+				//Do subBytes first
+                message[j] = (byte) subBytes(message[j] & 0xFF);
+            if (listener != null)
+            {
+                listener.phaseFinished(AESTraceListener.Phase.SUB_BYTES, i, message);
+                listener.phaseStarted(AESTraceListener.Phase.SHIFT_ROWS, i);
+            }
 
-            System.out.println("Round: " + i);
 			//Call shiftRows
-            message = shiftRows(message);
+            shiftRows(message);
+            if (listener != null)
+                listener.phaseFinished(AESTraceListener.Phase.SHIFT_ROWS, i, message);
 
             if (i != 10) {
 				//Only do mixColumns if its not the last round
-                message = mixColumns(message);
+                if (listener != null)
+                    listener.phaseStarted(AESTraceListener.Phase.MIX_COLUMNS, i);
+                mixColumns(message);
+                if (listener != null)
+                    listener.phaseFinished(AESTraceListener.Phase.MIX_COLUMNS, i, message);
             }
             //Add key again
-            addKey(i, keyMap, message);
-            System.out.print("Message:\n--------\n");
-            printMatrix(message, true);
-            System.out.println();
+            if (listener != null)
+                listener.phaseStarted(AESTraceListener.Phase.ADD_KEY, i);
+            addKey(i, w, message);
+            if (listener != null)
+            {
+                listener.phaseFinished(AESTraceListener.Phase.ADD_KEY, i, message);
+                listener.roundFinished(i, message);
+            }
         }
     }
 
-    private static int subBytes(int input)
+    static int subBytes(int input)
 	{
-		//To do subBytes, get the inverse of the byteToField(input), with respect to x^8+x^4+x^3+x+1
-		//Then call a matrix function that multiplies that with S and adds CV to get a byte back
-        return fieldToByte(matrixByteMultiplyAdd((new PolynomialInverse(
-                byteToField(input), new int[] { 1, 0, 0, 0, 1, 1, 0, 1, 1 }, 2))
-                .findInverse()));
+		//To do subBytes, get the inverse of the input with respect to x^8+x^4+x^3+x+1
+		//Then multiply that with S and add CV to get a byte back
+        int inverse = fieldInverse(input);
+        return (inverse ^ rotateByte(inverse, 1) ^ rotateByte(inverse, 2)
+                ^ rotateByte(inverse, 3) ^ rotateByte(inverse, 4) ^ 0x63);
     }
 
-    private static int[][] shiftRows(int[][] S)
+    private static void shiftRows(byte[] S)
 	{
-		//Shift rows simply returns an array with the 2st, 3nd and 4rd rows shifted left by 1 2, 3, respectively
-        return new int[][] { S[0], { S[1][1], S[1][2], S[1][3], S[1][0] },
-                { S[2][2], S[2][3], S[2][0], S[2][1] },
-                { S[3][3], S[3][0], S[3][1], S[3][2] } };
+		//Shift rows rotates the 2nd, 3rd and 4th rows left by 1, 2, 3, respectively
+        for (int row = 1; row < 4; ++row)
+        {
+            for (int shift = 0; shift < row; ++shift)
+            {
+				//Rotate the row left by one, moving the first column to the end
+                byte first = S[row];
+                S[row] = S[row + 4];
+                S[row + 4] = S[row + 8];
+                S[row + 8] = S[row + 12];
+                S[row + 12] = first;
+            }
+        }
     }
 
-    private static int[][] mixColumns(int[][] S)
+    private static void mixColumns(byte[] S)
 	{
-		//Will hold the answer
-        int[][] answer = new int[4][4];
-		//This matrix represents the M matrix, given to us, we used x+1=3, x=2, 1=1(Polynomials to byte)
-        int[][] M = new int[][] { { 2, 3, 1, 1 }, { 1, 2, 3, 1 },
-                { 1, 1, 2, 3 }, { 3, 1, 1, 2 } };
-		//Loop through the 4 columns of answer
-        for (int i = 0; i < 4; i++)
+		//Loop through the 4 columns of the state
+        for (int c = 0; c < 16; c += 4)
 		{
-			//Loop through the 4 rows of answer
-            for (int j = 0; j < 4; j++)
-			{
-				//Use this total array to sum up the result of the multiplication that goes in answer[i,j]
-                int[] total = new int[] {};
-                for (int k = 0; k < 4; k++)
-				{
-					//This will multiply two fields, M[i,k] and S[k,j], and sum up the result in total
-                    total = fieldAdd(total, fieldMultiply(byteToField(M[i][k]),
-                                    byteToField(S[k][j])));
-                }
-				//Store the result of the multiplication mod the field x^8+x^4+x^3+x+1, in answer
-                answer[i][j] = fieldToByte(doModPoly(total));
-            }
+            int s0 = S[c] & 0xFF, s1 = S[c + 1] & 0xFF, s2 = S[c + 2] & 0xFF, s3 = S[c + 3] & 0xFF;
+			//Each new entry of the column is row i of M times the old column
+            for (int i = 0; i < 4; i++)
+                S[c + i] = (byte) (fieldMultiply(M[i][0], s0) ^ fieldMultiply(M[i][1], s1)
+                        ^ fieldMultiply(M[i][2], s2) ^ fieldMultiply(M[i][3], s3));
         }
-        return answer;
     }
 
-    private static void addKey(int round, HashMap<Integer, int[]> keyMap, int[][] message)
+    private static void addKey(int round, int[] w, byte[] message)
 	{
-        System.out.print("Key\n----------\n");
 		//Get each of the four keys
         for (int i = 0 ; i < 4; i++)
 		{
 			//Get the correct key
-            int [] key = keyMap.get(round*4 + i);
+            int key = w[round*4 + i];
 			//Loop through each column in the key
             for (int j = 0; j < 4; j++)
 			{
-				//Do the XOR and store it back in the array
-                message[j][i] = message[j][i]^key[j];
-            }
-        }
-        printMatrix(new int[][] {keyMap.get(round*4), keyMap.get(round*4+1), 
-                keyMap.get(round*4+2), keyMap.get(round*4+3)}, false);
-    }
-
-    private static int[] doModPoly(int[] total)
-	{
-		//This function does polynomial mod in field 2^8
-        if (total.length == 9)
-		{
-			//Only if we have overflow
-            if (total[0] == 0)
-                return Arrays.copyOfRange(total, 1, total.length);
-            else
-			{
-				//Take out the top value (removing the x^8)
-                int[] copy = Arrays.copyOfRange(total, 1, total.length);
-				//Add one to the other locations using the fact that x^8 = x^4+x^3+x+1
-                copy[3] = Math.abs(copy[3] + 1) % 2;
-                copy[4] = Math.abs(copy[4] + 1) % 2;
-                copy[6] = Math.abs(copy[6] + 1) % 2;
-                copy[7] = Math.abs(copy[7] + 1) % 2;
-                return copy;
+				//Do the XOR with row j of the key and store it back in the array
+                message[j + 4 * i] ^= key >>> (24 - 8 * j);
             }
         }
-		else if (total.length == 10)
-		{
-			//If we have x^9, return x^5+x^4+x^2+x(Needed for key schedule)
-            return new int[]{1, 1, 0, 1, 1, 0};
-        }
-        return total;
-    }
-
-    private static int[] fieldMultiply(int[] M, int[] S)
-	{
-		//Multiplies two fields
-		//Create an array (field) big enough to hold result
-        int[] p = new int[M.length + S.length - 1];
-		//Loop through M
-        for (int j = 0; j < M.length; ++j)
-			//Loop thorugh S
-            for (int k = 0; k < S.length; ++k)
-				//This calculation adds the value at each location in the array, boils down to binary addition
-                p[k + j] = Math.abs(p[k + j] + M[j] * S[k]) % 2;
-        return p;
     }
 
-    private static int[] fieldAdd(int[] total, int[] product)
+    static int xtime(int b)
 	{
-		//This functions adds two fields
-        int[] ans = null;
-		//Make the answer, fill it with the bigger fields
-        if (product.length > total.length)
-            ans = Arrays.copyOf(product, product.length);
-        else
-            ans = Arrays.copyOf(total, total.length);
-		//Loop through the smaller field
-        int length = Math.min(product.length, total.length);
-        for (int i = 0; i < length; ++i)
-			//Start from the back and find the value of the addition, mod 2
-            ans[ans.length - i - 1] = Math.abs(product[product.length - i - 1]
-                    + total[total.length - i - 1]) % 2;
-        return ans;
+		//Multiply by x, if x^8 appears replace it with x^4+x^3+x+1
+        b <<= 1;
+        return (b & 0x100) != 0 ? (b ^ 0x11B) : b;
     }
 
-    private static int[] matrixByteMultiplyAdd(int[] byteToField)
+    static int fieldMultiply(int a, int b)
 	{
-		//This function is called in subbytes to multiply and add two matrices
-        int[] byteToFieldTemp = new int[8];
-        int start = 8 - byteToField.length;
-		//byteToFieldTemp will make sure we have an array with proper dimensions (8x1)
-        for (int i = start, j = 0; i < byteToFieldTemp.length; ++i, ++j)
-            byteToFieldTemp[i] = byteToField[j];
-        int[] answer = new int[8];
-		//Circulant array. Given
-        int[][] S = new int[][] { { 1, 0, 0, 0, 1, 1, 1, 1 },
-                { 1, 1, 0, 0, 0, 1, 1, 1 }, { 1, 1, 1, 0, 0, 0, 1, 1 },
-                { 1, 1, 1, 1, 0, 0, 0, 1 }, { 1, 1, 1, 1, 1, 0, 0, 0 },
-                { 0, 1, 1, 1, 1, 1, 0, 0 }, { 0, 0, 1, 1, 1, 1, 1, 0 },
-                { 0, 0, 0, 1, 1, 1, 1, 1 } };
-		//Constant array. Given
-        int[] CV = new int[] { 1, 1, 0, 0, 0, 1, 1, 0 };
-		//Loop through each row in S
-        for (int i = 0; i < S.length; i++)
-		{
-            int total = 0;
-			//Loop through each column in S
-            for (int j = 0; j < S[0].length; j++)
-				//Do the multiplication and put the result in total
-                total += S[i][j] * byteToFieldTemp[7 - j];
-			//Do the addition, mod 2
-            answer[i] = Math.abs(total + CV[i]) % 2;
-        }
-		//reverse the array 
-        for (int i = 0; i < 4; ++i)
-        {
-            int temp = answer[i];
-            answer[i] = answer[7-i];
-            answer[7-i] = temp;
-        }
-        return answer;
+		//Multiplies two fields by adding their logs, zero has no log
+        if (a == 0 || b == 0)
+            return 0;
+        return ALOG[(LOG[a] + LOG[b]) % 255];
     }
 
-	private static int fieldToByte(int[] matrix)
-	{
-		//Converts a given field to a byte
-        String str = "";
-		//Add up the value in the matrix
-        for (int i : matrix)
-            str += "" + i;
-		//Treat the value in binary and return the reulting byte
-        return Integer.parseInt(str, 2);
-    }
-	
-    private static int[] byteToField(int b)
+    static int fieldInverse(int a)
 	{
-		//Convert a given byte to a field
-        if (b == 0)
-            return new int[] {};
-		//Makes use of toBinArray and java functions to parse bytes in binary
-        return toBinArray(Integer.toBinaryString(b));
+		//Inverse of zero is zero, otherwise (x+1)^-i = (x+1)^(255-i)
+        if (a == 0)
+            return 0;
+        return ALOG[255 - LOG[a]];
     }
 
-    private static int[] toBinArray(String binaryString)
+    private static int rotateByte(int b, int n)
 	{
-		//Simply converts a string into a binary array, padding the array with leading 0s, if needed
-        int[] answer = new int[binaryString.length()]; //creates an array with all zeros
-        for (int i = 0; i < answer.length; ++i)
-            answer[i] = binaryString.charAt(i) - '0';
-        return answer;
+		//Rotates the 8 bits of a byte left by n
+        return ((b << n) | (b >>> (8 - n))) & 0xFF;
     }
 
-    private static void populateKeys(HashMap<Integer, int[]> keyMap, int[][] keys)
+    static int[] populateKeys(byte[] keys)
 	{
-		//The next four lines puts W(0), W(1), W(2), W(3)
-        keyMap.put(0, new int[] { keys[0][0], keys[1][0], keys[2][0], keys[3][0] });
-        keyMap.put(1, new int[] { keys[0][1], keys[1][1], keys[2][1], keys[3][1] });
-        keyMap.put(2, new int[] { keys[0][2], keys[1][2], keys[2][2], keys[3][2] });
-        keyMap.put(3, new int[] { keys[0][3], keys[1][3], keys[2][3], keys[3][3] });
+		//The schedule is 44 words, each word is one column packed into an int with row 0 on top
+        int[] w = new int[44];
+		//The first four words are W(0), W(1), W(2), W(3), the columns of the key
+        for (int i = 0; i < 4; i++)
+            w[i] = ((keys[4 * i] & 0xFF) << 24) | ((keys[4 * i + 1] & 0xFF) << 16)
+                    | ((keys[4 * i + 2] & 0xFF) << 8) | (keys[4 * i + 3] & 0xFF);
+        //The round constant x^((i-4)/4), starting from x^0
+        int x = 1;
 		//Create keys for every i, from 4 to 43, inclusive
         for (int i = 4; i <= 43; i++)
 		{
-            int[] wi_1 = keyMap.get(i - 1);
-            int[] wi_4 = keyMap.get(i - 4);
+            int wi_1 = w[i - 1];
 			//If i is a multiple of 4
             if (i % 4 == 0)
 			{
-                int[] modWi_1 = new int[4];
-				//calculate the exponent (i-4)/4
-                int exp = (i-4)/4;
-				//Create the field with the exponent
-                int [] x = new int[exp+1];
-				//Make the top bit 1
-                x[0] = 1;
-				//Make sure we handle overflow
-                x = doModPoly(x);
 				//The first entry does a subBytes, and adds	the result with x^((i-4)/4)
-                modWi_1[0] = fieldToByte(fieldAdd(byteToField(subBytes(wi_1[1])), x));
-				//Find the subbytes of the remaining values, rotated by one
-                modWi_1[1] = subBytes(wi_1[2]);
-                modWi_1[2] = subBytes(wi_1[3]);
-                modWi_1[3] = subBytes(wi_1[0]);
-				//Put the result in the schedule, with the XOR
-                keyMap.put(i, new int[] { modWi_1[0] ^ wi_4[0], modWi_1[1] ^ wi_4[1],
-                        modWi_1[2] ^ wi_4[2], modWi_1[3] ^ wi_4[3] });
-            }
-			else
-			{
-				//If i is not a multiple of 4, just computer wi-4^wi-1
-                keyMap.put(i, new int[] { wi_1[0] ^ wi_4[0], wi_1[1] ^ wi_4[1],
-                        wi_1[2] ^ wi_4[2], wi_1[3] ^ wi_4[3] });
+				//The remaining entries are the subBytes of the other values, rotated by one
+                wi_1 = ((subBytes((wi_1 >>> 16) & 0xFF) ^ x) << 24)
+                        | (subBytes((wi_1 >>> 8) & 0xFF) << 16)
+                        | (subBytes(wi_1 & 0xFF) << 8)
+                        | subBytes(wi_1 >>> 24);
+                //Multiply the round constant by x for the next time
+                x = xtime(x);
             }
+			//Put the result in the schedule, with the XOR
+            w[i] = wi_1 ^ w[i - 4];
         }
+        return w;
     }
 }
@@ -0,0 +1,94 @@
+/*
+ * Streams files of any size through AES in CTR mode, using a fixed amount of memory.
+ *
+ * Instead of reading the whole file (or parsing it as text like AES.java does), the input is memory
+ * mapped one chunk at a time through its FileChannel. Each chunk is XORed with the CTR key stream
+ * straight into a direct buffer, which is then written to the output channel, so the data is never
+ * copied into the Java heap. The counter carries on from one chunk to the next (a chunk is a whole
+ * number of blocks), so the output is the same as AESModes.ctr on the whole file. The key stream
+ * engine is picked once per file, from the same properties as AESModes.
+ *
+ * The file can also be encrypted in place, in which case each chunk is mapped read-write and the
+ * key stream is XORed into the mapping directly. That is also what happens when the output is the
+ * input file.
+ *
+ * Since CTR encryption and decryption are the same, the same command decrypts. Command line:
+ *		<key in hex> <iv in hex> <input file> <output file>
+ *		<key in hex> <iv in hex> <file> (encrypt in place)
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+
+public class AESFileEncryptor
+{
+    //Size of each mapped chunk, a multiple of the 16 byte block size
+    static final int CHUNK_SIZE = 16 << 20;
+
+    public static void main(String[] args) throws IOException
+    {
+        byte[] key = AESModes.parseHex(args[0]);
+        byte[] iv = AESModes.parseHex(args[1]);
+        long start = System.nanoTime();
+        long bytes;
+        if (args.length > 3)
+            bytes = encrypt(key, iv, Paths.get(args[2]), Paths.get(args[3]));
+        else
+            bytes = encryptInPlace(key, iv, Paths.get(args[2]));
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Encrypted %d bytes in %.2f seconds (%.1f MB/sec)\n", bytes, seconds,
+                bytes / seconds / (1 << 20));
+    }
+
+    public static long encrypt(byte[] key, byte[] iv, Path input, Path output) throws IOException
+    {
+        //Opening the output would truncate the input before it is read
+        if (Files.exists(output) && Files.isSameFile(input, output))
+            return encryptInPlace(key, iv, input);
+        AESModes.KeyStream keys = new AESModes.KeyStream(key);
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            long size = in.size();
+            //One direct buffer is reused for every chunk
+            ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_SIZE);
+            for (long position = 0; position < size; position += CHUNK_SIZE)
+            {
+                int length = (int) Math.min(CHUNK_SIZE, size - position);
+                MappedByteBuffer chunk = in.map(FileChannel.MapMode.READ_ONLY, position, length);
+                AESModes.ctr(keys, iv, position / 16, chunk, buffer, length);
+                buffer.clear().limit(length);
+                while (buffer.hasRemaining())
+                    out.write(buffer);
+                buffer.clear();
+            }
+            return size;
+        }
+    }
+
+    public static long encryptInPlace(byte[] key, byte[] iv, Path file) throws IOException
+    {
+        AESModes.KeyStream keys = new AESModes.KeyStream(key);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ,
+                StandardOpenOption.WRITE))
+        {
+            long size = channel.size();
+            for (long position = 0; position < size; position += CHUNK_SIZE)
+            {
+                int length = (int) Math.min(CHUNK_SIZE, size - position);
+                MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_WRITE, position, length);
+                AESModes.ctr(keys, iv, position / 16, chunk, chunk, length);
+                chunk.force();
+            }
+            return size;
+        }
+    }
+}
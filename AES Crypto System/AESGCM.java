@@ -0,0 +1,335 @@
+/*
+ * AES-GCM authenticated encryption built on the AesEngine picked by the aes.engine property.
+ *
+ * Encryption
+ * H = E(0), the hash key
+ * J0 = IV || 0^31 || 1 for a 12 byte IV, otherwise J0 = GHASH(IV padded || 0^64 || bit length of IV)
+ * Cipher block i = P[i] ^ E(J0 + i), where + only counts in the low 32 bits (CTR mode)
+ * S = GHASH(A padded || C padded || bit length of A (64 bits) || bit length of C (64 bits))
+ * Tag = E(J0) ^ S
+ *
+ * GHASH works in GF(2^128) with the bits of each block read from the left, mod
+ * x^128 + x^7 + x^2 + x + 1. For blocks X1..Xn it computes Y = (...((X1 H) ^ X2) H ... ^ Xn) H.
+ * Multiplying by H is done with Shoup's 4-bit tables: M[i] = i H for every 4-bit i, so a block is
+ * multiplied 4 bits at a time, shifting the partial product 4 bits and reducing the bits that fall
+ * off with a second 16 entry table (LAST4).
+ *
+ * Since Y = X1 H^n ^ X2 H^(n-1) ^ ... ^ Xn H, the cipher text can be split into chunks that are
+ * hashed on their own (starting from 0), and the results joined as Y = Y_before H^(chunk length) ^
+ * Y_chunk. So each chunk is encrypted and hashed as one fork/join task, and only the join is done
+ * in order with a plain multiply.
+ *
+ * The output of encrypt is the cipher text followed by the 16 byte tag. decrypt hashes the cipher
+ * text and checks the tag before it runs CTR mode, so nothing is decrypted under a bad tag and the
+ * cipher text is hashed only once.
+ *
+ * Running the program compares with the JDK's AES/GCM/NoPadding on random inputs and then measures
+ * the throughput on 64MB.
+ */
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.stream.IntStream;
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+
+public class AESGCM
+{
+    //Blocks per fork/join task (64KB)
+    static final int CHUNK_BLOCKS = 4096;
+    //Reduction of the 4 bits shifted off the end of a product, x^128 = x^7 + x^2 + x + 1
+    private static final long[] LAST4 = new long[] { 0x0000, 0x1c20, 0x3840, 0x2460, 0x7080,
+            0x6ca0, 0x48c0, 0x54e0, 0xe100, 0xfd20, 0xd940, 0xc560, 0x9180, 0x8da0, 0xa9c0, 0xb5e0 };
+
+    private final AesEngine engine;
+    //i H for every 4-bit i, high and low 64 bits
+    private final long[] hh = new long[16];
+    private final long[] hl = new long[16];
+    private final long hHigh;
+    private final long hLow;
+
+    public AESGCM(byte[] key)
+    {
+        engine = AesEngine.create(key);
+        ByteBuffer h = ByteBuffer.allocate(16);
+        engine.encryptBlocks(h.array(), 0, h.array(), 0, 1);
+        hHigh = h.getLong(0);
+        hLow = h.getLong(8);
+        buildTables();
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        Random random = new Random();
+        for (int test = 0; test < 200; ++test)
+        {
+            byte[] key = new byte[16];
+            byte[] iv = new byte[test % 2 == 0 ? 12 : 1 + random.nextInt(40)];
+            byte[] aad = new byte[random.nextInt(50)];
+            byte[] plain = new byte[test < 100 ? random.nextInt(100) : random.nextInt(400000)];
+            random.nextBytes(key);
+            random.nextBytes(iv);
+            random.nextBytes(aad);
+            random.nextBytes(plain);
+            Cipher jce = Cipher.getInstance("AES/GCM/NoPadding");
+            jce.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new GCMParameterSpec(128, iv));
+            jce.updateAAD(aad);
+            byte[] expected = jce.doFinal(plain);
+            AESGCM gcm = new AESGCM(key);
+            ByteBuffer cipher = gcm.encrypt(iv, aad, ByteBuffer.wrap(plain));
+            if (!cipher.equals(ByteBuffer.wrap(expected)))
+                throw new IllegalStateException("AES-GCM does not match the JDK");
+            if (!gcm.decrypt(iv, aad, cipher).equals(ByteBuffer.wrap(plain)))
+                throw new IllegalStateException("AES-GCM decryption failed");
+        }
+        System.out.println("AES-GCM matches the JDK");
+
+        AESGCM gcm = new AESGCM(new byte[16]);
+        byte[] iv = new byte[12];
+        ByteBuffer message = ByteBuffer.wrap(new byte[64 << 20]);
+        for (int run = 0; run < 3; ++run)
+        {
+            long start = System.nanoTime();
+            gcm.encrypt(iv, new byte[0], message);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("Run %d: %.1f MB/sec\n", run + 1, 64 / seconds);
+        }
+    }
+
+    public ByteBuffer encrypt(byte[] iv, byte[] aad, ByteBuffer plain)
+    {
+        int length = plain.remaining();
+        ByteBuffer out = ByteBuffer.allocate(length + 16);
+        long[] s = process(iv, aad, plain.slice(), out, length, true);
+        out.position(length);
+        out.put(tag(iv, s));
+        return out.rewind();
+    }
+
+    public ByteBuffer decrypt(byte[] iv, byte[] aad, ByteBuffer cipherAndTag) throws AEADBadTagException
+    {
+        int length = cipherAndTag.remaining() - 16;
+        if (length < 0)
+            throw new AEADBadTagException("Message is shorter than the tag");
+        ByteBuffer in = cipherAndTag.slice();
+        byte[] tag = new byte[16];
+        in.get(length, tag);
+        //Hash the cipher text first, there is nothing to decrypt into if the tag is wrong
+        long[] s = process(iv, aad, in, null, length, false);
+        if (!MessageDigest.isEqual(tag, tag(iv, s)))
+            throw new AEADBadTagException("Tag mismatch");
+        //The tag is good, so only the CTR pass is left
+        ByteBuffer out = ByteBuffer.allocate(length);
+        long[] j0 = counterBlock(iv);
+        int blocks = (length + 15) / 16;
+        IntStream.range(0, (blocks + CHUNK_BLOCKS - 1) / CHUNK_BLOCKS).parallel().forEach(c ->
+                ctr(j0, in, out, c * CHUNK_BLOCKS, Math.min(blocks, (c + 1) * CHUNK_BLOCKS), length));
+        return out;
+    }
+
+    private long[] process(byte[] iv, byte[] aad, ByteBuffer in, ByteBuffer out, int length, boolean encrypt)
+    {
+        //Runs CTR mode from in to out (if out is not null) and returns the GHASH of aad and the
+        //cipher text, before the tag is made. When encrypting, the cipher text is read back from out
+        long[] j0 = counterBlock(iv);
+        int blocks = (length + 15) / 16;
+        int chunks = (blocks + CHUNK_BLOCKS - 1) / CHUNK_BLOCKS;
+        long[] chunkHashes = new long[2 * chunks];
+        IntStream.range(0, chunks).parallel().forEach(c ->
+        {
+            int from = c * CHUNK_BLOCKS;
+            int to = Math.min(blocks, from + CHUNK_BLOCKS);
+            if (out != null)
+                ctr(j0, in, out, from, to, length);
+            long[] y = new long[2];
+            ghash(encrypt ? out : in, 16 * from, Math.min(length, 16 * to), y);
+            chunkHashes[2 * c] = y[0];
+            chunkHashes[2 * c + 1] = y[1];
+        });
+
+        //Hash the additional data, then join the chunks in order
+        long[] y = new long[2];
+        ghash(ByteBuffer.wrap(aad), 0, aad.length, y);
+        long[] chunkPower = power(CHUNK_BLOCKS);
+        for (int c = 0; c < chunks; ++c)
+        {
+            int chunkBlocks = Math.min(blocks - c * CHUNK_BLOCKS, CHUNK_BLOCKS);
+            long[] p = chunkBlocks == CHUNK_BLOCKS ? chunkPower : power(chunkBlocks);
+            multiply(y, p[0], p[1]);
+            y[0] ^= chunkHashes[2 * c];
+            y[1] ^= chunkHashes[2 * c + 1];
+        }
+        //Last block is the lengths in bits
+        y[0] ^= 8L * aad.length;
+        y[1] ^= 8L * length;
+        multiplyH(y);
+        return y;
+    }
+
+    private byte[] tag(byte[] iv, long[] s)
+    {
+        //Tag = E(J0) ^ S
+        long[] j0 = counterBlock(iv);
+        ByteBuffer tag = ByteBuffer.allocate(16).putLong(0, j0[0]).putLong(8, j0[1]);
+        engine.encryptBlocks(tag.array(), 0, tag.array(), 0, 1);
+        tag.putLong(0, tag.getLong(0) ^ s[0]);
+        tag.putLong(8, tag.getLong(8) ^ s[1]);
+        return tag.array();
+    }
+
+    private long[] counterBlock(byte[] iv)
+    {
+        //J0 from the IV, as two 64 bit halves
+        if (iv.length == 12)
+        {
+            ByteBuffer b = ByteBuffer.wrap(iv);
+            return new long[] { b.getLong(0), ((long) b.getInt(8) << 32) | 1 };
+        }
+        long[] y = new long[2];
+        ghash(ByteBuffer.wrap(iv), 0, iv.length, y);
+        y[1] ^= 8L * iv.length;
+        multiplyH(y);
+        return y;
+    }
+
+    private void ctr(long[] j0, ByteBuffer in, ByteBuffer out, int from, int to, int length)
+    {
+        //Encrypts the counters J0 + 1 + i for blocks [from, to) in one engine call, only the low 32
+        //bits count up
+        ByteBuffer s = ByteBuffer.allocate(16 * (to - from));
+        int base = (int) j0[1];
+        for (int i = from; i < to; ++i)
+        {
+            int k = 16 * (i - from);
+            s.putLong(k, j0[0]).putInt(k + 8, (int) (j0[1] >>> 32)).putInt(k + 12, base + 1 + i);
+        }
+        engine.encryptBlocks(s.array(), 0, s.array(), 0, to - from);
+        for (int i = from; i < to; ++i)
+        {
+            int off = 16 * i;
+            int k = 16 * (i - from);
+            if (length - off >= 16)
+            {
+                out.putLong(off, in.getLong(off) ^ s.getLong(k));
+                out.putLong(off + 8, in.getLong(off + 8) ^ s.getLong(k + 8));
+            }
+            else
+            {
+                for (int j = 0; off + j < length; ++j)
+                    out.put(off + j, (byte) (in.get(off + j) ^ s.get(k + j)));
+            }
+        }
+    }
+
+    private void ghash(ByteBuffer data, int from, int to, long[] y)
+    {
+        //y = (y ^ X) H for every block X of data[from, to), the last block padded with zeros
+        for (int off = from; off < to; off += 16)
+        {
+            if (to - off >= 16)
+            {
+                y[0] ^= data.getLong(off);
+                y[1] ^= data.getLong(off + 8);
+            }
+            else
+            {
+                for (int j = 0; off + j < to; ++j)
+                {
+                    long b = (data.get(off + j) & 0xFFL) << (56 - 8 * (j & 7));
+                    if (j < 8)
+                        y[0] ^= b;
+                    else
+                        y[1] ^= b;
+                }
+            }
+            multiplyH(y);
+        }
+    }
+
+    private void buildTables()
+    {
+        //M[8] = H, M[4] = H x, M[2] = H x^2, M[1] = H x^3 (x is a shift right in this bit order),
+        //and every other entry is the XOR of the ones for its bits
+        long vh = hHigh;
+        long vl = hLow;
+        hh[8] = vh;
+        hl[8] = vl;
+        for (int i = 4; i > 0; i >>= 1)
+        {
+            long t = (vl & 1) * 0xE100000000000000L;
+            vl = (vh << 63) | (vl >>> 1);
+            vh = (vh >>> 1) ^ t;
+            hh[i] = vh;
+            hl[i] = vl;
+        }
+        for (int i = 2; i <= 8; i *= 2)
+            for (int j = 1; j < i; ++j)
+            {
+                hh[i + j] = hh[i] ^ hh[j];
+                hl[i + j] = hl[i] ^ hl[j];
+            }
+    }
+
+    void multiplyH(long[] y)
+    {
+        //y = y H with the 4-bit tables, going through the 32 nibbles from the last one
+        long zh = 0;
+        long zl = 0;
+        for (int i = 15; i >= 0; --i)
+        {
+            int b = (int) ((i < 8 ? y[0] >>> (56 - 8 * i) : y[1] >>> (120 - 8 * i)) & 0xFF);
+            for (int nibble = b & 0xF, k = 0; k < 2; ++k, nibble = b >>> 4)
+            {
+                if (i != 15 || k != 0)
+                {
+                    //Shift the partial product 4 bits and reduce the bits that fall off
+                    int rem = (int) (zl & 0xF);
+                    zl = (zh << 60) | (zl >>> 4);
+                    zh = (zh >>> 4) ^ (LAST4[rem] << 48);
+                }
+                zh ^= hh[nibble];
+                zl ^= hl[nibble];
+            }
+        }
+        y[0] = zh;
+        y[1] = zl;
+    }
+
+    private long[] power(int n)
+    {
+        //H^n by squaring and multiplying
+        long[] result = new long[] { 1L << 63, 0 };
+        long[] square = new long[] { hHigh, hLow };
+        for (; n > 0; n >>= 1)
+        {
+            if ((n & 1) != 0)
+                multiply(result, square[0], square[1]);
+            multiply(square, square[0], square[1]);
+        }
+        return result;
+    }
+
+    static void multiply(long[] x, long yHigh, long yLow)
+    {
+        //x = x y one bit at a time, only used for the few multiplications by powers of H
+        long zh = 0;
+        long zl = 0;
+        long vh = yHigh;
+        long vl = yLow;
+        for (int i = 0; i < 128; ++i)
+        {
+            long bit = i < 64 ? (x[0] >>> (63 - i)) & 1 : (x[1] >>> (127 - i)) & 1;
+            zh ^= -bit & vh;
+            zl ^= -bit & vl;
+            long t = (vl & 1) * 0xE100000000000000L;
+            vl = (vh << 63) | (vl >>> 1);
+            vh = (vh >>> 1) ^ t;
+        }
+        x[0] = zh;
+        x[1] = zl;
+    }
+}
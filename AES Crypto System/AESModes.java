@@ -0,0 +1,410 @@
+/*
+ * Block cipher modes on top of the FastAES block function, for messages longer than one block.
+ *
+ * ECB: Every block is encrypted on its own, C[i] = E(P[i])
+ * CBC: Each block is XORed with the previous cipher block first, C[i] = E(P[i] ^ C[i-1]), C[-1] = IV.
+ *		Encryption is a chain and has to run in order, but decryption P[i] = D(C[i]) ^ C[i-1] only
+ *		needs cipher blocks, so every block can be decrypted at the same time.
+ * CTR: The counter IV + i is encrypted and XORed with block i. Encryption and decryption are the
+ *		same operation, there is no padding, and block i never depends on any other block.
+ *
+ * ECB and CBC pad the message to a whole number of blocks with PKCS#7 (n bytes of value n).
+ *
+ * Encryption goes through the AesEngine picked by the aes.engine property (the JDK's AES by
+ * default, optionally with sampled checks against the reference). Decryption uses the inverse
+ * tables of FastAES, as the engines only encrypt. The CTR key stream comes from the same engine, or
+ * from BitslicedAES (constant time, 64 blocks at a time) when the system property aes.ctr.backend is
+ * bitsliced. The bitsliced engine is checked against the reference AES.encrypt the first time it
+ * sees a key schedule.
+ *
+ * Everything except CBC encryption is split into ranges of blocks that run as fork/join tasks on
+ * the common pool, so the work spreads over all cores. Messages are read from ByteBuffers (or from
+ * a file, which has to fit in one buffer) and the result is returned in a new ByteBuffer.
+ *
+ * Running the program encrypts a file with the mode given on the command line
+ *		<ecb|cbc|ctr> <encrypt|decrypt> <key in hex> <iv in hex, not for ecb> <input file> <output file>
+ * or, with no arguments, measures the throughput of each mode on 64MB of zeros.
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+public class AESModes
+{
+    //Ranges smaller than this many blocks are not split any further (64KB)
+    static final int BLOCKS_PER_TASK = 4096;
+
+    //Block function used for the CTR key stream, chosen with -Daes.ctr.backend=table|bitsliced
+    enum CtrBackend { TABLE, BITSLICED }
+    static volatile CtrBackend ctrBackend = CtrBackend.valueOf(
+            System.getProperty("aes.ctr.backend", "table").toUpperCase());
+
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length == 0)
+        {
+            benchmark();
+            return;
+        }
+        String mode = args[0].toLowerCase();
+        boolean encrypt = args[1].equalsIgnoreCase("encrypt");
+        byte[] key = parseHex(args[2]);
+        int next = 3;
+        byte[] iv = mode.equals("ecb") ? null : parseHex(args[next++]);
+        Path input = Paths.get(args[next++]);
+        Path output = Paths.get(args[next]);
+        ByteBuffer result;
+        switch (mode)
+        {
+            case "ecb":
+                result = encrypt ? encryptECB(key, input) : decryptECB(key, input);
+                break;
+            case "cbc":
+                result = encrypt ? encryptCBC(key, iv, input) : decryptCBC(key, iv, input);
+                break;
+            case "ctr":
+                result = ctr(key, iv, input);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown mode " + mode);
+        }
+        Files.write(output, toArray(result));
+    }
+
+    public static ByteBuffer encryptECB(byte[] key, ByteBuffer in)
+    {
+        AesEngine engine = AesEngine.create(key);
+        byte[] data = pad(in);
+        new BlockTask()
+        {
+            @Override
+            void process(int from, int to)
+            {
+                engine.encryptBlocks(data, 16 * from, data, 16 * from, to - from);
+            }
+        }.run(data.length / 16);
+        return ByteBuffer.wrap(data);
+    }
+
+    public static ByteBuffer decryptECB(byte[] key, ByteBuffer in)
+    {
+        int[] dk = FastAES.decryptionKey(FastAES.expandKey(key));
+        byte[] data = copyBlocks(in);
+        new BlockTask()
+        {
+            @Override
+            void process(int from, int to)
+            {
+                for (int i = from; i < to; ++i)
+                    FastAES.decryptBlock(dk, data, 16 * i, data, 16 * i);
+            }
+        }.run(data.length / 16);
+        return unpad(data);
+    }
+
+    public static ByteBuffer encryptCBC(byte[] key, byte[] iv, ByteBuffer in)
+    {
+        AesEngine engine = AesEngine.create(key);
+        checkIV(iv);
+        byte[] data = pad(in);
+        //Each block needs the cipher block before it, so this one stays on one thread
+        byte[] previous = iv;
+        int previousOff = 0;
+        for (int off = 0; off < data.length; off += 16)
+        {
+            for (int j = 0; j < 16; ++j)
+                data[off + j] ^= previous[previousOff + j];
+            engine.encryptBlocks(data, off, data, off, 1);
+            previous = data;
+            previousOff = off;
+        }
+        return ByteBuffer.wrap(data);
+    }
+
+    public static ByteBuffer decryptCBC(byte[] key, byte[] iv, ByteBuffer in)
+    {
+        int[] dk = FastAES.decryptionKey(FastAES.expandKey(key));
+        checkIV(iv);
+        byte[] cipher = copyBlocks(in);
+        byte[] plain = new byte[cipher.length];
+        new BlockTask()
+        {
+            @Override
+            void process(int from, int to)
+            {
+                for (int i = from; i < to; ++i)
+                {
+                    //P[i] = D(C[i]) ^ C[i-1], both cipher blocks are still in the input
+                    FastAES.decryptBlock(dk, cipher, 16 * i, plain, 16 * i);
+                    byte[] previous = i == 0 ? iv : cipher;
+                    int previousOff = i == 0 ? 0 : 16 * (i - 1);
+                    for (int j = 0; j < 16; ++j)
+                        plain[16 * i + j] ^= previous[previousOff + j];
+                }
+            }
+        }.run(cipher.length / 16);
+        return unpad(plain);
+    }
+
+    public static ByteBuffer ctr(byte[] key, byte[] iv, ByteBuffer in)
+    {
+        checkIV(iv);
+        ByteBuffer out = ByteBuffer.allocate(in.remaining());
+        ctr(new KeyStream(key), iv, 0, in.slice(), out, out.capacity());
+        return out;
+    }
+
+    static void ctr(KeyStream keys, byte[] iv, long firstBlock, ByteBuffer in, ByteBuffer out, int length)
+    {
+        //XOR the first length bytes of in with the key stream, starting from counter IV+firstBlock,
+        //and put the result in out. The buffers are read and written at absolute positions from 0,
+        //and in and out can be the same buffer
+        long ivHigh = ByteBuffer.wrap(iv).getLong(0);
+        long ivLow = ByteBuffer.wrap(iv).getLong(8);
+        int blocks = (length + 15) / 16;
+        new BlockTask()
+        {
+            @Override
+            void process(int from, int to)
+            {
+                //Work out the counter for the first block in this range, with a carry into the
+                //high half when the low half wraps around
+                long low = ivLow + firstBlock + from;
+                long high = ivHigh;
+                if (Long.compareUnsigned(low, ivLow) < 0)
+                    high++;
+                if (keys.bitsliced == null)
+                {
+                    //All the counters of the range in one buffer, encrypted by one engine call
+                    ByteBuffer stream = ByteBuffer.allocate(16 * (to - from));
+                    for (int off = 0; off < stream.capacity(); off += 16)
+                    {
+                        stream.putLong(off, high).putLong(off + 8, low);
+                        if (++low == 0)
+                            high++;
+                    }
+                    keys.engine.encryptBlocks(stream.array(), 0, stream.array(), 0, to - from);
+                    for (int i = from; i < to; ++i)
+                        xorBlock(in, out, 16 * i, length, stream.getLong(16 * (i - from)),
+                                stream.getLong(16 * (i - from) + 8));
+                }
+                else
+                {
+                    //64 counters at a time through the bitsliced engine, the last group may not
+                    //use all of them
+                    BitslicedAES aes = keys.bitsliced.copy();
+                    long[] highs = new long[64];
+                    long[] lows = new long[64];
+                    for (int i = from; i < to; i += 64)
+                    {
+                        for (int j = 0; j < 64; ++j)
+                        {
+                            highs[j] = high;
+                            lows[j] = low;
+                            if (++low == 0)
+                                high++;
+                        }
+                        aes.encrypt(highs, lows);
+                        for (int j = 0; j < 64 && i + j < to; ++j)
+                            xorBlock(in, out, 16 * (i + j), length, highs[j], lows[j]);
+                    }
+                }
+            }
+        }.run(blocks);
+    }
+
+    private static void xorBlock(ByteBuffer in, ByteBuffer out, int off, int length, long high, long low)
+    {
+        //XOR the block at off with 16 bytes of key stream
+        if (length - off >= 16)
+        {
+            out.putLong(off, in.getLong(off) ^ high);
+            out.putLong(off + 8, in.getLong(off + 8) ^ low);
+        }
+        else
+        {
+            //Last partial block, XOR one byte at a time
+            for (int j = 0; off + j < length; ++j)
+                out.put(off + j, (byte) (in.get(off + j) ^ ((j < 8 ? high : low) >>> (56 - 8 * (j & 7)))));
+        }
+    }
+
+    public static ByteBuffer encryptECB(byte[] key, Path file) throws IOException
+    {
+        return encryptECB(key, ByteBuffer.wrap(Files.readAllBytes(file)));
+    }
+
+    public static ByteBuffer decryptECB(byte[] key, Path file) throws IOException
+    {
+        return decryptECB(key, ByteBuffer.wrap(Files.readAllBytes(file)));
+    }
+
+    public static ByteBuffer encryptCBC(byte[] key, byte[] iv, Path file) throws IOException
+    {
+        return encryptCBC(key, iv, ByteBuffer.wrap(Files.readAllBytes(file)));
+    }
+
+    public static ByteBuffer decryptCBC(byte[] key, byte[] iv, Path file) throws IOException
+    {
+        return decryptCBC(key, iv, ByteBuffer.wrap(Files.readAllBytes(file)));
+    }
+
+    public static ByteBuffer ctr(byte[] key, byte[] iv, Path file) throws IOException
+    {
+        return ctr(key, iv, ByteBuffer.wrap(Files.readAllBytes(file)));
+    }
+
+    private static byte[] pad(ByteBuffer in)
+    {
+        //Copy the message and add 1 to 16 bytes of PKCS#7 padding
+        int length = in.remaining();
+        int padding = 16 - length % 16;
+        byte[] data = new byte[length + padding];
+        in.duplicate().get(data, 0, length);
+        for (int i = length; i < data.length; ++i)
+            data[i] = (byte) padding;
+        return data;
+    }
+
+    private static ByteBuffer unpad(byte[] data)
+    {
+        //The last byte says how many padding bytes there are, and they all have to hold that value
+        int padding = data.length == 0 ? 0 : data[data.length - 1] & 0xFF;
+        if (padding < 1 || padding > 16)
+            throw new IllegalArgumentException("Bad padding");
+        for (int i = data.length - padding; i < data.length; ++i)
+            if ((data[i] & 0xFF) != padding)
+                throw new IllegalArgumentException("Bad padding");
+        return ByteBuffer.wrap(data, 0, data.length - padding).slice();
+    }
+
+    private static byte[] copyBlocks(ByteBuffer in)
+    {
+        if (in.remaining() % 16 != 0)
+            throw new IllegalArgumentException("Cipher text is not a whole number of blocks");
+        byte[] data = new byte[in.remaining()];
+        in.duplicate().get(data);
+        return data;
+    }
+
+    private static void checkIV(byte[] iv)
+    {
+        if (iv == null || iv.length != 16)
+            throw new IllegalArgumentException("The IV has to be 16 bytes");
+    }
+
+    static byte[] toArray(ByteBuffer buffer)
+    {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    static byte[] parseHex(String hex)
+    {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; ++i)
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        return bytes;
+    }
+
+    private static void benchmark()
+    {
+        byte[] key = new byte[16];
+        byte[] iv = new byte[16];
+        ByteBuffer message = ByteBuffer.wrap(new byte[64 << 20]);
+        System.out.println("Threads: " + ForkJoinPool.commonPool().getParallelism());
+        for (int run = 0; run < 3; ++run)
+        {
+            long start = System.nanoTime();
+            ByteBuffer ecb = encryptECB(key, message);
+            report("ECB encrypt", start);
+            start = System.nanoTime();
+            ByteBuffer cbc = encryptCBC(key, iv, message);
+            report("CBC encrypt", start);
+            start = System.nanoTime();
+            decryptCBC(key, iv, cbc);
+            report("CBC decrypt", start);
+            start = System.nanoTime();
+            decryptECB(key, ecb);
+            report("ECB decrypt", start);
+            start = System.nanoTime();
+            ctr(key, iv, message);
+            report("CTR", start);
+        }
+    }
+
+    private static void report(String name, long start)
+    {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%s: %.1f MB/sec\n", name, 64 / seconds);
+    }
+
+    //The CTR key stream for one key, from the AesEngine or (aes.ctr.backend=bitsliced) from
+    //BitslicedAES, which is checked against the reference before it is trusted
+    static final class KeyStream
+    {
+        final AesEngine engine;
+        final BitslicedAES bitsliced;
+
+        KeyStream(byte[] key)
+        {
+            if (ctrBackend == CtrBackend.BITSLICED)
+            {
+                int[] w = FastAES.expandKey(key);
+                BitslicedAES.crossCheck(w);
+                engine = null;
+                bitsliced = new BitslicedAES(w);
+            }
+            else
+            {
+                engine = AesEngine.create(key);
+                bitsliced = null;
+            }
+        }
+    }
+
+    //Runs process over the blocks [0, blocks), splitting the range in half until the pieces are
+    //small enough
+    private abstract static class BlockTask
+    {
+        abstract void process(int from, int to);
+
+        void run(int blocks)
+        {
+            ForkJoinPool.commonPool().invoke(new Range(0, blocks));
+        }
+
+        private class Range extends RecursiveAction
+        {
+            private static final long serialVersionUID = 1L;
+
+            final int from;
+            final int to;
+
+            Range(int from, int to)
+            {
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected void compute()
+            {
+                if (to - from <= BLOCKS_PER_TASK)
+                    process(from, to);
+                else
+                {
+                    int middle = (from + to) >>> 1;
+                    invokeAll(new Range(from, middle), new Range(middle, to));
+                }
+            }
+        }
+    }
+}
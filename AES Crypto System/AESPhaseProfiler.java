@@ -0,0 +1,119 @@
+/*
+ * Counts and times the steps of AES.encrypt (subBytes, shiftRows, mixColumns and addKey).
+ *
+ * For every step it keeps the number of times it ran and the total nanoseconds spent in it, added
+ * up over all threads. Each step is also recorded as an aes.Phase JDK Flight Recorder event with
+ * the step and round, so a recording (java -XX:StartFlightRecording ...) shows where the time goes.
+ * Events are only created when the recording has them enabled.
+ *
+ * Running the program encrypts the given number of blocks (default 100000) through the reference
+ * engine with the profiler attached and prints the totals.
+ */
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+
+public class AESPhaseProfiler implements AESTraceListener
+{
+    private static final Phase[] PHASES = Phase.values();
+
+    private final LongAdder[] counts = new LongAdder[PHASES.length];
+    private final LongAdder[] nanos = new LongAdder[PHASES.length];
+    //Start time and open event of each step, per thread
+    private final ThreadLocal<long[]> started = ThreadLocal.withInitial(() -> new long[PHASES.length]);
+    private final ThreadLocal<PhaseEvent[]> events = ThreadLocal.withInitial(() -> new PhaseEvent[PHASES.length]);
+
+    public AESPhaseProfiler()
+    {
+        for (int i = 0; i < PHASES.length; ++i)
+        {
+            counts[i] = new LongAdder();
+            nanos[i] = new LongAdder();
+        }
+    }
+
+    public static void main(String[] args)
+    {
+        int blocks = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        byte[] key = new byte[16];
+        byte[] data = new byte[16 * blocks];
+        ThreadLocalRandom.current().nextBytes(key);
+        ThreadLocalRandom.current().nextBytes(data);
+        AESPhaseProfiler profiler = new AESPhaseProfiler();
+        new ReferenceAesEngine(key, profiler).encryptBlocks(data, 0, data, 0, blocks);
+        profiler.print();
+    }
+
+    @Override
+    public void phaseStarted(Phase phase, int round)
+    {
+        int i = phase.ordinal();
+        PhaseEvent event = new PhaseEvent();
+        if (event.isEnabled())
+        {
+            event.phase = phase.name();
+            event.round = round;
+            event.begin();
+            events.get()[i] = event;
+        }
+        started.get()[i] = System.nanoTime();
+    }
+
+    @Override
+    public void phaseFinished(Phase phase, int round, byte[] state)
+    {
+        long end = System.nanoTime();
+        int i = phase.ordinal();
+        counts[i].increment();
+        nanos[i].add(end - started.get()[i]);
+        PhaseEvent[] open = events.get();
+        if (open[i] != null)
+        {
+            open[i].commit();
+            open[i] = null;
+        }
+    }
+
+    public long count(Phase phase)
+    {
+        return counts[phase.ordinal()].sum();
+    }
+
+    public long nanos(Phase phase)
+    {
+        return nanos[phase.ordinal()].sum();
+    }
+
+    public void print()
+    {
+        long total = 0;
+        for (Phase phase : PHASES)
+            total += nanos(phase);
+        System.out.printf("%-12s %12s %14s %10s %7s\n", "Phase", "Count", "Total ns", "Avg ns", "Share");
+        for (Phase phase : PHASES)
+        {
+            long count = count(phase);
+            System.out.printf("%-12s %12d %14d %10.1f %6.1f%%\n", phase, count, nanos(phase),
+                    count == 0 ? 0.0 : (double) nanos(phase) / count,
+                    total == 0 ? 0.0 : 100.0 * nanos(phase) / total);
+        }
+    }
+
+    //Flight recorder event for one step of one round
+    @Name("aes.Phase")
+    @Label("AES Phase")
+    @Category("AES")
+    static class PhaseEvent extends Event
+    {
+        @Label("Phase")
+        String phase;
+
+        @Label("Round")
+        int round;
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * Gets told about each round and step of AES.encrypt as it runs.
+ *
+ * AES.encrypt only makes these calls when it is given a listener, so passing null costs nothing more
+ * than a null check. The state passed in is the live 16 byte state, which must not be modified and
+ * is only valid during the call.
+ *
+ * PrintingTraceListener prints the rounds like the original program did, AESPhaseProfiler times the
+ * steps.
+ */
+
+public interface AESTraceListener
+{
+    //The four steps of a round
+    enum Phase { SUB_BYTES, SHIFT_ROWS, MIX_COLUMNS, ADD_KEY }
+
+    default void roundStarted(int round)
+    {
+    }
+
+    default void phaseStarted(Phase phase, int round)
+    {
+    }
+
+    default void phaseFinished(Phase phase, int round, byte[] state)
+    {
+    }
+
+    default void roundFinished(int round, byte[] state)
+    {
+    }
+}
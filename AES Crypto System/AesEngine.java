@@ -0,0 +1,66 @@
+/*
+ * A way of running the AES-128 block function under one key, so callers do not care which
+ * implementation does the work.
+ *
+ * Implementations:
+ *		ReferenceAesEngine: The step by step algorithm in AES.java, slow but easy to check by hand
+ *		TableAesEngine: The T-tables in FastAES
+ *		JceAesEngine: The JDK's javax.crypto AES, which uses the CPU's AES instructions when it can
+ *		CrossCheckingAesEngine: Runs one engine and re-encrypts a sample of the blocks with another
+ *								one, failing if they ever disagree
+ *
+ * create picks an engine from the system properties, which it reads each time it is called, so a
+ * bad value fails there with an IllegalArgumentException that names the property
+ *		aes.engine = reference | table | jce (default jce)
+ *		aes.engine.check = fraction of blocks to re-check with the reference engine (default 0)
+ * AESModes (ECB and CBC encryption, CTR), AESFileEncryptor and AESGCM get their engines from create.
+ */
+
+public interface AesEngine
+{
+    //Encrypts blocks whole 16 byte blocks from in to out, in and out can be the same array
+    void encryptBlocks(byte[] in, int inOff, byte[] out, int outOff, int blocks);
+
+    String name();
+
+    static AesEngine create(byte[] key)
+    {
+        String name = System.getProperty("aes.engine", "jce").toLowerCase();
+        AesEngine engine;
+        switch (name)
+        {
+            case "reference":
+                engine = new ReferenceAesEngine(key);
+                break;
+            case "table":
+                engine = new TableAesEngine(key);
+                break;
+            case "jce":
+                engine = new JceAesEngine(key);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown AES engine " + name + " in aes.engine");
+        }
+        double fraction = checkFraction();
+        if (fraction > 0)
+            engine = new CrossCheckingAesEngine(engine, new ReferenceAesEngine(key), fraction);
+        return engine;
+    }
+
+    private static double checkFraction()
+    {
+        String value = System.getProperty("aes.engine.check", "0");
+        double fraction;
+        try
+        {
+            fraction = Double.parseDouble(value);
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IllegalArgumentException("aes.engine.check must be a number, not " + value, e);
+        }
+        if (!(fraction >= 0 && fraction <= 1))
+            throw new IllegalArgumentException("aes.engine.check must be between 0 and 1, not " + value);
+        return fraction;
+    }
+}
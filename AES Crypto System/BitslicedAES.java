@@ -0,0 +1,385 @@
+/*
+ * Bitsliced AES-128, encrypting 64 blocks at once with no table lookups.
+ *
+ * The 64 blocks are transposed into 128 longs, called planes. Plane 8i+j holds bit j (counting from
+ * the most significant bit) of byte i of every block, one block per bit of the long. Each step of
+ * the cipher then works on whole planes with AND/XOR/NOT, doing the same work for all 64 blocks:
+ *		Add Key: Each key bit is turned into a plane of all 0s or all 1s and XORed in
+ *		Sub Bytes: The S-box is computed as a boolean circuit (Boyar and Peralta's 113 gate
+ *				   circuit for inversion in GF(2^8) followed by the affine map) on the 8 planes of
+ *				   each byte
+ *		Shift Rows: Moves groups of 8 planes around, no bits change
+ *		Mix Columns: xtime on a byte is a fixed rearrangement of its 8 planes plus 3 XORs, so the
+ *				   whole matrix multiplication is XORs of planes
+ * Since nothing is looked up by an index that depends on the key or the message, the running time
+ * does not depend on them either (constant time), unlike the T-tables in FastAES.
+ *
+ * The transposition between blocks and planes is done on 64x64 bit matrices by swapping halves,
+ * then quarters, and so on (6 passes).
+ *
+ * AESModes uses this for CTR mode when the system property aes.ctr.backend is set to bitsliced.
+ * Running the program compares it with FastAES on random keys and counters, then measures the
+ * throughput of both.
+ */
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Random;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+
+public class BitslicedAES
+{
+    //Key schedules already checked by crossCheck, by identity, dropped with the schedule
+    private static final Set<int[]> CHECKED = Collections.synchronizedSet(
+            Collections.newSetFromMap(new WeakHashMap<>()));
+
+    //Key planes for rounds 0 to 10, shared by copies of this object
+    private final long[] keyPlanes;
+    //Planes of the 64 blocks, and space for shiftRows/mixColumns
+    private final long[] q = new long[128];
+    private final long[] t = new long[128];
+
+    public BitslicedAES(int[] w)
+    {
+        this(expandPlanes(w));
+    }
+
+    private BitslicedAES(long[] keyPlanes)
+    {
+        this.keyPlanes = keyPlanes;
+    }
+
+    public BitslicedAES copy()
+    {
+        //An object works on its own planes, so each thread needs its own copy
+        return new BitslicedAES(keyPlanes);
+    }
+
+    public static void main(String[] args)
+    {
+        Random random = new Random();
+        byte[] key = new byte[16];
+        long[] high = new long[64];
+        long[] low = new long[64];
+        byte[] block = new byte[16];
+        byte[] expected = new byte[16];
+        for (int test = 0; test < 100; ++test)
+        {
+            random.nextBytes(key);
+            int[] w = FastAES.expandKey(key);
+            BitslicedAES aes = new BitslicedAES(w);
+            for (int i = 0; i < 64; ++i)
+            {
+                high[i] = random.nextLong();
+                low[i] = random.nextLong();
+            }
+            long[] highCopy = high.clone();
+            long[] lowCopy = low.clone();
+            aes.encrypt(high, low);
+            for (int i = 0; i < 64; ++i)
+            {
+                putLong(block, 0, highCopy[i]);
+                putLong(block, 8, lowCopy[i]);
+                FastAES.encryptBlock(w, block, 0, expected, 0);
+                if (getLong(expected, 0) != high[i] || getLong(expected, 8) != low[i])
+                    throw new IllegalStateException("Bitsliced AES does not match FastAES");
+            }
+        }
+        System.out.println("Bitsliced AES matches FastAES");
+
+        //Throughput of 1M blocks through each implementation
+        int[] w = FastAES.expandKey(key);
+        BitslicedAES aes = new BitslicedAES(w);
+        for (int run = 0; run < 3; ++run)
+        {
+            long start = System.nanoTime();
+            for (int i = 0; i < (1 << 20) / 64; ++i)
+                aes.encrypt(high, low);
+            double bitsliced = (System.nanoTime() - start) / 1e9;
+            start = System.nanoTime();
+            for (int i = 0; i < (1 << 20); ++i)
+                FastAES.encryptBlock(w, block, 0, block, 0);
+            double table = (System.nanoTime() - start) / 1e9;
+            System.out.printf("Bitsliced: %.1f MB/sec, T-tables: %.1f MB/sec\n", 16 / bitsliced,
+                    16 / table);
+        }
+    }
+
+    static void crossCheck(int[] w)
+    {
+        //Encrypt 64 counter blocks here and with the reference AES.encrypt and make sure they
+        //agree, once per key schedule (KeyScheduleCache hands out the same array for a key)
+        if (CHECKED.contains(w))
+            return;
+        long[] high = new long[64];
+        long[] low = new long[64];
+        for (int i = 0; i < 64; ++i)
+        {
+            high[i] = 0x0123456789ABCDEFL * (i + 1);
+            low[i] = ~high[i] + i;
+        }
+        long[] highCopy = high.clone();
+        long[] lowCopy = low.clone();
+        new BitslicedAES(w).encrypt(high, low);
+        ByteBuffer block = ByteBuffer.allocate(16);
+        for (int i = 0; i < 64; ++i)
+        {
+            block.putLong(0, highCopy[i]).putLong(8, lowCopy[i]);
+            AES.encrypt(block.array(), w, null);
+            if (high[i] != block.getLong(0) || low[i] != block.getLong(8))
+                throw new IllegalStateException("Bitsliced AES does not match AES.encrypt");
+        }
+        CHECKED.add(w);
+    }
+
+    public void encrypt(long[] high, long[] low)
+    {
+        //Encrypts 64 blocks in place, block i is bytes 0-7 in high[i] and 8-15 in low[i], most
+        //significant byte first
+        System.arraycopy(high, 0, q, 0, 64);
+        System.arraycopy(low, 0, q, 64, 64);
+        transpose(q, 0);
+        transpose(q, 64);
+        addKey(0);
+        for (int round = 1; round < 11; ++round)
+        {
+            for (int i = 0; i < 128; i += 8)
+                subBytes(q, i);
+            shiftRows();
+            if (round != 10)
+                mixColumns();
+            addKey(round);
+        }
+        transpose(q, 0);
+        transpose(q, 64);
+        System.arraycopy(q, 0, high, 0, 64);
+        System.arraycopy(q, 64, low, 0, 64);
+    }
+
+    private static long[] expandPlanes(int[] w)
+    {
+        //Plane 8i+j of round r is all 1s when bit j (from the top) of byte i of the round key is set
+        long[] planes = new long[11 * 128];
+        for (int round = 0; round < 11; ++round)
+            for (int i = 0; i < 16; ++i)
+            {
+                int b = (w[4 * round + i / 4] >>> (24 - 8 * (i % 4))) & 0xFF;
+                for (int j = 0; j < 8; ++j)
+                    planes[128 * round + 8 * i + j] = -((b >>> (7 - j)) & 1L);
+            }
+        return planes;
+    }
+
+    private void addKey(int round)
+    {
+        int k = 128 * round;
+        for (int i = 0; i < 128; ++i)
+            q[i] ^= keyPlanes[k + i];
+    }
+
+    private void shiftRows()
+    {
+        //Byte r + 4c comes from byte r + 4(c + r), moving all 8 planes of the byte
+        System.arraycopy(q, 0, t, 0, 128);
+        for (int c = 0; c < 4; ++c)
+            for (int r = 1; r < 4; ++r)
+                System.arraycopy(t, 8 * (r + 4 * ((c + r) % 4)), q, 8 * (r + 4 * c), 8);
+    }
+
+    private void mixColumns()
+    {
+        //a'[r] = 2a[r] ^ 3a[r+1] ^ a[r+2] ^ a[r+3] = xtime(a[r] ^ a[r+1]) ^ a[r+1] ^ a[r+2] ^ a[r+3]
+        System.arraycopy(q, 0, t, 0, 128);
+        for (int c = 0; c < 128; c += 32)
+        {
+            for (int r = 0; r < 4; ++r)
+            {
+                int a0 = c + 8 * r;
+                int a1 = c + 8 * ((r + 1) % 4);
+                int a2 = c + 8 * ((r + 2) % 4);
+                int a3 = c + 8 * ((r + 3) % 4);
+                //x = a[r] ^ a[r+1], then xtime(x) by planes where x0 is the top bit
+                long x0 = t[a0] ^ t[a1], x1 = t[a0 + 1] ^ t[a1 + 1], x2 = t[a0 + 2] ^ t[a1 + 2],
+                        x3 = t[a0 + 3] ^ t[a1 + 3], x4 = t[a0 + 4] ^ t[a1 + 4], x5 = t[a0 + 5] ^ t[a1 + 5],
+                        x6 = t[a0 + 6] ^ t[a1 + 6], x7 = t[a0 + 7] ^ t[a1 + 7];
+                q[a0] = x1 ^ t[a1] ^ t[a2] ^ t[a3];
+                q[a0 + 1] = x2 ^ t[a1 + 1] ^ t[a2 + 1] ^ t[a3 + 1];
+                q[a0 + 2] = x3 ^ t[a1 + 2] ^ t[a2 + 2] ^ t[a3 + 2];
+                q[a0 + 3] = x4 ^ x0 ^ t[a1 + 3] ^ t[a2 + 3] ^ t[a3 + 3];
+                q[a0 + 4] = x5 ^ x0 ^ t[a1 + 4] ^ t[a2 + 4] ^ t[a3 + 4];
+                q[a0 + 5] = x6 ^ t[a1 + 5] ^ t[a2 + 5] ^ t[a3 + 5];
+                q[a0 + 6] = x7 ^ x0 ^ t[a1 + 6] ^ t[a2 + 6] ^ t[a3 + 6];
+                q[a0 + 7] = x0 ^ t[a1 + 7] ^ t[a2 + 7] ^ t[a3 + 7];
+            }
+        }
+    }
+
+    private static void subBytes(long[] q, int off)
+    {
+        //Boyar-Peralta S-box circuit, x0 is the top bit of the byte
+        long x0 = q[off], x1 = q[off + 1], x2 = q[off + 2], x3 = q[off + 3];
+        long x4 = q[off + 4], x5 = q[off + 5], x6 = q[off + 6], x7 = q[off + 7];
+
+        //Top linear transformation
+        long y14 = x3 ^ x5;
+        long y13 = x0 ^ x6;
+        long y9 = x0 ^ x3;
+        long y8 = x0 ^ x5;
+        long t0 = x1 ^ x2;
+        long y1 = t0 ^ x7;
+        long y4 = y1 ^ x3;
+        long y12 = y13 ^ y14;
+        long y2 = y1 ^ x0;
+        long y5 = y1 ^ x6;
+        long y3 = y5 ^ y8;
+        long t1 = x4 ^ y12;
+        long y15 = t1 ^ x5;
+        long y20 = t1 ^ x1;
+        long y6 = y15 ^ x7;
+        long y10 = y15 ^ t0;
+        long y11 = y20 ^ y9;
+        long y7 = x7 ^ y11;
+        long y17 = y10 ^ y11;
+        long y19 = y10 ^ y8;
+        long y16 = t0 ^ y11;
+        long y21 = y13 ^ y16;
+        long y18 = x0 ^ y16;
+
+        //Non-linear section, the inversion in GF(2^8)
+        long t2 = y12 & y15;
+        long t3 = y3 & y6;
+        long t4 = t3 ^ t2;
+        long t5 = y4 & x7;
+        long t6 = t5 ^ t2;
+        long t7 = y13 & y16;
+        long t8 = y5 & y1;
+        long t9 = t8 ^ t7;
+        long t10 = y2 & y7;
+        long t11 = t10 ^ t7;
+        long t12 = y9 & y11;
+        long t13 = y14 & y17;
+        long t14 = t13 ^ t12;
+        long t15 = y8 & y10;
+        long t16 = t15 ^ t12;
+        long t17 = t4 ^ t14;
+        long t18 = t6 ^ t16;
+        long t19 = t9 ^ t14;
+        long t20 = t11 ^ t16;
+        long t21 = t17 ^ y20;
+        long t22 = t18 ^ y19;
+        long t23 = t19 ^ y21;
+        long t24 = t20 ^ y18;
+
+        long t25 = t21 ^ t22;
+        long t26 = t21 & t23;
+        long t27 = t24 ^ t26;
+        long t28 = t25 & t27;
+        long t29 = t28 ^ t22;
+        long t30 = t23 ^ t24;
+        long t31 = t22 ^ t26;
+        long t32 = t31 & t30;
+        long t33 = t32 ^ t24;
+        long t34 = t23 ^ t33;
+        long t35 = t27 ^ t33;
+        long t36 = t24 & t35;
+        long t37 = t36 ^ t34;
+        long t38 = t27 ^ t36;
+        long t39 = t29 & t38;
+        long t40 = t25 ^ t39;
+
+        long t41 = t40 ^ t37;
+        long t42 = t29 ^ t33;
+        long t43 = t29 ^ t40;
+        long t44 = t33 ^ t37;
+        long t45 = t42 ^ t41;
+        long z0 = t44 & y15;
+        long z1 = t37 & y6;
+        long z2 = t33 & x7;
+        long z3 = t43 & y16;
+        long z4 = t40 & y1;
+        long z5 = t29 & y7;
+        long z6 = t42 & y11;
+        long z7 = t45 & y17;
+        long z8 = t41 & y10;
+        long z9 = t44 & y12;
+        long z10 = t37 & y3;
+        long z11 = t33 & y4;
+        long z12 = t43 & y13;
+        long z13 = t40 & y5;
+        long z14 = t29 & y2;
+        long z15 = t42 & y9;
+        long z16 = t45 & y14;
+        long z17 = t41 & y8;
+
+        //Bottom linear transformation, including the affine map
+        long t46 = z15 ^ z16;
+        long t47 = z10 ^ z11;
+        long t48 = z5 ^ z13;
+        long t49 = z9 ^ z10;
+        long t50 = z2 ^ z12;
+        long t51 = z2 ^ z5;
+        long t52 = z7 ^ z8;
+        long t53 = z0 ^ z3;
+        long t54 = z6 ^ z7;
+        long t55 = z16 ^ z17;
+        long t56 = z12 ^ t48;
+        long t57 = t50 ^ t53;
+        long t58 = z4 ^ t46;
+        long t59 = z3 ^ t54;
+        long t60 = t46 ^ t57;
+        long t61 = z14 ^ t57;
+        long t62 = t52 ^ t58;
+        long t63 = t49 ^ t58;
+        long t64 = z4 ^ t59;
+        long t65 = t61 ^ t62;
+        long t66 = z1 ^ t63;
+        long s0 = t59 ^ t63;
+        long s6 = t56 ^ ~t62;
+        long s7 = t48 ^ ~t60;
+        long t67 = t64 ^ t65;
+        long s3 = t53 ^ t66;
+        long s4 = t51 ^ t66;
+        long s5 = t47 ^ t65;
+        long s1 = t64 ^ ~s3;
+        long s2 = t55 ^ ~t67;
+
+        q[off] = s0;
+        q[off + 1] = s1;
+        q[off + 2] = s2;
+        q[off + 3] = s3;
+        q[off + 4] = s4;
+        q[off + 5] = s5;
+        q[off + 6] = s6;
+        q[off + 7] = s7;
+    }
+
+    private static void transpose(long[] a, int off)
+    {
+        //Swaps the 64x64 bit matrix a[off..off+63] around its anti-diagonal. Bit c of row r ends up
+        //as bit 63-r of row 63-c, so bit j (from the top) of byte i of every block lands in plane
+        //8i+j, block r in bit 63-r. Doing it twice gives back the original
+        long m = 0x00000000FFFFFFFFL;
+        for (int j = 32; j != 0; j >>= 1, m ^= (m << j))
+        {
+            for (int k = 0; k < 64; k = ((k | j) + 1) & ~j)
+            {
+                long x = (a[off + k] ^ (a[off + (k | j)] >>> j)) & m;
+                a[off + k] ^= x;
+                a[off + (k | j)] ^= (x << j);
+            }
+        }
+    }
+
+    private static long getLong(byte[] b, int off)
+    {
+        return ((long) FastAES.getInt(b, off) << 32) | (FastAES.getInt(b, off + 4) & 0xFFFFFFFFL);
+    }
+
+    private static void putLong(byte[] b, int off, long value)
+    {
+        FastAES.putInt(b, off, (int) (value >>> 32));
+        FastAES.putInt(b, off + 4, (int) value);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * AES engine that lets a fast engine do the work and checks a random sample of its blocks against
+ * a second engine (normally ReferenceAesEngine). Each block is picked with the given probability,
+ * its input is saved before the fast engine runs (in and out may be the same array), and afterwards
+ * the oracle encrypts the saved input and compares. A mismatch throws IllegalStateException.
+ *
+ * Running the program encrypts 64MB with the JCE engine while checking 1% of the blocks, and prints
+ * the throughput of each engine for comparison.
+ */
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+public class CrossCheckingAesEngine implements AesEngine
+{
+    private final AesEngine primary;
+    private final AesEngine oracle;
+    private final double fraction;
+    private final AtomicLong checked = new AtomicLong();
+
+    public CrossCheckingAesEngine(AesEngine primary, AesEngine oracle, double fraction)
+    {
+        if (fraction < 0 || fraction > 1)
+            throw new IllegalArgumentException("Fraction must be between 0 and 1");
+        this.primary = primary;
+        this.oracle = oracle;
+        this.fraction = fraction;
+    }
+
+    public static void main(String[] args)
+    {
+        byte[] key = new byte[16];
+        ThreadLocalRandom.current().nextBytes(key);
+        byte[] data = new byte[64 << 20];
+        ThreadLocalRandom.current().nextBytes(data);
+        CrossCheckingAesEngine checking = new CrossCheckingAesEngine(new JceAesEngine(key),
+                new ReferenceAesEngine(key), 0.01);
+        AesEngine[] engines = new AesEngine[] { new JceAesEngine(key), new TableAesEngine(key), checking };
+        for (int run = 0; run < 3; ++run)
+        {
+            for (AesEngine engine : engines)
+            {
+                long start = System.nanoTime();
+                engine.encryptBlocks(data, 0, data, 0, data.length / 16);
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf("%s: %.1f MB/sec\n", engine.name(), 64 / seconds);
+            }
+        }
+        System.out.println("Blocks checked against the reference: " + checking.checked());
+    }
+
+    @Override
+    public void encryptBlocks(byte[] in, int inOff, byte[] out, int outOff, int blocks)
+    {
+        //Pick the blocks to check and keep a copy of their input
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int[] picked = new int[blocks];
+        int count = 0;
+        for (int i = 0; i < blocks; ++i)
+            if (random.nextDouble() < fraction)
+                picked[count++] = i;
+        byte[] saved = new byte[16 * count];
+        for (int j = 0; j < count; ++j)
+            System.arraycopy(in, inOff + 16 * picked[j], saved, 16 * j, 16);
+
+        primary.encryptBlocks(in, inOff, out, outOff, blocks);
+
+        //Encrypt the saved blocks with the oracle and compare
+        oracle.encryptBlocks(saved, 0, saved, 0, count);
+        for (int j = 0; j < count; ++j)
+        {
+            int off = outOff + 16 * picked[j];
+            for (int k = 0; k < 16; ++k)
+                if (out[off + k] != saved[16 * j + k])
+                    throw new IllegalStateException(primary.name() + " and " + oracle.name()
+                            + " disagree on block " + picked[j]);
+        }
+        checked.addAndGet(count);
+    }
+
+    public long checked()
+    {
+        return checked.get();
+    }
+
+    @Override
+    public String name()
+    {
+        return primary.name() + " checked by " + oracle.name();
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Table driven version of the AES-128 block function in AES.java, meant for bulk encryption.
+ *
+ * The S-box is computed once when the class is loaded by running the subBytes step from AES.java
+ * on every possible byte. From the S-box we build four T-tables, where each entry combines
+ * SubBytes, ShiftRows and MixColumns for one byte of a column:
+ *		TE0[x] = (2*S[x], S[x], S[x], 3*S[x]) packed into an int, most significant byte first
+ *		TE1, TE2, TE3 are TE0 rotated right by 8, 16 and 24 bits
+ *
+ * The state is kept as four ints, one per column (row 0 in the top byte). A full round is then
+ *		t[c] = TE0[s[c] row 0] ^ TE1[s[c+1] row 1] ^ TE2[s[c+2] row 2] ^ TE3[s[c+3] row 3] ^ w[4r+c]
+ * and the last round, which has no mixColumns, uses the S-box directly.
+ *
+ * Decryption works the same way with the inverse S-box and tables TD0..TD3 built from the inverse
+ * mixColumns matrix. For that to line up, the round keys are used in reverse order and the middle
+ * ones are passed through inverse mixColumns first (decryptionKey).
+ *
+ * Running the program checks the example from the header of AES.java and then measures how many
+ * MB/sec of blocks can be encrypted.
+ */
+
+public class FastAES
+{
+    //S-box and the four combined round tables
+    static final int[] SBOX = new int[256];
+    static final int[] TE0 = new int[256];
+    static final int[] TE1 = new int[256];
+    static final int[] TE2 = new int[256];
+    static final int[] TE3 = new int[256];
+    //Inverse S-box and the tables for decryption
+    static final int[] INV_SBOX = new int[256];
+    static final int[] TD0 = new int[256];
+    static final int[] TD1 = new int[256];
+    static final int[] TD2 = new int[256];
+    static final int[] TD3 = new int[256];
+
+    static
+    {
+        for (int x = 0; x < 256; ++x)
+        {
+            int s = AES.subBytes(x);
+            SBOX[x] = s;
+            int s2 = AES.xtime(s);
+            int s3 = s2 ^ s;
+            TE0[x] = (s2 << 24) | (s << 16) | (s << 8) | s3;
+            TE1[x] = Integer.rotateRight(TE0[x], 8);
+            TE2[x] = Integer.rotateRight(TE0[x], 16);
+            TE3[x] = Integer.rotateRight(TE0[x], 24);
+            INV_SBOX[s] = x;
+        }
+        for (int x = 0; x < 256; ++x)
+        {
+            //Inverse mixColumns multiplies by 14, 9, 13 and 11 instead of 2, 1, 1 and 3
+            int s = INV_SBOX[x];
+            TD0[x] = (AES.fieldMultiply(14, s) << 24) | (AES.fieldMultiply(9, s) << 16)
+                    | (AES.fieldMultiply(13, s) << 8) | AES.fieldMultiply(11, s);
+            TD1[x] = Integer.rotateRight(TD0[x], 8);
+            TD2[x] = Integer.rotateRight(TD0[x], 16);
+            TD3[x] = Integer.rotateRight(TD0[x], 24);
+        }
+    }
+
+    public static void main(String[] args)
+    {
+        //Example from AES.java: message of all 1 bits, key 2B 7E 15 16 28 AE D2 A6 AB F7 15 88 09 CF 4F 3C
+        byte[] key = new byte[] { 0x2B, 0x7E, 0x15, 0x16, 0x28, (byte) 0xAE, (byte) 0xD2, (byte) 0xA6,
+                (byte) 0xAB, (byte) 0xF7, 0x15, (byte) 0x88, 0x09, (byte) 0xCF, 0x4F, 0x3C };
+        byte[] message = new byte[16];
+        for (int i = 0; i < 16; ++i)
+            message[i] = (byte) 0xFF;
+        int[] w = expandKey(key);
+        byte[] cipher = new byte[16];
+        encryptBlock(w, message, 0, cipher, 0);
+        String hex = toHex(cipher);
+        System.out.println("Cipher text: " + hex);
+        if (!hex.equals("8af2860142f786f409307c1a3f7eaaac"))
+            throw new IllegalStateException("Table engine does not match AES.java");
+
+        //Encrypt a 64MB buffer a few times and report the throughput
+        int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        byte[] data = new byte[megabytes << 20];
+        for (int run = 0; run < 3; ++run)
+        {
+            long start = System.nanoTime();
+            for (int off = 0; off < data.length; off += 16)
+                encryptBlock(w, data, off, data, off);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("Run %d: %.1f MB/sec\n", run + 1, megabytes / seconds);
+        }
+    }
+
+    public static int[] expandKey(byte[] key)
+    {
+        //Same schedule as AES.populateKeys, shared through the cache for keys used again
+        return KeyScheduleCache.DEFAULT.get(key);
+    }
+
+    public static void encryptBlock(int[] w, byte[] in, int inOff, byte[] out, int outOff)
+    {
+        int[] s = new int[] { getInt(in, inOff), getInt(in, inOff + 4), getInt(in, inOff + 8),
+                getInt(in, inOff + 12) };
+        encrypt(w, s);
+        putInt(out, outOff, s[0]);
+        putInt(out, outOff + 4, s[1]);
+        putInt(out, outOff + 8, s[2]);
+        putInt(out, outOff + 12, s[3]);
+    }
+
+    public static void decryptBlock(int[] dk, byte[] in, int inOff, byte[] out, int outOff)
+    {
+        int[] s = new int[] { getInt(in, inOff), getInt(in, inOff + 4), getInt(in, inOff + 8),
+                getInt(in, inOff + 12) };
+        decrypt(dk, s);
+        putInt(out, outOff, s[0]);
+        putInt(out, outOff + 4, s[1]);
+        putInt(out, outOff + 8, s[2]);
+        putInt(out, outOff + 12, s[3]);
+    }
+
+    static void encrypt(int[] w, int[] s)
+    {
+        //Round 0 is just the XOR with the key
+        int s0 = s[0] ^ w[0];
+        int s1 = s[1] ^ w[1];
+        int s2 = s[2] ^ w[2];
+        int s3 = s[3] ^ w[3];
+        //Rounds 1 to 9 do subBytes, shiftRows, mixColumns and addKey through the tables
+        int k = 4;
+        for (int round = 1; round < 10; ++round, k += 4)
+        {
+            int t0 = TE0[s0 >>> 24] ^ TE1[(s1 >>> 16) & 0xFF] ^ TE2[(s2 >>> 8) & 0xFF] ^ TE3[s3 & 0xFF] ^ w[k];
+            int t1 = TE0[s1 >>> 24] ^ TE1[(s2 >>> 16) & 0xFF] ^ TE2[(s3 >>> 8) & 0xFF] ^ TE3[s0 & 0xFF] ^ w[k + 1];
+            int t2 = TE0[s2 >>> 24] ^ TE1[(s3 >>> 16) & 0xFF] ^ TE2[(s0 >>> 8) & 0xFF] ^ TE3[s1 & 0xFF] ^ w[k + 2];
+            int t3 = TE0[s3 >>> 24] ^ TE1[(s0 >>> 16) & 0xFF] ^ TE2[(s1 >>> 8) & 0xFF] ^ TE3[s2 & 0xFF] ^ w[k + 3];
+            s0 = t0;
+            s1 = t1;
+            s2 = t2;
+            s3 = t3;
+        }
+        //The last round has no mixColumns
+        s[0] = lastRound(s0, s1, s2, s3) ^ w[40];
+        s[1] = lastRound(s1, s2, s3, s0) ^ w[41];
+        s[2] = lastRound(s2, s3, s0, s1) ^ w[42];
+        s[3] = lastRound(s3, s0, s1, s2) ^ w[43];
+    }
+
+    static void decrypt(int[] dk, int[] s)
+    {
+        //Same structure as encrypt, but the inverse steps shift rows to the right
+        int s0 = s[0] ^ dk[0];
+        int s1 = s[1] ^ dk[1];
+        int s2 = s[2] ^ dk[2];
+        int s3 = s[3] ^ dk[3];
+        int k = 4;
+        for (int round = 1; round < 10; ++round, k += 4)
+        {
+            int t0 = TD0[s0 >>> 24] ^ TD1[(s3 >>> 16) & 0xFF] ^ TD2[(s2 >>> 8) & 0xFF] ^ TD3[s1 & 0xFF] ^ dk[k];
+            int t1 = TD0[s1 >>> 24] ^ TD1[(s0 >>> 16) & 0xFF] ^ TD2[(s3 >>> 8) & 0xFF] ^ TD3[s2 & 0xFF] ^ dk[k + 1];
+            int t2 = TD0[s2 >>> 24] ^ TD1[(s1 >>> 16) & 0xFF] ^ TD2[(s0 >>> 8) & 0xFF] ^ TD3[s3 & 0xFF] ^ dk[k + 2];
+            int t3 = TD0[s3 >>> 24] ^ TD1[(s2 >>> 16) & 0xFF] ^ TD2[(s1 >>> 8) & 0xFF] ^ TD3[s0 & 0xFF] ^ dk[k + 3];
+            s0 = t0;
+            s1 = t1;
+            s2 = t2;
+            s3 = t3;
+        }
+        s[0] = lastInverseRound(s0, s3, s2, s1) ^ dk[40];
+        s[1] = lastInverseRound(s1, s0, s3, s2) ^ dk[41];
+        s[2] = lastInverseRound(s2, s1, s0, s3) ^ dk[42];
+        s[3] = lastInverseRound(s3, s2, s1, s0) ^ dk[43];
+    }
+
+    public static int[] decryptionKey(int[] w)
+    {
+        //The decryption schedule uses the round keys backwards, and rounds 1 to 9 also go through
+        //inverse mixColumns so they can be added after the TD tables
+        int[] dk = new int[44];
+        for (int round = 0; round <= 10; ++round)
+        {
+            for (int c = 0; c < 4; ++c)
+            {
+                int word = w[4 * (10 - round) + c];
+                if (round != 0 && round != 10)
+                    word = TD0[SBOX[word >>> 24]] ^ TD1[SBOX[(word >>> 16) & 0xFF]]
+                            ^ TD2[SBOX[(word >>> 8) & 0xFF]] ^ TD3[SBOX[word & 0xFF]];
+                dk[4 * round + c] = word;
+            }
+        }
+        return dk;
+    }
+
+    private static int lastRound(int a, int b, int c, int d)
+    {
+        //subBytes and shiftRows for one column
+        return (SBOX[a >>> 24] << 24) | (SBOX[(b >>> 16) & 0xFF] << 16)
+                | (SBOX[(c >>> 8) & 0xFF] << 8) | SBOX[d & 0xFF];
+    }
+
+    private static int lastInverseRound(int a, int b, int c, int d)
+    {
+        //Inverse subBytes and inverse shiftRows for one column
+        return (INV_SBOX[a >>> 24] << 24) | (INV_SBOX[(b >>> 16) & 0xFF] << 16)
+                | (INV_SBOX[(c >>> 8) & 0xFF] << 8) | INV_SBOX[d & 0xFF];
+    }
+
+    static int getInt(byte[] b, int off)
+    {
+        return (b[off] << 24) | ((b[off + 1] & 0xFF) << 16) | ((b[off + 2] & 0xFF) << 8) | (b[off + 3] & 0xFF);
+    }
+
+    static void putInt(byte[] b, int off, int value)
+    {
+        b[off] = (byte) (value >>> 24);
+        b[off + 1] = (byte) (value >>> 16);
+        b[off + 2] = (byte) (value >>> 8);
+        b[off + 3] = (byte) value;
+    }
+
+    static String toHex(byte[] bytes)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes)
+            sb.append(String.format("%02x", b & 0xFF));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,466 @@
+/*
+ * Arithmetic in the finite field GF(p^n), the polynomials over Z_p taken mod an irreducible
+ * polynomial f of degree n.
+ *
+ * Unlike PolynomialInverse, an element here is always an int array of length n, with entry i the
+ * coefficient of x^i (lowest power first), so x^2 + 2 in GF(3^3) is [2, 0, 1]. Results are written
+ * into an array the caller passes in, and the work space is allocated once per field, so nothing
+ * is allocated per operation. Because of that work space, a FiniteField object must only be used
+ * by one thread at a time.
+ *
+ * There are three ways to invert:
+ * 1. inverse: Extended Euclid done in place. Keep u = g1 a and v = g2 a (mod f), starting from
+ *    u = a, g1 = 1, v = f, g2 = 0. While u is not a constant, make deg u >= deg v (swapping the pairs
+ *    if needed) and cancel the leading term of u with c x^j v, doing the same to g1 with g2.
+ *    When u is a nonzero constant, a^-1 = g1 / u.
+ * 2. itohTsujiiInverse: With r = (p^n - 1)/(p - 1) = 1 + p + ... + p^(n-1), a^r is in Z_p, so
+ *    a^-1 = a^(r-1) (a^r)^-1. a^(r-1) is the product of a^p, a^(p^2), ..., a^(p^(n-1)), and raising
+ *    to the power p (Frobenius) is a linear map, so it is a precomputed n x n matrix over Z_p.
+ * 3. logInverse/logMultiply: For small fields, elements are numbered as sum of c_i p^i and we keep
+ *    log/antilog tables for a generator g, so a b = g^(log a + log b) and a^-1 = g^(q - 1 - log a).
+ *    The tables are asked for when the field is made, which fails if p^n is over MAX_LOG_TABLE_SIZE.
+ */
+
+import java.util.Arrays;
+import java.util.Random;
+
+
+public class FiniteField
+{
+    //Fields with at most this many elements can build log tables
+    static final int MAX_LOG_TABLE_SIZE = 1 << 20;
+    //Products are below 2^60, so four of them and a reduced sum still fit in a long
+    static final int MAX_PRIME = 1 << 30;
+
+    private final int p;
+    private final int n;
+    //f without its leading 1, made monic, lowest power first
+    private final int[] f;
+    //Work space for products, Euclid and Itoh-Tsujii
+    private final long[] product;
+    private final int[] u, v, g1, g2, t1, t2;
+    //Frobenius matrix, row i is x^(p i) mod f, built when first needed
+    private int[][] frobenius;
+    //Log tables, only for fields made with logTables
+    private int[] log;
+    private int[] antilog;
+
+    public FiniteField(int p, int[] modulus)
+    {
+        this(p, modulus, false);
+    }
+
+    public FiniteField(int p, int[] modulus, boolean logTables)
+    {
+        //modulus is f with lowest power first and length n + 1
+        this.p = p;
+        this.n = modulus.length - 1;
+        if (n < 1 || modulus[n] % p == 0)
+            throw new IllegalArgumentException("Modulus must have degree at least 1");
+        if (p < 2 || p > MAX_PRIME)
+            throw new IllegalArgumentException("Prime is out of range");
+        //Divide f by its leading coefficient so it is monic
+        int lead = inverseModP(mod(modulus[n]));
+        f = new int[n];
+        for (int i = 0; i < n; ++i)
+            f[i] = (int) ((long) mod(modulus[i]) * lead % p);
+        product = new long[2 * n - 1];
+        u = new int[n + 1];
+        v = new int[n + 1];
+        g1 = new int[2 * n + 1];
+        g2 = new int[2 * n + 1];
+        t1 = new int[n];
+        t2 = new int[n];
+        if (logTables)
+        {
+            int q = size();
+            if (q < 0 || q > MAX_LOG_TABLE_SIZE)
+                throw new IllegalArgumentException("Field is too big for log tables");
+            buildLogTables(q);
+        }
+    }
+
+    public static void main(String[] args)
+    {
+        //AES field: x^8 + x^4 + x^3 + x + 1 over Z_2, checked against the tables in AES.java
+        FiniteField aes = new FiniteField(2, new int[] { 1, 1, 0, 1, 1, 0, 0, 0, 1 }, true);
+        int[] a = new int[8];
+        int[] r = new int[8];
+        int[] s = new int[8];
+        for (int b = 1; b < 256; ++b)
+        {
+            for (int i = 0; i < 8; ++i)
+                a[i] = (b >>> i) & 1;
+            aes.inverse(a, r);
+            aes.itohTsujiiInverse(a, s);
+            if (!Arrays.equals(r, s) || aes.encode(r) != AES.fieldInverse(b)
+                    || aes.logInverse(b) != AES.fieldInverse(b))
+                throw new IllegalStateException("Inverse of " + b + " is wrong");
+        }
+        System.out.println("GF(2^8) inverses match AES.java");
+
+        //GF(7^7) with x^7 - x - 1, every inverse times its element must be 1
+        FiniteField field = new FiniteField(7, new int[] { 6, 6, 0, 0, 0, 0, 0, 1 }, true);
+        a = new int[7];
+        r = new int[7];
+        s = new int[7];
+        for (int b = 1; b < field.size(); ++b)
+        {
+            field.decode(b, a);
+            field.inverse(a, r);
+            field.multiply(a, r, s);
+            if (field.encode(s) != 1 || field.logInverse(b) != field.encode(r))
+                throw new IllegalStateException("Inverse of " + b + " is wrong");
+        }
+        System.out.println("All " + (field.size() - 1) + " inverses in GF(7^7) check out");
+
+        //Products with p near MAX_PRIME and zero coefficients between the reductions, against
+        //Polynomials (the modulus need not be irreducible for that)
+        int big = 1073741789;
+        Random random = new Random(1);
+        for (int n : new int[] { 5, 12, 31 })
+        {
+            int[] modulus = new int[n + 1];
+            for (int i = 0; i < n; ++i)
+                modulus[i] = big - 1 - random.nextInt(3);
+            modulus[n] = 1;
+            FiniteField large = new FiniteField(big, modulus);
+            int[] x = new int[n], y = new int[n], z = new int[n];
+            for (int trial = 0; trial < 100; ++trial)
+            {
+                for (int i = 0; i < n; ++i)
+                {
+                    x[i] = (i & 3) == 3 || random.nextInt(4) == 0 ? 0 : big - 1 - random.nextInt(3);
+                    y[i] = big - 1 - random.nextInt(3);
+                }
+                large.multiply(x, y, z);
+                int[] expected = Polynomials.divide(Polynomials.multiply(Polynomials.trim(x), y, big),
+                        modulus, big)[1];
+                if (!Arrays.equals(Polynomials.trim(z), expected))
+                    throw new IllegalStateException("Product of degree " + n + " is wrong mod " + big);
+            }
+        }
+        System.out.println("Products mod " + big + " with zero coefficients check out");
+
+        //Time a million inversions each way
+        long start = System.nanoTime();
+        for (int i = 0; i < 1000000; ++i)
+        {
+            field.decode(1 + i % (field.size() - 1), a);
+            field.inverse(a, r);
+        }
+        System.out.printf("Euclid: %.3f us per inverse\n", (System.nanoTime() - start) / 1e9);
+        start = System.nanoTime();
+        for (int i = 0; i < 1000000; ++i)
+        {
+            field.decode(1 + i % (field.size() - 1), a);
+            field.itohTsujiiInverse(a, r);
+        }
+        System.out.printf("Itoh-Tsujii: %.3f us per inverse\n", (System.nanoTime() - start) / 1e9);
+        start = System.nanoTime();
+        for (int i = 0; i < 1000000; ++i)
+            field.logInverse(1 + i % (field.size() - 1));
+        System.out.printf("Log tables: %.3f us per inverse\n", (System.nanoTime() - start) / 1e9);
+    }
+
+    public int characteristic()
+    {
+        return p;
+    }
+
+    public int degree()
+    {
+        return n;
+    }
+
+    public int size()
+    {
+        //p^n, only meaningful when it fits in an int
+        long q = 1;
+        for (int i = 0; i < n && q <= Integer.MAX_VALUE; ++i)
+            q *= p;
+        return q > Integer.MAX_VALUE ? -1 : (int) q;
+    }
+
+    public void add(int[] a, int[] b, int[] r)
+    {
+        for (int i = 0; i < n; ++i)
+        {
+            int c = a[i] + b[i];
+            r[i] = c >= p ? c - p : c;
+        }
+    }
+
+    public void subtract(int[] a, int[] b, int[] r)
+    {
+        for (int i = 0; i < n; ++i)
+        {
+            int c = a[i] - b[i];
+            r[i] = c < 0 ? c + p : c;
+        }
+    }
+
+    public void multiply(int[] a, int[] b, int[] r)
+    {
+        //Schoolbook product, then reduce from the top using x^n = -(f[n-1] x^(n-1) + ... + f[0])
+        Arrays.fill(product, 0);
+        int rows = 0;
+        for (int i = 0; i < n; ++i)
+        {
+            if (a[i] == 0)
+                continue;
+            for (int j = 0; j < n; ++j)
+                product[i + j] += (long) a[i] * b[j];
+            //Keep the sums small enough to add more products, counting only the rows added
+            if (++rows == 4)
+            {
+                for (int k = 0; k < 2 * n - 1; ++k)
+                    product[k] %= p;
+                rows = 0;
+            }
+        }
+        for (int i = 2 * n - 2; i >= n; --i)
+        {
+            long c = product[i] % p;
+            if (c == 0)
+                continue;
+            for (int j = 0; j < n; ++j)
+                product[i - n + j] = (product[i - n + j] + c * (p - f[j])) % p;
+        }
+        for (int i = 0; i < n; ++i)
+            r[i] = (int) (product[i] % p);
+    }
+
+    public void inverse(int[] a, int[] r)
+    {
+        //Extended Euclid in place, see the top of the file. deg tracks the degrees of u and v
+        System.arraycopy(a, 0, u, 0, n);
+        u[n] = 0;
+        System.arraycopy(f, 0, v, 0, n);
+        v[n] = 1;
+        Arrays.fill(g1, 0);
+        Arrays.fill(g2, 0);
+        g1[0] = 1;
+        int[] uu = u, vv = v, gu = g1, gv = g2;
+        int degU = degree(uu, n), degV = n;
+        if (degU < 0)
+            throw new ArithmeticException("Zero has no inverse");
+        while (degU > 0)
+        {
+            if (degU < degV)
+            {
+                int[] swap = uu;
+                uu = vv;
+                vv = swap;
+                swap = gu;
+                gu = gv;
+                gv = swap;
+                int d = degU;
+                degU = degV;
+                degV = d;
+            }
+            //u -= c x^j v and gu -= c x^j gv, which removes the leading term of u
+            int j = degU - degV;
+            int c = (int) ((long) uu[degU] * inverseModP(vv[degV]) % p);
+            for (int i = 0; i <= degV; ++i)
+                uu[i + j] = (int) ((uu[i + j] + (long) (p - c) * vv[i]) % p);
+            for (int i = 0; i + j < gu.length; ++i)
+                if (gv[i] != 0)
+                    gu[i + j] = (int) ((gu[i + j] + (long) (p - c) * gv[i]) % p);
+            degU = degree(uu, degU - 1);
+            if (degU < 0)
+                throw new ArithmeticException("Modulus is not irreducible");
+        }
+        //u is a constant, so a^-1 = gu / u, with gu reduced mod f
+        reduce(gu);
+        int scale = inverseModP(uu[0]);
+        for (int i = 0; i < n; ++i)
+            r[i] = (int) ((long) gu[i] * scale % p);
+    }
+
+    public void itohTsujiiInverse(int[] a, int[] r)
+    {
+        //a^(r-1) = a^p a^(p^2) ... a^(p^(n-1)), then divide by the norm a^r = a^(r-1) a
+        if (frobenius == null)
+            buildFrobenius();
+        if (degree(a, n - 1) < 0)
+            throw new ArithmeticException("Zero has no inverse");
+        int[] power = t1;
+        int[] result = t2;
+        frobenius(a, power);
+        System.arraycopy(power, 0, result, 0, n);
+        for (int i = 2; i < n; ++i)
+        {
+            frobenius(power, power);
+            multiply(result, power, result);
+        }
+        if (n == 1)
+        {
+            Arrays.fill(result, 0);
+            result[0] = 1;
+        }
+        //The norm is a constant, the constant term of a^(r-1) a
+        multiply(result, a, power);
+        int scale = inverseModP(power[0]);
+        for (int i = 0; i < n; ++i)
+            r[i] = (int) ((long) result[i] * scale % p);
+    }
+
+    public int encode(int[] a)
+    {
+        //Number the element as a[0] + a[1] p + ... + a[n-1] p^(n-1)
+        int code = 0;
+        for (int i = n - 1; i >= 0; --i)
+            code = code * p + a[i];
+        return code;
+    }
+
+    public void decode(int code, int[] a)
+    {
+        for (int i = 0; i < n; ++i)
+        {
+            a[i] = code % p;
+            code /= p;
+        }
+    }
+
+    public int logMultiply(int a, int b)
+    {
+        //Product of two numbered elements through the log tables
+        checkLogTables();
+        if (a == 0 || b == 0)
+            return 0;
+        int q1 = antilog.length;
+        int e = log[a] + log[b];
+        return antilog[e >= q1 ? e - q1 : e];
+    }
+
+    public int logInverse(int a)
+    {
+        checkLogTables();
+        if (a == 0)
+            throw new ArithmeticException("Zero has no inverse");
+        int q1 = antilog.length;
+        return antilog[log[a] == 0 ? 0 : q1 - log[a]];
+    }
+
+    private void frobenius(int[] a, int[] r)
+    {
+        //a(x)^p = sum a_i x^(p i), since a_i^p = a_i in Z_p, so r = sum a_i row i
+        Arrays.fill(product, 0, n, 0);
+        for (int i = 0; i < n; ++i)
+        {
+            if (a[i] == 0)
+                continue;
+            for (int j = 0; j < n; ++j)
+                product[j] = (product[j] + (long) a[i] * frobenius[i][j]) % p;
+        }
+        for (int i = 0; i < n; ++i)
+            r[i] = (int) product[i];
+    }
+
+    private void buildFrobenius()
+    {
+        //Row i is x^(p i) mod f, found as (x^p)^i
+        int[][] rows = new int[n][n];
+        int[] xp = new int[n];
+        int[] base = new int[n];
+        xp[0] = 1;
+        if (n > 1)
+            base[1] = 1;
+        else
+            base[0] = mod(-f[0]);
+        //x^p by square and multiply
+        for (int e = Integer.highestOneBit(p); e > 0; e >>= 1)
+        {
+            multiply(xp, xp, xp);
+            if ((p & e) != 0)
+                multiply(xp, base, xp);
+        }
+        rows[0][0] = 1;
+        for (int i = 1; i < n; ++i)
+            multiply(rows[i - 1], xp, rows[i]);
+        frobenius = rows;
+    }
+
+    private void checkLogTables()
+    {
+        if (log == null)
+            throw new IllegalStateException("The field was made without log tables");
+    }
+
+    private void buildLogTables(int q)
+    {
+        //Try elements until one has order q - 1, which happens when its powers reach 1 only at q - 1
+        int[] g = new int[n];
+        int[] power = new int[n];
+        int[] table = new int[q - 1];
+        for (int candidate = 2; candidate < q; ++candidate)
+        {
+            decode(candidate, g);
+            Arrays.fill(power, 0);
+            power[0] = 1;
+            int order = 0;
+            do
+            {
+                if (order == q - 1)
+                    throw new ArithmeticException("Modulus is not irreducible");
+                table[order++] = encode(power);
+                multiply(power, g, power);
+            } while (encode(power) != 1);
+            if (order == q - 1)
+            {
+                int[] logs = new int[q];
+                for (int i = 0; i < q - 1; ++i)
+                    logs[table[i]] = i;
+                antilog = table;
+                log = logs;
+                return;
+            }
+        }
+        //Only GF(2) has no candidate, where 1 generates everything
+        antilog = new int[] { 1 };
+        log = new int[] { 0, 0 };
+    }
+
+    private void reduce(int[] a)
+    {
+        //Reduce a polynomial longer than n mod f, in place
+        for (int i = a.length - 1; i >= n; --i)
+        {
+            int c = a[i];
+            if (c == 0)
+                continue;
+            a[i] = 0;
+            for (int j = 0; j < n; ++j)
+                a[i - n + j] = (int) ((a[i - n + j] + (long) c * (p - f[j])) % p);
+        }
+    }
+
+    private static int degree(int[] a, int from)
+    {
+        //Highest index at most from with a nonzero coefficient, -1 for the zero polynomial
+        while (from >= 0 && a[from] == 0)
+            from--;
+        return from;
+    }
+
+    private int inverseModP(int a)
+    {
+        //a^(p-2) mod p
+        long result = 1, base = a % p, e = p - 2;
+        for (; e > 0; e >>= 1)
+        {
+            if ((e & 1) != 0)
+                result = result * base % p;
+            base = base * base % p;
+        }
+        return (int) result;
+    }
+
+    private int mod(int a)
+    {
+        int m = a % p;
+        return m < 0 ? m + p : m;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Bounded cache of expanded AES-128 key schedules, keyed by the raw 16 byte key.
+ *
+ * Expanding a key runs subBytes 40 times, so when the same few keys encrypt many messages it is
+ * cheaper to keep their schedules around. The cache keeps the most recently used schedules, up to
+ * a fixed number, and drops the least recently used one when it is full (LRU). All methods are
+ * synchronized, so one cache can be shared by many threads.
+ *
+ * The returned schedules are shared between callers and must not be modified.
+ */
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+public class KeyScheduleCache
+{
+    //Cache used by AES and FastAES
+    public static final KeyScheduleCache DEFAULT = new KeyScheduleCache(64);
+
+    private final int capacity;
+    private final LinkedHashMap<RawKey, int[]> schedules;
+    private long hits;
+    private long misses;
+
+    public KeyScheduleCache(final int capacity)
+    {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Capacity must be positive");
+        this.capacity = capacity;
+        //An access ordered map moves every key we look up to the end, so the eldest entry is the
+        //least recently used one
+        this.schedules = new LinkedHashMap<RawKey, int[]>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<RawKey, int[]> eldest)
+            {
+                return size() > capacity;
+            }
+        };
+    }
+
+    public int[] get(byte[] key)
+    {
+        if (key.length != 16)
+            throw new IllegalArgumentException("AES-128 needs a 16 byte key");
+        RawKey rawKey = new RawKey(key);
+        synchronized (this)
+        {
+            int[] w = schedules.get(rawKey);
+            if (w != null)
+            {
+                hits++;
+                return w;
+            }
+            misses++;
+        }
+        //Expand outside the lock, if two threads miss on the same key they both expand it and the
+        //second one just replaces the first one's copy
+        int[] w = AES.populateKeys(key);
+        synchronized (this)
+        {
+            schedules.put(rawKey, w);
+        }
+        return w;
+    }
+
+    public synchronized int size()
+    {
+        return schedules.size();
+    }
+
+    public int capacity()
+    {
+        return capacity;
+    }
+
+    public synchronized long hits()
+    {
+        return hits;
+    }
+
+    public synchronized long misses()
+    {
+        return misses;
+    }
+
+    public synchronized void clear()
+    {
+        schedules.clear();
+    }
+
+    //Copy of a raw key with value equality, so it can be used in the map
+    private static final class RawKey
+    {
+        private final byte[] key;
+        private final int hash;
+
+        RawKey(byte[] key)
+        {
+            this.key = key.clone();
+            this.hash = Arrays.hashCode(this.key);
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            return o instanceof RawKey && Arrays.equals(key, ((RawKey) o).key);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,620 @@
+/*
+ * Fast arithmetic on large polynomials over Z_p: multiplication, division with remainder and the
+ * inverse of one polynomial modulo another.
+ *
+ * A polynomial is an int array with entry i the coefficient of x^i (lowest power first, the
+ * opposite of PolynomialInverse), with no trailing zeros, so the zero polynomial is the empty array.
+ * p can be any prime below 2^31.
+ *
+ * Multiplication picks a method by size:
+ * 1. Schoolbook for short polynomials, adding the products in a long and reducing only when the
+ *    sum gets near 2^63.
+ * 2. Karatsuba for medium ones: with a = a0 + a1 x^h and b = b0 + b1 x^h, the middle term
+ *    a0 b1 + a1 b0 is (a0 + a1)(b0 + b1) - a0 b0 - a1 b1, so 3 half size products instead of 4.
+ * 3. Number theoretic transform for long ones. The product is taken mod up to three NTT friendly
+ *    primes (each with 2^23 | q - 1), enough that the product of the primes exceeds every
+ *    coefficient of the true product, and put back together with Garner's form of the CRT.
+ *
+ * Division uses Newton's iteration. Reversing the coefficients turns a = b q + r into
+ * rev(a) = rev(b) rev(q) mod x^k, with k = deg a - deg b + 1, so rev(q) = rev(a) rev(b)^-1, and the
+ * power series inverse g of rev(b) doubles in precision with each step g = g (2 - rev(b) g).
+ *
+ * The inverse mod f uses the half GCD. The quotients of the first half of Euclid's algorithm on
+ * (a, b) only depend on the top half of the coefficients, so they are found recursively from
+ * a div x^m and b div x^m and combined into one 2x2 matrix, then applied to the whole polynomials
+ * at once. Only the column of the matrix that multiplies the polynomial being inverted is kept.
+ */
+
+import java.util.Arrays;
+import java.util.Random;
+
+
+public class Polynomials
+{
+    //Below this length multiply uses the schoolbook method
+    static final int KARATSUBA_THRESHOLD = 32;
+    //Rough costs in nanoseconds of a Karatsuba product, per n^1.585, and of an NTT product, per
+    //n log n of the transform size, from the timings main prints
+    static final double KARATSUBA_COST = 12;
+    static final double NTT_COST = 38;
+    //Quotients or divisors shorter than this use long division
+    static final int NEWTON_THRESHOLD = 64;
+    //Degrees below this use plain Euclid steps instead of the half GCD
+    static final int HALF_GCD_THRESHOLD = 128;
+
+    //NTT primes q = c 2^k + 1, all with 3 as a generator
+    private static final int[] NTT_PRIMES = { 998244353, 469762049, 167772161 };
+    private static final int NTT_GENERATOR = 3;
+    //Longest transform all three primes support
+    private static final int MAX_NTT_LENGTH = 1 << 23;
+
+    public static void main(String[] args)
+    {
+        int p = 1000000007;
+        int degree = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        Random random = new Random(1);
+
+        //The three multiplication methods must agree
+        for (int length : new int[] { 5, 40, 300, 2000 })
+        {
+            int[] a = randomPolynomial(length, p, random);
+            int[] b = randomPolynomial(length + 7, p, random);
+            int[] expected = schoolbook(a, b, p);
+            if (!Arrays.equals(expected, trim(karatsubaUnbalanced(a, b, p)))
+                    || !Arrays.equals(expected, ntt(a, b, p)))
+                throw new IllegalStateException("Products of length " + length + " differ");
+        }
+
+        //Small inverses against FiniteField
+        for (int n = 2; n < 300; n += 37)
+        {
+            int[] f = randomPolynomial(n + 1, p, random);
+            f[n] = 1;
+            int[] a = randomPolynomial(n, p, random);
+            int[] modulus = Arrays.copyOf(f, n + 1);
+            int[] expected = new int[n];
+            new FiniteField(p, modulus).inverse(Arrays.copyOf(a, n), expected);
+            if (!Arrays.equals(trim(expected), inverse(a, f, p)))
+                throw new IllegalStateException("Inverse of degree " + n + " differs");
+        }
+        //The largest prime allowed, where sums of two coefficients no longer fit in an int, checked by
+        //multiplying back, and through PolynomialInverse on both sides of the half GCD threshold
+        int big = Integer.MAX_VALUE;
+        for (int n : new int[] { 10, 100, 300, 1000 })
+        {
+            int[] f = randomPolynomial(n + 1, big, random);
+            f[n] = 1;
+            int[] a = randomPolynomial(n, big, random);
+            int[] b = randomPolynomial(n / 2 + 1, big, random);
+            b[b.length - 1] = big - 1;
+            int[][] qr = divide(f, b, big);
+            if (!Arrays.equals(f, add(multiply(qr[0], b, big), qr[1], big)))
+                throw new IllegalStateException("Division of degree " + n + " fails mod 2^31 - 1");
+            int[][] check = divide(multiply(a, inverse(a, f, big), big), f, big);
+            if (check[1].length != 1 || check[1][0] != 1)
+                throw new IllegalStateException("Inverse of degree " + n + " fails mod 2^31 - 1");
+            int[] divisor = new int[n], dividend = new int[n + 1];
+            for (int i = 0; i < n; ++i)
+                divisor[i] = a[n - 1 - i];
+            for (int i = 0; i <= n; ++i)
+                dividend[i] = f[n - i];
+            int[] reversed = new PolynomialInverse(divisor, dividend, big).findInverse();
+            check = divide(multiply(a, reverse(reversed, n), big), f, big);
+            if (check[1].length != 1 || check[1][0] != 1)
+                throw new IllegalStateException("PolynomialInverse of degree " + n + " fails mod 2^31 - 1");
+        }
+        System.out.println("Schoolbook, Karatsuba, NTT and the inverse agree");
+
+        for (int length = 64; length <= 16384; length *= 4)
+        {
+            int[] a = randomPolynomial(length, p, random);
+            int[] b = randomPolynomial(length, p, random);
+            System.out.printf("Length %5d: schoolbook %7.3f ms, Karatsuba %7.3f ms, NTT %7.3f ms\n",
+                    length, time(() -> schoolbook(a, b, p)), time(() -> karatsubaUnbalanced(a, b, p)),
+                    time(() -> ntt(a, b, p)));
+        }
+
+        //A degree 10^5 inverse, checked by multiplying back
+        int[] f = randomPolynomial(degree + 1, p, random);
+        f[degree] = 1;
+        int[] a = randomPolynomial(degree, p, random);
+        long start = System.nanoTime();
+        int[] inverse = inverse(a, f, p);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        int[][] check = divide(multiply(a, inverse, p), f, p);
+        if (check[1].length != 1 || check[1][0] != 1)
+            throw new IllegalStateException("a times its inverse is not 1");
+        System.out.printf("Inverse mod a degree %d polynomial in %.2f seconds\n", degree, seconds);
+    }
+
+    public static int[] multiply(int[] a, int[] b, int p)
+    {
+        int shorter = Math.min(a.length, b.length);
+        if (shorter == 0)
+            return new int[0];
+        if (shorter < KARATSUBA_THRESHOLD)
+            return schoolbook(a, b, p);
+        //Karatsuba on pieces of the longer one as long as the shorter one, or one NTT of the lot
+        int longer = Math.max(a.length, b.length);
+        int size = Integer.highestOneBit(a.length + b.length - 1) << 1;
+        double karatsuba = KARATSUBA_COST * Math.ceil((double) longer / shorter)
+                * Math.pow(shorter, 1.585);
+        double ntt = NTT_COST * size * Integer.numberOfTrailingZeros(size);
+        if (karatsuba < ntt || size > MAX_NTT_LENGTH)
+            return trim(karatsubaUnbalanced(a, b, p));
+        return ntt(a, b, p);
+    }
+
+    public static int[][] divide(int[] a, int[] b, int p)
+    {
+        //Returns { quotient, remainder }
+        if (b.length == 0)
+            throw new ArithmeticException("Division by the zero polynomial");
+        if (a.length < b.length)
+            return new int[][] { new int[0], a };
+        int k = a.length - b.length + 1;
+        if (k < NEWTON_THRESHOLD || b.length < NEWTON_THRESHOLD)
+            return longDivision(a, b, p);
+        int[] ra = reverse(a, k);
+        int[] rb = reverse(b, Math.min(k, b.length));
+        int[] rq = truncate(multiply(ra, seriesInverse(rb, k, p), p), k);
+        int[] q = new int[k];
+        for (int i = 0; i < rq.length; ++i)
+            q[k - 1 - i] = rq[i];
+        //Only the low deg b coefficients of a - b q can be nonzero
+        int[] bq = multiply(b, trim(q), p);
+        int[] r = new int[b.length - 1];
+        for (int i = 0; i < r.length; ++i)
+        {
+            int c = a[i] - (i < bq.length ? bq[i] : 0);
+            r[i] = c < 0 ? c + p : c;
+        }
+        return new int[][] { trim(q), trim(r) };
+    }
+
+    public static int[] inverse(int[] a, int[] f, int p)
+    {
+        //Inverse of a mod f. A = s f + u a and B = t f + v a, we only track u and v
+        int[] x = trim(f);
+        int[] y = divide(trim(a), x, p)[1];
+        int[] u = new int[0];
+        int[] v = new int[] { 1 };
+        while (y.length > 0)
+        {
+            if (x.length - 1 >= HALF_GCD_THRESHOLD && 2 * (y.length - 1) > x.length - 1)
+            {
+                int[][] m = halfGcd(x, y, p);
+                int[][] xy = apply(m, x, y, p);
+                int[][] uv = apply(m, u, v, p);
+                x = xy[0];
+                y = xy[1];
+                u = uv[0];
+                v = uv[1];
+            }
+            else
+            {
+                int[][] qr = divide(x, y, p);
+                int[] w = subtract(u, multiply(qr[0], v, p), p);
+                x = y;
+                y = qr[1];
+                u = v;
+                v = w;
+            }
+        }
+        if (x.length != 1)
+            throw new ArithmeticException("Polynomial is not invertible");
+        //x is the constant gcd, so a^-1 = u / x mod f
+        long scale = inverseModP(x[0], p);
+        int[] result = divide(u, trim(f), p)[1];
+        for (int i = 0; i < result.length; ++i)
+            result[i] = (int) (result[i] * scale % p);
+        return result;
+    }
+
+    private static int[][] halfGcd(int[] a, int[] b, int p)
+    {
+        //Matrix { m00, m01, m10, m11 } taking (a, b) to the first pair of remainders (c, d) with
+        //deg c >= m > deg d, where m = ceil(deg a / 2). Needs deg a > deg b
+        int m = a.length / 2;
+        if (b.length - 1 < m)
+            return identity();
+        if (a.length - 1 < HALF_GCD_THRESHOLD)
+        {
+            //Plain Euclid steps until the remainder drops below x^m
+            int[][] r = identity();
+            while (b.length - 1 >= m)
+            {
+                int[][] qr = divide(a, b, p);
+                step(r, qr[0], p);
+                a = b;
+                b = qr[1];
+            }
+            return r;
+        }
+        int[][] r = halfGcd(shift(a, m), shift(b, m), p);
+        int[][] cd = apply(r, a, b, p);
+        int[] c = cd[0], d = cd[1];
+        if (d.length - 1 < m)
+            return r;
+        int[][] qe = divide(c, d, p);
+        step(r, qe[0], p);
+        int k = 2 * m - (d.length - 1);
+        int[][] s = halfGcd(shift(d, k), shift(qe[1], k), p);
+        return product(s, r, p);
+    }
+
+    private static int[][] apply(int[][] m, int[] a, int[] b, int p)
+    {
+        return new int[][] { add(multiply(m[0], a, p), multiply(m[1], b, p), p),
+                add(multiply(m[2], a, p), multiply(m[3], b, p), p) };
+    }
+
+    private static int[][] product(int[][] s, int[][] r, int p)
+    {
+        return new int[][] { add(multiply(s[0], r[0], p), multiply(s[1], r[2], p), p),
+                add(multiply(s[0], r[1], p), multiply(s[1], r[3], p), p),
+                add(multiply(s[2], r[0], p), multiply(s[3], r[2], p), p),
+                add(multiply(s[2], r[1], p), multiply(s[3], r[3], p), p) };
+    }
+
+    private static void step(int[][] r, int[] q, int p)
+    {
+        //r = [[0, 1], [1, -q]] r, the matrix of one Euclid step (a, b) -> (b, a - q b)
+        int[] m10 = subtract(r[0], multiply(q, r[2], p), p);
+        int[] m11 = subtract(r[1], multiply(q, r[3], p), p);
+        r[0] = r[2];
+        r[1] = r[3];
+        r[2] = m10;
+        r[3] = m11;
+    }
+
+    private static int[][] identity()
+    {
+        return new int[][] { { 1 }, {}, {}, { 1 } };
+    }
+
+    private static int[] seriesInverse(int[] f, int k, int p)
+    {
+        //g with f g = 1 mod x^k, doubling the precision each round
+        int[] g = new int[] { (int) inverseModP(f[0], p) };
+        for (int length = 1; length < k;)
+        {
+            length = Math.min(2 * length, k);
+            int[] fg = truncate(multiply(truncate(f, length), g, p), length);
+            int[] e = new int[length];
+            for (int i = 0; i < fg.length; ++i)
+                e[i] = fg[i] == 0 ? 0 : p - fg[i];
+            e[0] = addMod(e[0], 2 % p, p);
+            g = truncate(multiply(g, trim(e), p), length);
+        }
+        return g;
+    }
+
+    private static int[][] longDivision(int[] a, int[] b, int p)
+    {
+        int[] r = Arrays.copyOf(a, a.length);
+        int[] q = new int[a.length - b.length + 1];
+        long lead = inverseModP(b[b.length - 1], p);
+        for (int i = q.length - 1; i >= 0; --i)
+        {
+            long c = r[i + b.length - 1] * lead % p;
+            q[i] = (int) c;
+            if (c == 0)
+                continue;
+            long minus = p - c;
+            for (int j = 0; j < b.length; ++j)
+                r[i + j] = (int) ((r[i + j] + minus * b[j]) % p);
+        }
+        return new int[][] { trim(q), trim(Arrays.copyOf(r, b.length - 1)) };
+    }
+
+    static int[] schoolbook(int[] a, int[] b, int p)
+    {
+        if (a.length == 0 || b.length == 0)
+            return new int[0];
+        //Products are below 2^62, so reducing the sum at 2^62 keeps it below 2^63
+        int[] r = new int[a.length + b.length - 1];
+        for (int k = 0; k < r.length; ++k)
+        {
+            long sum = 0;
+            int from = Math.max(0, k - b.length + 1), to = Math.min(k, a.length - 1);
+            for (int i = from; i <= to; ++i)
+            {
+                sum += (long) a[i] * b[k - i];
+                if (sum >= 1L << 62)
+                    sum %= p;
+            }
+            r[k] = (int) (sum % p);
+        }
+        return trim(r);
+    }
+
+    static int[] karatsubaUnbalanced(int[] a, int[] b, int p)
+    {
+        //Cut the longer polynomial into pieces as long as the shorter one, untrimmed result
+        if (a.length < b.length)
+        {
+            int[] t = a;
+            a = b;
+            b = t;
+        }
+        int n = b.length;
+        int[] r = new int[a.length + n - 1];
+        int[] piece = new int[n];
+        for (int from = 0; from < a.length; from += n)
+        {
+            Arrays.fill(piece, 0);
+            System.arraycopy(a, from, piece, 0, Math.min(n, a.length - from));
+            int[] z = karatsuba(piece, b, p);
+            for (int i = 0; i < z.length && from + i < r.length; ++i)
+                r[from + i] = addMod(r[from + i], z[i], p);
+        }
+        return r;
+    }
+
+    private static int[] karatsuba(int[] a, int[] b, int p)
+    {
+        //a and b have the same length n, the result has length 2n - 1
+        int n = a.length;
+        if (n < KARATSUBA_THRESHOLD)
+        {
+            int[] r = new int[2 * n - 1];
+            int[] s = schoolbook(a, b, p);
+            System.arraycopy(s, 0, r, 0, s.length);
+            return r;
+        }
+        int h = n / 2, top = n - h;
+        int[] a0 = new int[top], a1 = Arrays.copyOfRange(a, h, n);
+        int[] b0 = new int[top], b1 = Arrays.copyOfRange(b, h, n);
+        System.arraycopy(a, 0, a0, 0, h);
+        System.arraycopy(b, 0, b0, 0, h);
+        int[] z0 = karatsuba(a0, b0, p);
+        int[] z2 = karatsuba(a1, b1, p);
+        for (int i = 0; i < top; ++i)
+        {
+            a0[i] = addMod(a0[i], a1[i], p);
+            b0[i] = addMod(b0[i], b1[i], p);
+        }
+        int[] z1 = karatsuba(a0, b0, p);
+        int[] r = new int[2 * n - 1];
+        //a0 and b0 were padded to length top, so z0 has zeros past 2h - 2
+        for (int i = 0; i < 2 * h - 1; ++i)
+            r[i] = z0[i];
+        for (int i = 0; i < z2.length; ++i)
+            r[2 * h + i] = z2[i];
+        for (int i = 0; i < z1.length; ++i)
+        {
+            int middle = z1[i] - z0[i];
+            middle = middle < 0 ? middle + p : middle;
+            middle -= z2[i];
+            middle = middle < 0 ? middle + p : middle;
+            r[h + i] = addMod(r[h + i], middle, p);
+        }
+        return r;
+    }
+
+    static int[] ntt(int[] a, int[] b, int p)
+    {
+        int length = a.length + b.length - 1;
+        int size = Integer.highestOneBit(Math.max(1, length - 1)) << 1;
+        //Every coefficient of the product is below min(len) (p - 1)^2, use as few primes as cover it
+        double bound = (double) Math.min(a.length, b.length) * (p - 1) * (p - 1);
+        int primes = 1;
+        double covered = NTT_PRIMES[0];
+        while (covered <= bound)
+            covered *= NTT_PRIMES[primes++];
+        int[][] residues = new int[primes][];
+        for (int i = 0; i < primes; ++i)
+        {
+            int q = NTT_PRIMES[i];
+            int negInv = montgomeryInverse(q);
+            int[] fa = new int[size], fb = new int[size];
+            for (int j = 0; j < a.length; ++j)
+                fa[j] = a[j] % q;
+            for (int j = 0; j < b.length; ++j)
+                fb[j] = b[j] % q;
+            transform(fa, q, negInv, false);
+            transform(fb, q, negInv, false);
+            //The pointwise products come out divided by R = 2^32, so scale by R^2 / size at the end
+            for (int j = 0; j < size; ++j)
+                fa[j] = montgomery((long) fa[j] * fb[j], q, negInv);
+            transform(fa, q, negInv, true);
+            long r = (1L << 32) % q;
+            long scale = inverseModP(size, q) * r % q * r % q;
+            for (int j = 0; j < length; ++j)
+                fa[j] = montgomery(fa[j] * scale, q, negInv);
+            residues[i] = fa;
+        }
+        return trim(garner(residues, length, p));
+    }
+
+    private static int[] garner(int[][] residues, int length, int p)
+    {
+        //x = x0 + x1 q0 + x2 q0 q1 with each xi below qi, then reduced mod p
+        long q0 = NTT_PRIMES[0], q1 = NTT_PRIMES[1], q2 = NTT_PRIMES[2];
+        long q0InvQ1 = inverseModP((int) (q0 % q1), (int) q1);
+        long q0InvQ2 = inverseModP((int) (q0 % q2), (int) q2);
+        long q1InvQ2 = inverseModP((int) (q1 % q2), (int) q2);
+        long q0ModP = q0 % p, q0q1ModP = q0 * q1 % p;
+        int[] r = new int[length];
+        for (int i = 0; i < length; ++i)
+        {
+            long x0 = residues[0][i];
+            long value = x0 % p;
+            if (residues.length > 1)
+            {
+                long x1 = (residues[1][i] - x0 % q1 + q1) % q1 * q0InvQ1 % q1;
+                value = (value + x1 * q0ModP) % p;
+                if (residues.length > 2)
+                {
+                    long x2 = (residues[2][i] - x0 % q2 + q2) % q2 * q0InvQ2 % q2;
+                    x2 = (x2 - x1 % q2 + q2) % q2 * q1InvQ2 % q2;
+                    value = (value + x2 * q0q1ModP) % p;
+                }
+            }
+            r[i] = (int) value;
+        }
+        return r;
+    }
+
+    private static void transform(int[] a, int q, int negInv, boolean inverse)
+    {
+        //Iterative radix 2 NTT, without the 1/n scaling of the inverse. The powers of the root for
+        //the largest level are kept times R = 2^32, so a Montgomery product with one is a plain product
+        int n = a.length;
+        for (int i = 1, j = 0; i < n; ++i)
+        {
+            int bit = n >> 1;
+            for (; (j & bit) != 0; bit >>= 1)
+                j ^= bit;
+            j ^= bit;
+            if (i < j)
+            {
+                int t = a[i];
+                a[i] = a[j];
+                a[j] = t;
+            }
+        }
+        long root = power(NTT_GENERATOR, (q - 1) / n, q);
+        if (inverse)
+            root = inverseModP((int) root, q);
+        int[] roots = new int[Math.max(1, n / 2)];
+        long power = 1;
+        for (int i = 0; i < roots.length; ++i)
+        {
+            roots[i] = (int) ((power << 32) % q);
+            power = power * root % q;
+        }
+        for (int length = 2; length <= n; length <<= 1)
+        {
+            int half = length >> 1, stride = n / length;
+            for (int i = 0; i < n; i += length)
+                for (int j = 0; j < half; ++j)
+                {
+                    int u = a[i + j];
+                    int v = montgomery((long) a[i + j + half] * roots[j * stride], q, negInv);
+                    int sum = u + v, difference = u - v;
+                    a[i + j] = sum >= q ? sum - q : sum;
+                    a[i + j + half] = difference < 0 ? difference + q : difference;
+                }
+        }
+    }
+
+    private static int montgomery(long t, int q, int negInv)
+    {
+        //t / 2^32 mod q for t below q 2^32: add the multiple of q that clears the low 32 bits
+        long m = ((int) t * negInv) & 0xffffffffL;
+        long u = (t + m * q) >>> 32;
+        return (int) (u >= q ? u - q : u);
+    }
+
+    private static int montgomeryInverse(int q)
+    {
+        //-q^-1 mod 2^32, by Newton's iteration which doubles the correct bits each step
+        int inverse = q;
+        for (int i = 0; i < 5; ++i)
+            inverse *= 2 - q * inverse;
+        return -inverse;
+    }
+
+    static int[] add(int[] a, int[] b, int p)
+    {
+        int[] r = Arrays.copyOf(a.length >= b.length ? a : b, Math.max(a.length, b.length));
+        int[] s = a.length >= b.length ? b : a;
+        for (int i = 0; i < s.length; ++i)
+            r[i] = addMod(r[i], s[i], p);
+        return trim(r);
+    }
+
+    static int[] subtract(int[] a, int[] b, int p)
+    {
+        int[] r = Arrays.copyOf(a, Math.max(a.length, b.length));
+        for (int i = 0; i < b.length; ++i)
+        {
+            int c = r[i] - b[i];
+            r[i] = c < 0 ? c + p : c;
+        }
+        return trim(r);
+    }
+
+    static int[] trim(int[] a)
+    {
+        int length = a.length;
+        while (length > 0 && a[length - 1] == 0)
+            length--;
+        return length == a.length ? a : Arrays.copyOf(a, length);
+    }
+
+    private static int[] shift(int[] a, int k)
+    {
+        //a div x^k
+        return k >= a.length ? new int[0] : Arrays.copyOfRange(a, k, a.length);
+    }
+
+    private static int[] truncate(int[] a, int k)
+    {
+        //a mod x^k
+        return trim(a.length <= k ? a : Arrays.copyOf(a, k));
+    }
+
+    private static int[] reverse(int[] a, int k)
+    {
+        //The top k coefficients of a, highest power first
+        int[] r = new int[k];
+        for (int i = 0; i < k; ++i)
+            r[i] = a[a.length - 1 - i];
+        return trim(r);
+    }
+
+    private static int addMod(int a, int b, int p)
+    {
+        //Both below p < 2^31, so the sum is compared as unsigned
+        int c = a + b;
+        return Integer.compareUnsigned(c, p) >= 0 ? c - p : c;
+    }
+
+    private static long power(long base, long e, int q)
+    {
+        long result = 1;
+        base %= q;
+        for (; e > 0; e >>= 1)
+        {
+            if ((e & 1) != 0)
+                result = result * base % q;
+            base = base * base % q;
+        }
+        return result;
+    }
+
+    private static long inverseModP(int a, int p)
+    {
+        return power(a, p - 2, p);
+    }
+
+    private static int[] randomPolynomial(int length, int p, Random random)
+    {
+        int[] a = new int[length];
+        for (int i = 0; i < length; ++i)
+            a[i] = random.nextInt(p);
+        a[length - 1] = 1 + random.nextInt(p - 1);
+        return a;
+    }
+
+    private static double time(Runnable work)
+    {
+        //Milliseconds per run, after warming up for as long as the timing takes
+        double result = 0;
+        for (int round = 0; round < 2; ++round)
+        {
+            int runs = 0;
+            long start = System.nanoTime();
+            do
+            {
+                work.run();
+                runs++;
+            } while (System.nanoTime() - start < 200000000L);
+            result = (System.nanoTime() - start) / 1e6 / runs;
+        }
+        return result;
+    }
+}
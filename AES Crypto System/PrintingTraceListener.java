@@ -0,0 +1,60 @@
+/*
+ * Prints the round key and the message after every round of AES.encrypt, in the same format the
+ * AES program has always used.
+ */
+
+public class PrintingTraceListener implements AESTraceListener
+{
+    private final int[] w;
+
+    public PrintingTraceListener(int[] w)
+    {
+        this.w = w;
+    }
+
+    @Override
+    public void roundStarted(int round)
+    {
+        System.out.println(round == 0 ? "Round 0" : "Round: " + round);
+    }
+
+    @Override
+    public void phaseFinished(Phase phase, int round, byte[] state)
+    {
+        if (phase == Phase.ADD_KEY)
+        {
+            System.out.print("Key\n----------\n");
+            printKeys(round);
+        }
+    }
+
+    @Override
+    public void roundFinished(int round, byte[] state)
+    {
+        System.out.print("Message:\n--------\n");
+        printState(state);
+        System.out.println();
+    }
+
+    private static void printState(byte[] state)
+    {
+		//This function will print out the state in row major order
+        for (int i = 0; i < 4; ++i)
+        {
+            for (int j = 0; j < 4; ++j)
+                System.out.printf("%02x ", state[i + 4 * j] & 0xFF);
+            System.out.println();
+        }
+    }
+
+    private void printKeys(int round)
+    {
+		//This function will print out the four keys of a round as columns
+        for (int i = 0; i < 4; ++i)
+        {
+            for (int j = 0; j < 4; ++j)
+                System.out.printf("%02x ", (w[round * 4 + j] >>> (24 - 8 * i)) & 0xFF);
+            System.out.println();
+        }
+    }
+}
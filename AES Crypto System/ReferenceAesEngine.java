@@ -0,0 +1,42 @@
+/*
+ * AES engine that runs every block through AES.encrypt, the step by step version of the algorithm
+ * (subBytes, shiftRows, mixColumns and addKey on a 16 byte state). Rounds are only traced when it
+ * is given a listener. It is slow, but it is the version that is easiest to check against the
+ * definition, so it is used as the oracle when cross-checking the faster engines.
+ */
+
+public class ReferenceAesEngine implements AesEngine
+{
+    private final int[] w;
+    private final AESTraceListener listener;
+
+    public ReferenceAesEngine(byte[] key)
+    {
+        this(key, null);
+    }
+
+    public ReferenceAesEngine(byte[] key, AESTraceListener listener)
+    {
+        //The listener (for example an AESPhaseProfiler) sees every block, null for none
+        this.w = KeyScheduleCache.DEFAULT.get(key);
+        this.listener = listener;
+    }
+
+    @Override
+    public void encryptBlocks(byte[] in, int inOff, byte[] out, int outOff, int blocks)
+    {
+        byte[] state = new byte[16];
+        for (int i = 0; i < blocks; ++i)
+        {
+            System.arraycopy(in, inOff + 16 * i, state, 0, 16);
+            AES.encrypt(state, w, listener);
+            System.arraycopy(state, 0, out, outOff + 16 * i, 16);
+        }
+    }
+
+    @Override
+    public String name()
+    {
+        return "reference";
+    }
+}
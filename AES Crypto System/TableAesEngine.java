@@ -0,0 +1,26 @@
+/*
+ * AES engine backed by the T-tables in FastAES.
+ */
+
+public class TableAesEngine implements AesEngine
+{
+    private final int[] w;
+
+    public TableAesEngine(byte[] key)
+    {
+        w = FastAES.expandKey(key);
+    }
+
+    @Override
+    public void encryptBlocks(byte[] in, int inOff, byte[] out, int outOff, int blocks)
+    {
+        for (int i = 0; i < blocks; ++i)
+            FastAES.encryptBlock(w, in, inOff + 16 * i, out, outOff + 16 * i);
+    }
+
+    @Override
+    public String name()
+    {
+        return "table";
+    }
+}
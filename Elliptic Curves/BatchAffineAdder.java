@@ -0,0 +1,225 @@
+/*
+ * Adds many pairs of affine points at once, for curves over primes below 2^62.
+ *
+ * Affine addition needs 1 / (x2 - x1) (or 1 / 2y for doubling), and one inversion costs as much as
+ * dozens of multiplications. Montgomery's trick shares a single inversion among n points: with
+ * c_i = d_1 d_2 ... d_i the running products of the denominators, invert c_n once, then going
+ * backwards 1 / d_i = c_(i-1) / c_i and 1 / c_(i-1) = d_i / c_i. That is 3(n - 1) multiplications
+ * and one inversion instead of n inversions. The slope of each sum is then lambda = (y2 - y1) / d,
+ * (or 3x^2 + a over 2y) and
+ *		x3 = lambda^2 - x1 - x2, y3 = lambda (x1 - x3) - y1
+ *
+ * Points are kept struct-of-arrays in Points: a column of x and a column of y as plain longs (in
+ * WordPrimeField's Montgomery form) and a column of flags for the point at infinity, so the loops
+ * run over primitive arrays. It is the inner loop for building tables, random walks and checking
+ * many points at a time. The work arrays live in the adder, so use one adder per thread.
+ */
+
+import java.math.BigInteger;
+import java.util.Random;
+
+
+public class BatchAffineAdder
+{
+    //Affine points as columns, in the Montgomery form of a WordPrimeField
+    public static final class Points
+    {
+        public final long[] x, y;
+        public final boolean[] infinity;
+
+        public Points(int size)
+        {
+            x = new long[size];
+            y = new long[size];
+            infinity = new boolean[size];
+        }
+
+        public int size()
+        {
+            return x.length;
+        }
+
+        public void set(int i, WordPrimeField field, ECPoint point)
+        {
+            infinity[i] = point.isInfinity();
+            if (!infinity[i])
+            {
+                x[i] = field.toMontgomery(point.x.mod(field.modulus()).longValue());
+                y[i] = field.toMontgomery(point.y.mod(field.modulus()).longValue());
+            }
+        }
+
+        public ECPoint get(int i, WordPrimeField field)
+        {
+            if (infinity[i])
+                return ECPoint.INFINITY;
+            return new ECPoint(field.fromMontgomery(x[i]), field.fromMontgomery(y[i]));
+        }
+    }
+
+    private final WordPrimeField field;
+    private final long a, b, three;
+    //Denominators and their running products
+    private long[] denominators = new long[0], products = new long[0];
+
+    public BatchAffineAdder(WeierstrassCurve curve)
+    {
+        if (!(curve.field() instanceof WordPrimeField))
+            throw new IllegalArgumentException("Batch addition needs a prime below 2^62");
+        field = (WordPrimeField) curve.field();
+        a = field.toMontgomery(curve.a().longValue());
+        b = field.toMontgomery(curve.b().longValue());
+        three = field.toMontgomery(3);
+    }
+
+    public static void main(String[] args)
+    {
+        BigInteger p = BigInteger.valueOf(2305843009213693951L);
+        WeierstrassCurve curve = new WeierstrassCurve(p, BigInteger.valueOf(5), BigInteger.valueOf(7));
+        WordPrimeField field = (WordPrimeField) curve.field();
+        BatchAffineAdder adder = new BatchAffineAdder(curve);
+        Random random = new Random(1);
+        int n = 1 << 14;
+        ECPoint[] first = new ECPoint[n], second = new ECPoint[n];
+        Points left = new Points(n), right = new Points(n), sum = new Points(n);
+        for (int i = 0; i < n; ++i)
+        {
+            first[i] = curve.findPoint(random);
+            //Mix in doublings, opposite points and O
+            switch (i % 64)
+            {
+                case 0:
+                    second[i] = first[i];
+                    break;
+                case 1:
+                    second[i] = new ECPoint(first[i].x, p.subtract(first[i].y));
+                    break;
+                case 2:
+                    second[i] = ECPoint.INFINITY;
+                    break;
+                default:
+                    second[i] = curve.findPoint(random);
+            }
+            left.set(i, field, first[i]);
+            right.set(i, field, second[i]);
+        }
+        EllipticCurves.prime = p;
+        EllipticCurves.a = curve.a();
+        EllipticCurves.b = curve.b();
+        adder.add(left, right, sum);
+        boolean[] valid = new boolean[n];
+        if (adder.validate(sum, valid) != n)
+            throw new IllegalStateException("A batch sum is not on the curve");
+        for (int i = 0; i < n; ++i)
+            if (!sum.get(i, field).equals(EllipticCurves.addPoint(first[i], second[i])))
+                throw new IllegalStateException("Batch sum " + i + " differs from addPoint");
+        System.out.println("Batch sums agree with addPoint and are on the curve");
+
+        for (int round = 0; round < 2; ++round)
+        {
+            long start = System.nanoTime();
+            for (int i = 0; i < n; ++i)
+                EllipticCurves.addPoint(first[i], second[i]);
+            double single = (System.nanoTime() - start) / (double) n;
+            start = System.nanoTime();
+            for (int i = 0; i < n; ++i)
+                curve.add(first[i], second[i]);
+            double normalized = (System.nanoTime() - start) / (double) n;
+            int repeats = 50;
+            start = System.nanoTime();
+            for (int r = 0; r < repeats; ++r)
+                adder.add(left, right, sum);
+            double batch = (System.nanoTime() - start) / (double) n / repeats;
+            if (round > 0)
+                System.out.printf("ns per addition: addPoint %.0f, Jacobian + normalize %.0f,"
+                        + " batch %.0f (%.0fx faster than addPoint)\n", single, normalized, batch,
+                        single / batch);
+        }
+    }
+
+    public void add(Points p, Points q, Points r)
+    {
+        add(p, q, r, 0, p.size());
+    }
+
+    public void add(Points p, Points q, Points r, int from, int to)
+    {
+        //r[i] = p[i] + q[i] for i in [from, to). r may be p or q
+        int n = to - from;
+        if (denominators.length < n)
+        {
+            denominators = new long[n];
+            products = new long[n];
+        }
+        long[] d = denominators, c = products;
+        long one = field.one();
+
+        //Denominators, with 1 standing in where no inversion is needed
+        long running = one;
+        for (int i = 0; i < n; ++i)
+        {
+            int k = from + i;
+            long denominator = one;
+            if (!p.infinity[k] && !q.infinity[k])
+            {
+                if (p.x[k] != q.x[k])
+                    denominator = field.subtract(q.x[k], p.x[k]);
+                else if (p.y[k] == q.y[k] && p.y[k] != 0)
+                    denominator = field.add(p.y[k], p.y[k]);
+            }
+            d[i] = denominator;
+            running = field.multiply(running, denominator);
+            c[i] = running;
+        }
+
+        //inverse is 1 / c_i as i goes down
+        long inverse = field.invert(running);
+        for (int i = n - 1; i >= 0; --i)
+        {
+            int k = from + i;
+            long inverseD = i > 0 ? field.multiply(inverse, c[i - 1]) : inverse;
+            inverse = field.multiply(inverse, d[i]);
+            if (p.infinity[k] || q.infinity[k])
+            {
+                boolean useQ = p.infinity[k];
+                r.x[k] = useQ ? q.x[k] : p.x[k];
+                r.y[k] = useQ ? q.y[k] : p.y[k];
+                r.infinity[k] = useQ ? q.infinity[k] : p.infinity[k];
+                continue;
+            }
+            long x1 = p.x[k], y1 = p.y[k], x2 = q.x[k], y2 = q.y[k];
+            long lambda;
+            if (x1 != x2)
+                lambda = field.multiply(field.subtract(y2, y1), inverseD);
+            else if (y1 == y2 && y1 != 0)
+            {
+                //Tangent slope (3x^2 + a) / 2y
+                long numerator = field.add(field.multiply(three, field.square(x1)), a);
+                lambda = field.multiply(numerator, inverseD);
+            }
+            else
+            {
+                r.infinity[k] = true;
+                continue;
+            }
+            long x3 = field.subtract(field.subtract(field.square(lambda), x1), x2);
+            r.y[k] = field.subtract(field.multiply(lambda, field.subtract(x1, x3)), y1);
+            r.x[k] = x3;
+            r.infinity[k] = false;
+        }
+    }
+
+    public int validate(Points p, boolean[] valid)
+    {
+        //valid[i] is whether y^2 = x^3 + ax + b, returns how many are. O is valid
+        int count = 0;
+        for (int i = 0; i < p.size(); ++i)
+        {
+            long x = p.x[i];
+            long rhs = field.add(field.multiply(field.add(field.square(x), a), x), b);
+            valid[i] = p.infinity[i] || field.square(p.y[i]) == rhs;
+            count += valid[i] ? 1 : 0;
+        }
+        return count;
+    }
+}
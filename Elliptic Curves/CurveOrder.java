@@ -0,0 +1,266 @@
+/*
+ * The number of points on y^2 = x^3 + ax + b mod p by baby-step giant-step in the Hasse interval,
+ * in about p^(1/4) point additions instead of the p Legendre symbols of PointsOnEllipticCurve.
+ *
+ * Hasse says #E lies in [p + 1 - 2 sqrt(p), p + 1 + 2 sqrt(p)], of width w = 4 sqrt(p). For a random
+ * point P, the N in that interval with N P = O are found with m = sqrt(w / 2) baby steps: the x
+ * coordinates of P, 2P, ..., mP go into a hash table. Giant steps then walk c = L + m, L + 3m + 1, ...
+ * (stride 2m + 1) across the interval, and x(cP) = x(jP) means cP = jP or cP = -jP, so
+ * (c - j)P = O or (c + j)P = O. Each giant step covers 2m + 1 values of N since x(jP) = x(-jP).
+ * The table keeps the low 64 bits of x in a long array with open addressing, and every hit is
+ * checked by a multiplication, so a false match costs nothing but time.
+ *
+ * When the order of P is below w, several N in the interval kill P. Further points, checked by
+ * multiplication only, narrow the candidates down to the multiples of the group exponent. If the
+ * group is Z/n1 x Z/n2 with a small exponent that still leaves several, Mestre's trick uses the
+ * quadratic twist y^2 = x^3 + a d^2 x + b d^3 (d not a square), whose order is 2p + 2 - #E. Each
+ * twist point P' rules out the N with (2p + 2 - N) P' != O. For p > 229 either E or its twist has
+ * a point with a unique multiple in the interval, so this always ends.
+ *
+ * The point arithmetic is EllipticCurves.addPoint and multiplyPoint, so the statics of
+ * EllipticCurves are set to the curve being worked on and this is not thread-safe. Small primes use
+ * the Legendre sum. At a few microseconds per affine addition, 64 bit primes take about 2 seconds
+ * and 80 bit primes about 20. A 100 bit prime would need 2^25 baby steps, so the baby steps are
+ * capped at MAX_BABY_STEPS to bound the table, and past the cap the giant steps make up the rest
+ * (more time, no more memory).
+ *
+ * Command line: <p> <a> <b>
+ */
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+
+public class CurveOrder
+{
+    static final int MAX_BABY_STEPS = 1 << 22;
+    //Below this many bits the Legendre sum is quicker
+    static final int LEGENDRE_BITS = 20;
+    //Candidates few enough to check one by one with multiplications
+    static final int CHECK_CANDIDATES = 16;
+
+    public static void main(String[] args)
+    {
+        if (args.length >= 3)
+        {
+            BigInteger p = new BigInteger(args[0]);
+            System.out.println("Number of points on elliptic curve are: "
+                    + order(p, new BigInteger(args[1]), new BigInteger(args[2]), new Random()));
+            return;
+        }
+        Random random = new Random(1);
+        for (int i = 0; i < 20; ++i)
+        {
+            long p = BigInteger.probablePrime(i < 10 ? 12 : 22, random).longValue();
+            long a = random.nextInt((int) p), b = random.nextInt((int) p);
+            if ((4 * a * a % p * a + 27 * b * b) % p == 0)
+                continue;
+            //Through BSGS even for small p, against the Legendre sum
+            BigInteger expected = BigInteger.valueOf(PointsOnEllipticCurve.countPoints(a, b, p));
+            BigInteger order = bsgsOrder(BigInteger.valueOf(p), BigInteger.valueOf(a),
+                    BigInteger.valueOf(b), random);
+            if (!order.equals(expected))
+                throw new IllegalStateException("Order " + order + " != " + expected + " mod " + p);
+        }
+        System.out.println("BSGS orders agree with the Legendre sum on 20 curves");
+
+        //Larger primes, checked by multiplying random points on E and its twist
+        for (int bits : new int[] { 32, 48, 64, 72, 80 })
+        {
+            BigInteger p = BigInteger.probablePrime(bits, random);
+            BigInteger a = new BigInteger(bits, random).mod(p), b = new BigInteger(bits, random).mod(p);
+            long start = System.nanoTime();
+            BigInteger order = order(p, a, b, random);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            BigInteger[] twist = twist(p, a, b);
+            WeierstrassCurve curve = new WeierstrassCurve(p, a, b);
+            WeierstrassCurve twisted = new WeierstrassCurve(p, twist[0], twist[1]);
+            BigInteger twistOrder = p.shiftLeft(1).add(BigInteger.TWO).subtract(order);
+            for (int i = 0; i < 5; ++i)
+                if (!curve.multiply(curve.findPoint(random), order).isInfinity()
+                        || !twisted.multiply(twisted.findPoint(random), twistOrder).isInfinity())
+                    throw new IllegalStateException("Order is wrong mod " + p);
+            System.out.printf("%d bit p: order %s in %.2f s\n", bits, order, seconds);
+        }
+    }
+
+    public static BigInteger order(BigInteger p, BigInteger a, BigInteger b, Random random)
+    {
+        if (p.bitLength() <= LEGENDRE_BITS)
+            return BigInteger.valueOf(PointsOnEllipticCurve.countPoints(a.longValue(), b.longValue(),
+                    p.longValue()));
+        return bsgsOrder(p, a, b, random);
+    }
+
+    static BigInteger bsgsOrder(BigInteger p, BigInteger a, BigInteger b, Random random)
+    {
+        BigInteger root = p.sqrt().add(BigInteger.ONE);
+        BigInteger low = p.add(BigInteger.ONE).subtract(root.shiftLeft(1)).max(BigInteger.ONE);
+        BigInteger high = p.add(BigInteger.ONE).add(root.shiftLeft(1));
+        BigInteger twoP2 = p.shiftLeft(1).add(BigInteger.TWO);
+        BigInteger[] twist = twist(p, a, b);
+        WeierstrassCurve curve = new WeierstrassCurve(p, a, b);
+        WeierstrassCurve twisted = new WeierstrassCurve(p, twist[0], twist[1]);
+
+        //Candidates for #E, or null before the first search. Points alternate between E and twist
+        List<BigInteger> candidates = null;
+        for (int attempt = 0; ; ++attempt)
+        {
+            boolean onTwist = attempt % 2 == 1;
+            WeierstrassCurve on = onTwist ? twisted : curve;
+            ECPoint point = on.findPoint(random);
+            use(on);
+            if (candidates == null || candidates.size() > CHECK_CANDIDATES)
+            {
+                //The search is for the order of the curve P is on. The twist's Hasse interval,
+                //2p + 2 - [low, high], is the same interval
+                List<BigInteger> found = search(point, low, high);
+                List<BigInteger> orders = new ArrayList<>();
+                for (BigInteger n : found)
+                    orders.add(onTwist ? twoP2.subtract(n) : n);
+                if (candidates != null)
+                    orders.retainAll(candidates);
+                candidates = orders;
+            }
+            else
+            {
+                List<BigInteger> kept = new ArrayList<>();
+                for (BigInteger n : candidates)
+                    if (EllipticCurves.multiplyPoint(point, onTwist ? twoP2.subtract(n) : n).isInfinity())
+                        kept.add(n);
+                candidates = kept;
+            }
+            if (candidates.isEmpty())
+                throw new IllegalStateException("No order fits; is p prime and the curve nonsingular?");
+            if (candidates.size() == 1)
+                return candidates.get(0);
+        }
+    }
+
+    private static List<BigInteger> search(ECPoint point, BigInteger low, BigInteger high)
+    {
+        //All N in [low, high] with N P = O, for P on the curve in the EllipticCurves statics
+        BigInteger width = high.subtract(low);
+        long m = Math.min(MAX_BABY_STEPS, width.shiftRight(1).sqrt().longValueExact() + 1);
+        XTable table = new XTable((int) m);
+        List<BigInteger> found = new ArrayList<>();
+        ECPoint baby = ECPoint.INFINITY;
+        for (int j = 1; j <= m; ++j)
+        {
+            baby = EllipticCurves.addPoint(baby, point);
+            if (baby.isInfinity())
+            {
+                //P has order j, so the answers are simply the multiples of j
+                BigInteger order = BigInteger.valueOf(j);
+                for (BigInteger n = low.add(order).subtract(BigInteger.ONE).divide(order).multiply(order);
+                        n.compareTo(high) <= 0; n = n.add(order))
+                    found.add(n);
+                return found;
+            }
+            table.put(baby.x.longValue(), j);
+        }
+
+        BigInteger stride = BigInteger.valueOf(2 * m + 1);
+        ECPoint giant = EllipticCurves.multiplyPoint(point, stride);
+        BigInteger c = low.add(BigInteger.valueOf(m));
+        ECPoint q = EllipticCurves.multiplyPoint(point, c);
+        while (c.subtract(BigInteger.valueOf(m)).compareTo(high) <= 0)
+        {
+            if (q.isInfinity())
+                addIfInside(found, c, low, high);
+            else
+            {
+                long key = q.x.longValue();
+                for (int slot = table.first(key); slot >= 0; slot = table.next(key, slot))
+                {
+                    //Only the low bits were compared, and the sign is still open, so recompute jP
+                    BigInteger j = BigInteger.valueOf(table.values[slot]);
+                    ECPoint step = EllipticCurves.multiplyPoint(point, j);
+                    if (!step.x.equals(q.x))
+                        continue;
+                    addIfInside(found, step.y.equals(q.y) ? c.subtract(j) : c.add(j), low, high);
+                }
+            }
+            c = c.add(stride);
+            q = EllipticCurves.addPoint(q, giant);
+        }
+        return found;
+    }
+
+    private static void addIfInside(List<BigInteger> found, BigInteger n, BigInteger low, BigInteger high)
+    {
+        if (n.compareTo(low) >= 0 && n.compareTo(high) <= 0 && !found.contains(n))
+            found.add(n);
+    }
+
+    static BigInteger[] twist(BigInteger p, BigInteger a, BigInteger b)
+    {
+        //{ a d^2, b d^3 } for the smallest non-square d
+        BigInteger half = p.shiftRight(1), d = BigInteger.TWO;
+        while (d.modPow(half, p).equals(BigInteger.ONE))
+            d = d.add(BigInteger.ONE);
+        return new BigInteger[] { a.multiply(d.pow(2)).mod(p), b.multiply(d.pow(3)).mod(p) };
+    }
+
+    private static void use(WeierstrassCurve curve)
+    {
+        EllipticCurves.prime = curve.prime();
+        EllipticCurves.a = curve.a();
+        EllipticCurves.b = curve.b();
+    }
+
+    //Open addressing from the low 64 bits of x to the baby step j >= 1, 0 marking an empty slot
+    private static final class XTable
+    {
+        final long[] keys;
+        final int[] values;
+        final int mask;
+
+        XTable(int size)
+        {
+            int capacity = Integer.highestOneBit(Math.max(2, size) * 2 - 1) * 2;
+            keys = new long[capacity];
+            values = new int[capacity];
+            mask = capacity - 1;
+        }
+
+        private int hash(long key)
+        {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h >>> 32) & mask;
+        }
+
+        void put(long key, int value)
+        {
+            int slot = hash(key);
+            while (values[slot] != 0)
+                slot = (slot + 1) & mask;
+            keys[slot] = key;
+            values[slot] = value;
+        }
+
+        int first(long key)
+        {
+            return find(key, hash(key));
+        }
+
+        int next(long key, int slot)
+        {
+            return find(key, (slot + 1) & mask);
+        }
+
+        private int find(long key, int slot)
+        {
+            //The next slot from here holding key, or -1 at the first empty slot
+            while (values[slot] != 0)
+            {
+                if (keys[slot] == key)
+                    return slot;
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+    }
+}
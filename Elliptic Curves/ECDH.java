@@ -0,0 +1,35 @@
+/*
+ * Elliptic curve Diffie-Hellman key agreement.
+ *
+ * Each side picks a private key d in [1, n - 1] and publishes Q = d G. The shared secret is the x
+ * coordinate of d Q', where Q' is the other side's public key, written as a fixed length big endian
+ * number the way the JCE "ECDH" KeyAgreement returns it. The other side's key is checked to be a
+ * point on the curve first, otherwise a bad point could leak bits of d. d Q' goes through the
+ * ladder of ECDomain.multiply, which takes the same steps for every d.
+ */
+
+import java.math.BigInteger;
+
+
+public class ECDH
+{
+    public static byte[] sharedSecret(ECDomain domain, BigInteger privateKey, ECPoint peerKey)
+    {
+        if (!domain.isValidPublicKey(peerKey))
+            throw new IllegalArgumentException("Peer key is not a point on " + domain.name);
+        ECPoint shared = domain.multiply(peerKey, privateKey);
+        if (shared.isInfinity())
+            throw new IllegalArgumentException("Shared point is the point at infinity");
+        return toBytes(shared.x, domain.fieldBytes());
+    }
+
+    static byte[] toBytes(BigInteger value, int length)
+    {
+        //Big endian, left padded with zeros to length bytes
+        byte[] bytes = value.toByteArray();
+        byte[] result = new byte[length];
+        int copy = Math.min(bytes.length, length);
+        System.arraycopy(bytes, bytes.length - copy, result, length - copy, copy);
+        return result;
+    }
+}
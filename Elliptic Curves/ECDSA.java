@@ -0,0 +1,241 @@
+/*
+ * ECDSA signatures with SHA-256, on any ECDomain.
+ *
+ * Sign with private key d: e = SHA-256(message) cut to the bit length of n, pick a random k in
+ * [1, n - 1], r = (k G).x mod n and s = k^-1 (e + r d) mod n, retrying if r or s is 0.
+ * Verify with public key Q = d G: w = s^-1, u1 = e w, u2 = r w, and the signature is good when
+ * (u1 G + u2 Q).x mod n = r. k G uses the domain's fixed base comb, and u1 G + u2 Q is one
+ * interleaved wNAF pass.
+ *
+ * Signatures are (r, s) pairs, and toDer/fromDer convert to the ASN.1 form the JCE uses.
+ * main checks signatures and ECDH secrets against the JCE both ways on P-256, then compares sign
+ * throughput with the comb and with EllipticCurves.multiplyPoint.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPrivateKeySpec;
+import java.security.spec.ECPublicKeySpec;
+import java.util.Arrays;
+import java.util.function.Function;
+import javax.crypto.KeyAgreement;
+
+
+public class ECDSA
+{
+    public static void main(String[] args) throws GeneralSecurityException
+    {
+        ECDomain domain = ECDomain.P256;
+        SecureRandom random = new SecureRandom();
+        AlgorithmParameters parameters = AlgorithmParameters.getInstance("EC");
+        parameters.init(new ECGenParameterSpec("secp256r1"));
+        ECParameterSpec spec = parameters.getParameterSpec(ECParameterSpec.class);
+        KeyFactory factory = KeyFactory.getInstance("EC");
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(spec);
+
+        for (int i = 0; i < 20; ++i)
+        {
+            byte[] message = ("message " + i).getBytes(StandardCharsets.UTF_8);
+            BigInteger d = domain.generatePrivateKey(random);
+            ECPoint q = domain.publicKey(d);
+            PrivateKey jcePrivate = factory.generatePrivate(new ECPrivateKeySpec(d, spec));
+            PublicKey jcePublic = factory.generatePublic(new ECPublicKeySpec(
+                    new java.security.spec.ECPoint(q.x, q.y), spec));
+
+            //Our signature through the JCE, and the JCE's through ours
+            Signature jce = Signature.getInstance("SHA256withECDSA");
+            jce.initVerify(jcePublic);
+            jce.update(message);
+            if (!jce.verify(toDer(sign(domain, d, message, random))))
+                throw new IllegalStateException("JCE rejects our signature");
+            jce.initSign(jcePrivate);
+            jce.update(message);
+            BigInteger[] signature = fromDer(jce.sign());
+            if (!verify(domain, q, message, signature))
+                throw new IllegalStateException("We reject the JCE signature");
+            signature[1] = signature[1].add(BigInteger.ONE);
+            if (verify(domain, q, message, signature))
+                throw new IllegalStateException("We accept a bad signature");
+
+            //Both sides of ECDH with a JCE key pair
+            KeyPair peer = generator.generateKeyPair();
+            java.security.spec.ECPoint w = ((ECPublicKey) peer.getPublic()).getW();
+            byte[] ours = ECDH.sharedSecret(domain, d, new ECPoint(w.getAffineX(), w.getAffineY()));
+            KeyAgreement agreement = KeyAgreement.getInstance("ECDH");
+            agreement.init(peer.getPrivate());
+            agreement.doPhase(jcePublic, true);
+            BigInteger peerPrivate = ((ECPrivateKey) peer.getPrivate()).getS();
+            if (!Arrays.equals(ours, agreement.generateSecret())
+                    || !Arrays.equals(ours, ECDH.sharedSecret(domain, peerPrivate, q)))
+                throw new IllegalStateException("ECDH secrets differ");
+        }
+        System.out.println("ECDSA and ECDH agree with the JCE on " + domain.name);
+
+        //Sign throughput, comb against multiplyPoint
+        BigInteger d = domain.generatePrivateKey(random);
+        byte[] message = "benchmark".getBytes(StandardCharsets.UTF_8);
+        EllipticCurves.prime = domain.curve().prime();
+        EllipticCurves.a = domain.curve().a();
+        EllipticCurves.b = domain.curve().b();
+        double comb = signsPerSecond(domain, d, message, random, domain::multiplyGenerator);
+        double generic = signsPerSecond(domain, d, message, random,
+                k -> EllipticCurves.multiplyPoint(domain.g, k));
+        System.out.printf("Signatures per second: comb %.0f, multiplyPoint %.0f (%.1fx)\n", comb,
+                generic, comb / generic);
+        long start = System.nanoTime();
+        BigInteger[] signature = sign(domain, d, message, random);
+        ECPoint q = domain.publicKey(d);
+        int verifies = 0;
+        while (System.nanoTime() - start < 1000000000L)
+        {
+            verify(domain, q, message, signature);
+            verifies++;
+        }
+        System.out.printf("Verifications per second: %.0f\n", verifies / ((System.nanoTime() - start) / 1e9));
+    }
+
+    private static double signsPerSecond(ECDomain domain, BigInteger d, byte[] message,
+            SecureRandom random, Function<BigInteger, ECPoint> times)
+    {
+        for (int i = 0; i < 200; ++i)
+            sign(domain, d, message, random, times);
+        int count = 0;
+        long start = System.nanoTime();
+        while (System.nanoTime() - start < 1000000000L)
+        {
+            sign(domain, d, message, random, times);
+            count++;
+        }
+        return count / ((System.nanoTime() - start) / 1e9);
+    }
+
+    public static BigInteger[] sign(ECDomain domain, BigInteger d, byte[] message, SecureRandom random)
+    {
+        return sign(domain, d, message, random, domain::multiplyGenerator);
+    }
+
+    private static BigInteger[] sign(ECDomain domain, BigInteger d, byte[] message,
+            SecureRandom random, Function<BigInteger, ECPoint> times)
+    {
+        BigInteger n = domain.n;
+        BigInteger e = hash(domain, message);
+        while (true)
+        {
+            BigInteger k = domain.generatePrivateKey(random);
+            BigInteger r = times.apply(k).x.mod(n);
+            if (r.signum() == 0)
+                continue;
+            BigInteger s = k.modInverse(n).multiply(e.add(r.multiply(d))).mod(n);
+            if (s.signum() != 0)
+                return new BigInteger[] { r, s };
+        }
+    }
+
+    public static boolean verify(ECDomain domain, ECPoint q, byte[] message, BigInteger[] signature)
+    {
+        BigInteger n = domain.n;
+        BigInteger r = signature[0], s = signature[1];
+        if (r.signum() <= 0 || r.compareTo(n) >= 0 || s.signum() <= 0 || s.compareTo(n) >= 0)
+            return false;
+        if (!domain.isValidPublicKey(q))
+            return false;
+        BigInteger w = s.modInverse(n);
+        BigInteger u1 = hash(domain, message).multiply(w).mod(n);
+        BigInteger u2 = r.multiply(w).mod(n);
+        ECPoint point = domain.multiplyAdd(u1, q, u2);
+        return !point.isInfinity() && point.x.mod(n).equals(r);
+    }
+
+    static BigInteger hash(ECDomain domain, byte[] message)
+    {
+        //The leftmost bits of SHA-256, as many as n has
+        try
+        {
+            BigInteger e = new BigInteger(1, MessageDigest.getInstance("SHA-256").digest(message));
+            int excess = 256 - domain.n.bitLength();
+            return excess > 0 ? e.shiftRight(excess) : e;
+        }
+        catch (NoSuchAlgorithmException ex)
+        {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    public static byte[] toDer(BigInteger[] signature)
+    {
+        //SEQUENCE { INTEGER r, INTEGER s }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (BigInteger value : signature)
+        {
+            byte[] bytes = value.toByteArray();
+            body.write(0x02);
+            writeLength(body, bytes.length);
+            body.write(bytes, 0, bytes.length);
+        }
+        ByteArrayOutputStream der = new ByteArrayOutputStream();
+        der.write(0x30);
+        writeLength(der, body.size());
+        der.write(body.toByteArray(), 0, body.size());
+        return der.toByteArray();
+    }
+
+    public static BigInteger[] fromDer(byte[] der)
+    {
+        int[] position = { 0 };
+        if (der[position[0]++] != 0x30)
+            throw new IllegalArgumentException("Signature is not a DER sequence");
+        readLength(der, position);
+        BigInteger[] signature = new BigInteger[2];
+        for (int i = 0; i < 2; ++i)
+        {
+            if (der[position[0]++] != 0x02)
+                throw new IllegalArgumentException("Signature value is not a DER integer");
+            int length = readLength(der, position);
+            signature[i] = new BigInteger(Arrays.copyOfRange(der, position[0], position[0] + length));
+            position[0] += length;
+        }
+        return signature;
+    }
+
+    private static void writeLength(ByteArrayOutputStream out, int length)
+    {
+        //Short form below 128, otherwise 0x80 + number of length bytes
+        if (length < 128)
+        {
+            out.write(length);
+            return;
+        }
+        int bytes = (32 - Integer.numberOfLeadingZeros(length) + 7) / 8;
+        out.write(0x80 | bytes);
+        for (int i = bytes - 1; i >= 0; --i)
+            out.write(length >>> (8 * i));
+    }
+
+    private static int readLength(byte[] der, int[] position)
+    {
+        int first = der[position[0]++] & 0xff;
+        if (first < 128)
+            return first;
+        int length = 0;
+        for (int i = 0; i < (first & 0x7f); ++i)
+            length = (length << 8) | (der[position[0]++] & 0xff);
+        return length;
+    }
+}
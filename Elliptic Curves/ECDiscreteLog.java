@@ -0,0 +1,313 @@
+/*
+ * Discrete logarithms on elliptic curves by parallel Pollard rho: given P of prime order n and
+ * Q = kP, find k. For curves over primes below 2^62.
+ *
+ * Walk. Every point is X = cP + dQ with known c, d. An r-adding walk precomputes R random
+ * M_j = a_j P + b_j Q and steps X -> X + M_h(X), with h a hash of x, so the walk is pseudo-random
+ * and equal points continue equally. When two walks reach the same point with different d,
+ * c1 + d1 k = c2 + d2 k and k = (c1 - c2) / (d2 - d1) mod n.
+ *
+ * Negation map. X and -X have the same x, so each step keeps whichever of them has the smaller y
+ * (and negates c, d with it). The walk then lives on classes {X, -X}, half as many, which saves a
+ * factor sqrt(2): about sqrt(pi n / 4) steps. It brings fruitless 2-cycles, X -> Y -> X when
+ * h(Y) = h(X) and Y = -(X + M), about one step in 2R. A walk that comes back to the x it had two
+ * steps ago doubles its point instead of adding, and any walk longer than 20 / theta is dropped in
+ * case of a longer cycle.
+ *
+ * Distinguished points (van Oorschot and Wiener). A point whose x has its low t bits zero,
+ * probability theta = 2^-t, goes into a ConcurrentHashMap shared by all threads, and its walk goes
+ * on from a new random point. Two walks that meet run together up to the next distinguished point,
+ * where the table sees them. t is chosen so that the walks in flight waste few steps against
+ * sqrt(n), but at least MIN_DISTINGUISHED_BITS, so that small groups do not put every point in the
+ * table. The new start is X + U_r for one of JUMPS precomputed random U_r = u_r P + v_r Q, added in
+ * the next batch like a step, so a restart costs no scalar multiplication (a walk too long for its
+ * cycle jumps the same way).
+ *
+ * Batching. Each thread moves BATCH walks in lockstep: one BatchAffineAdder call adds all their
+ * M_j with a single inversion, so a step costs a few multiplications rather than an inversion as
+ * with EllipticCurves.addPoint.
+ */
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
+
+
+public class ECDiscreteLog
+{
+    //Walks per thread, added together with one inversion
+    static final int BATCH = 512;
+    //Number of precomputed steps M_j, a power of 2
+    static final int STEPS = 1024;
+    //Walks longer than this many times the expected length are dropped
+    static final int MAX_LENGTH_FACTOR = 20;
+    //Number of precomputed restart points U_r
+    static final int JUMPS = 256;
+    //Fewest zero bits a distinguished x needs, however small the group
+    static final int MIN_DISTINGUISHED_BITS = 2;
+
+    private final WeierstrassCurve curve;
+    private final WordPrimeField field;
+    private final ECPoint p, q;
+    private final long n;
+    private final int threads;
+    private final long distinguishedMask;
+    //The M_j, in Montgomery form, and their coefficients
+    private final BatchAffineAdder.Points steps = new BatchAffineAdder.Points(STEPS);
+    private final long[] stepC = new long[STEPS], stepD = new long[STEPS];
+    //The U_r for restarts, in Montgomery form, and their coefficients
+    private final BatchAffineAdder.Points jumps = new BatchAffineAdder.Points(JUMPS);
+    private final long[] jumpC = new long[JUMPS], jumpD = new long[JUMPS];
+    private final ConcurrentHashMap<Long, long[]> distinguished = new ConcurrentHashMap<>();
+    private final AtomicReference<BigInteger> answer = new AtomicReference<>();
+    private final AtomicLong totalSteps = new AtomicLong();
+
+    private ECDiscreteLog(WeierstrassCurve curve, ECPoint p, BigInteger n, ECPoint q, int threads)
+    {
+        if (!(curve.field() instanceof WordPrimeField))
+            throw new IllegalArgumentException("Pollard rho here needs a prime below 2^62");
+        if (n.bitLength() > 62)
+            throw new IllegalArgumentException("The order of P must be below 2^62");
+        this.curve = curve;
+        field = (WordPrimeField) curve.field();
+        this.p = p;
+        this.q = q;
+        this.n = n.longValue();
+        this.threads = threads;
+        //theta = 2^-t with BATCH * threads / theta, the steps in flight, about sqrt(n) / 32
+        double walks = (double) BATCH * threads;
+        int t = (int) Math.max(MIN_DISTINGUISHED_BITS,
+                Math.floor(Math.log(Math.sqrt(this.n) / (32 * walks)) / Math.log(2)));
+        distinguishedMask = (1L << t) - 1;
+        Random random = new Random(n.longValue());
+        for (int j = 0; j < STEPS; ++j)
+        {
+            stepC[j] = Math.floorMod(random.nextLong(), this.n);
+            stepD[j] = Math.floorMod(random.nextLong(), this.n);
+            steps.set(j, field, combination(curve, stepC[j], stepD[j]));
+        }
+        for (int r = 0; r < JUMPS; ++r)
+        {
+            ECPoint jump;
+            do
+            {
+                jumpC[r] = Math.floorMod(random.nextLong(), this.n);
+                jumpD[r] = Math.floorMod(random.nextLong(), this.n);
+                jump = combination(curve, jumpC[r], jumpD[r]);
+            }
+            while (jump.isInfinity());
+            jumps.set(r, field, jump);
+        }
+    }
+
+    public static void main(String[] args)
+    {
+        Random random = new Random(1);
+        int threads = Runtime.getRuntime().availableProcessors();
+        System.out.println("Threads: " + threads);
+        for (int bits : new int[] { 32, 40, 48 })
+        {
+            //A curve of prime order, so every point but O generates it
+            BigInteger prime = BigInteger.probablePrime(bits, random), order;
+            WeierstrassCurve curve;
+            do
+            {
+                BigInteger b = new BigInteger(bits, random).mod(prime);
+                curve = new WeierstrassCurve(prime, BigInteger.valueOf(-3), b);
+                order = CurveOrder.order(prime, curve.a(), curve.b(), random);
+            }
+            while (!order.isProbablePrime(40));
+            ECPoint p = curve.findPoint(random);
+            BigInteger k = new BigInteger(bits, random).mod(order);
+            ECPoint q = curve.multiply(p, k);
+            long start = System.nanoTime();
+            ECDiscreteLog solver = new ECDiscreteLog(curve, p, order, q, threads);
+            long walking = System.nanoTime();
+            BigInteger found = solver.solve();
+            long end = System.nanoTime();
+            if (!found.equals(k))
+                throw new IllegalStateException("Found " + found + " instead of " + k);
+            double expected = Math.sqrt(Math.PI * order.doubleValue() / 4);
+            long steps = solver.totalSteps.get();
+            //The set up (the M_j and U_r) is timed apart from the walks
+            System.out.printf("%d bit n: k found in %.2f s (set up %.2f s), %d steps (%.2f x sqrt(pi n / 4)),"
+                    + " %.0f ns per step\n", bits, (end - start) / 1e9, (walking - start) / 1e9, steps,
+                    steps / expected, (end - walking) / (double) steps);
+        }
+
+        //The same steps one at a time with addPoint, for comparison
+        WeierstrassCurve curve = new WeierstrassCurve(BigInteger.valueOf(2305843009213693951L),
+                BigInteger.valueOf(-3), BigInteger.valueOf(7));
+        EllipticCurves.prime = curve.prime();
+        EllipticCurves.a = curve.a();
+        EllipticCurves.b = curve.b();
+        ECPoint[] m = new ECPoint[STEPS];
+        for (int j = 0; j < STEPS; ++j)
+            m[j] = curve.findPoint(random);
+        ECPoint x = curve.findPoint(random);
+        int count = 200000;
+        long start = System.nanoTime();
+        for (int i = 0; i < count; ++i)
+            x = EllipticCurves.addPoint(x, m[index(x.x.longValue())]);
+        System.out.printf("addPoint walk: %.0f ns per step on one thread\n",
+                (System.nanoTime() - start) / (double) count);
+    }
+
+    public static BigInteger discreteLog(WeierstrassCurve curve, ECPoint p, BigInteger n, ECPoint q)
+    {
+        //k with Q = kP, for P of prime order n, or an exception if Q is not a multiple of P
+        if (!curve.contains(p) || !curve.contains(q))
+            throw new IllegalArgumentException("Points are not on the curve");
+        if (q.isInfinity())
+            return BigInteger.ZERO;
+        if (!curve.multiply(q, n).isInfinity())
+            throw new IllegalArgumentException("Q is not in the group generated by P");
+        return new ECDiscreteLog(curve, p, n, q, Runtime.getRuntime().availableProcessors()).solve();
+    }
+
+    private BigInteger solve()
+    {
+        IntStream.range(0, threads).parallel().forEach(thread -> new Walker().run());
+        return answer.get();
+    }
+
+    private static int index(long x)
+    {
+        return (int) ((x * 0x9E3779B97F4A7C15L) >>> (64 - Integer.numberOfTrailingZeros(STEPS)));
+    }
+
+    private ECPoint combination(WeierstrassCurve curve, long c, long d)
+    {
+        //cP + dQ
+        WeierstrassCurve.Jacobian r = curve.newPoint();
+        curve.add(curve.toJacobian(curve.multiply(p, BigInteger.valueOf(c))),
+                curve.toJacobian(curve.multiply(q, BigInteger.valueOf(d))), r);
+        return curve.toAffine(r);
+    }
+
+    //One thread's batch of walks
+    private final class Walker
+    {
+        final WeierstrassCurve local = curve.copy();
+        final BatchAffineAdder adder = new BatchAffineAdder(local);
+        final BatchAffineAdder.Points walks = new BatchAffineAdder.Points(BATCH);
+        final BatchAffineAdder.Points added = new BatchAffineAdder.Points(BATCH);
+        final long[] c = new long[BATCH], d = new long[BATCH];
+        //x one and two steps back, for the 2-cycles
+        final long[] previous = new long[BATCH], older = new long[BATCH];
+        //chosen[i] is 0 to take the step M_j for x, -1 to double after a 2-cycle or STEPS + r to add
+        //U_r after a restart
+        final int[] length = new int[BATCH], chosen = new int[BATCH];
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        void run()
+        {
+            long maxLength = MAX_LENGTH_FACTOR * (distinguishedMask + 1);
+            long prime = field.prime();
+            for (int i = 0; i < BATCH; ++i)
+                restart(i);
+            while (answer.get() == null)
+            {
+                for (int i = 0; i < BATCH; ++i)
+                {
+                    int j = chosen[i] < 0 ? -1 : chosen[i] >= STEPS ? chosen[i] : index(walks.x[i]);
+                    chosen[i] = j;
+                    BatchAffineAdder.Points from = j < 0 ? walks : j < STEPS ? steps : jumps;
+                    int k = j < 0 ? i : j < STEPS ? j : j - STEPS;
+                    added.x[i] = from.x[k];
+                    added.y[i] = from.y[k];
+                    added.infinity[i] = from.infinity[k];
+                }
+                adder.add(walks, added, walks);
+                for (int i = 0; i < BATCH; ++i)
+                {
+                    int j = chosen[i];
+                    c[i] = addMod(c[i], j < 0 ? c[i] : j < STEPS ? stepC[j] : jumpC[j - STEPS]);
+                    d[i] = addMod(d[i], j < 0 ? d[i] : j < STEPS ? stepD[j] : jumpD[j - STEPS]);
+                    chosen[i] = 0;
+                    if (walks.infinity[i])
+                    {
+                        restart(i);
+                        continue;
+                    }
+                    //Negation map: keep the smaller y of X and -X (both in Montgomery form)
+                    long negative = walks.y[i] == 0 ? 0 : prime - walks.y[i];
+                    if (negative < walks.y[i])
+                    {
+                        walks.y[i] = negative;
+                        c[i] = c[i] == 0 ? 0 : n - c[i];
+                        d[i] = d[i] == 0 ? 0 : n - d[i];
+                    }
+                    long x = walks.x[i];
+                    if (x == older[i])
+                        chosen[i] = -1;
+                    older[i] = previous[i];
+                    previous[i] = x;
+                    if ((x & distinguishedMask) == 0)
+                    {
+                        record(x, c[i], d[i]);
+                        jump(i);
+                    }
+                    else if (++length[i] > maxLength)
+                        jump(i);
+                }
+                totalSteps.addAndGet(BATCH);
+            }
+        }
+
+        void jump(int i)
+        {
+            //Go on from X + U_r, added with the next batch
+            chosen[i] = STEPS + random.nextInt(JUMPS);
+            length[i] = 0;
+            previous[i] = older[i] = -1;
+        }
+
+        void restart(int i)
+        {
+            ECPoint start;
+            do
+            {
+                c[i] = random.nextLong(n);
+                d[i] = random.nextLong(n);
+                start = combination(local, c[i], d[i]);
+            }
+            while (start.isInfinity());
+            walks.set(i, field, start);
+            length[i] = 0;
+            chosen[i] = 0;
+            //x is below p, so -1 never matches
+            previous[i] = older[i] = -1;
+        }
+    }
+
+    private void record(long x, long c, long d)
+    {
+        long[] other = distinguished.putIfAbsent(x, new long[] { c, d });
+        if (other == null || other[1] == d)
+            return;
+        //c + dk = c' + d'k, the same point since x and the sign of y agree
+        BigInteger order = BigInteger.valueOf(n);
+        try
+        {
+            BigInteger k = BigInteger.valueOf(c - other[0]).multiply(BigInteger.valueOf(other[1] - d)
+                    .modInverse(order)).mod(order);
+            if (curve.copy().multiply(p, k).equals(q))
+                answer.compareAndSet(null, k);
+        }
+        catch (ArithmeticException e)
+        {
+            //d' - d shares a factor with n, which is not prime then
+        }
+    }
+
+    private long addMod(long a, long b)
+    {
+        long r = a + b - n;
+        return r < 0 ? r + n : r;
+    }
+}
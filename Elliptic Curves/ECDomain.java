@@ -0,0 +1,120 @@
+/*
+ * The domain parameters of a curve used for cryptography: the curve y^2 = x^3 + ax + b mod p, a
+ * generator G of prime order n, and the scalar multiplications ECDH and ECDSA need.
+ *
+ * Multiplying G goes through a FixedBaseComb, and multiplying another point by a private key (ECDH)
+ * through the co-Z LadderMultiplier, which runs n.bitLength() steps for every scalar. Both keep the
+ * sequence of point operations and table reads the same for every scalar, as private keys and ECDSA
+ * nonces are secret; the field arithmetic underneath is still plain Java and not constant time.
+ * u1 G + u2 Q, where the scalars are public, goes through a width 7 wNAF table for G interleaved
+ * with a width 5 one for Q. Both G tables are built the first time they are needed and then only
+ * read, so a domain is shared by all threads; each thread does its arithmetic on its own copy of
+ * the curve and its own ladder.
+ */
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+
+
+public class ECDomain
+{
+    //NIST P-256 (secp256r1)
+    public static final ECDomain P256 = new ECDomain("P-256",
+            new BigInteger("ffffffff00000001000000000000000000000000ffffffffffffffffffffffff", 16),
+            BigInteger.valueOf(-3),
+            new BigInteger("5ac635d8aa3a93e7b3ebbd55769886bc651d06b0cc53b0f63bce3c3e27d2604b", 16),
+            new ECPoint(
+                    new BigInteger("6b17d1f2e12c4247f8bce6e563a440f277037d812deb33a0f4a13945d898c296", 16),
+                    new BigInteger("4fe342e2fe1a7f9b8ee7eb4a7c0f9e162bce33576b315ececbb6406837bf51f5", 16)),
+            new BigInteger("ffffffff00000000ffffffffffffffffbce6faada7179e84f3b9cac2fc632551", 16));
+
+    static final int GENERATOR_WIDTH = 7;
+
+    public final String name;
+    public final ECPoint g;
+    public final BigInteger n;
+    private final WeierstrassCurve curve;
+    private final ThreadLocal<WeierstrassCurve> curves;
+    private final ThreadLocal<LadderMultiplier> ladders;
+    private FixedBaseComb comb;
+    private WNafMultiplier generatorTable;
+
+    public ECDomain(String name, BigInteger p, BigInteger a, BigInteger b, ECPoint g, BigInteger n)
+    {
+        this.name = name;
+        this.g = g;
+        this.n = n;
+        curve = new WeierstrassCurve(p, a, b);
+        if (!curve.contains(g) || g.isInfinity())
+            throw new IllegalArgumentException("Generator is not on the curve");
+        curves = ThreadLocal.withInitial(curve::copy);
+        ladders = ThreadLocal.withInitial(() -> new LadderMultiplier(curve(), n));
+    }
+
+    //This thread's copy of the curve
+    public WeierstrassCurve curve()
+    {
+        return curves.get();
+    }
+
+    public int fieldBytes()
+    {
+        return (curve.prime().bitLength() + 7) / 8;
+    }
+
+    public BigInteger generatePrivateKey(SecureRandom random)
+    {
+        //Uniform in [1, n - 1]
+        BigInteger d;
+        do
+            d = new BigInteger(n.bitLength(), random);
+        while (d.signum() == 0 || d.compareTo(n) >= 0);
+        return d;
+    }
+
+    public ECPoint publicKey(BigInteger d)
+    {
+        return multiplyGenerator(d);
+    }
+
+    public boolean isValidPublicKey(ECPoint q)
+    {
+        //On the curve and not O; with a prime order group (cofactor 1) that is enough
+        return !q.isInfinity() && curve().contains(q);
+    }
+
+    public ECPoint multiplyGenerator(BigInteger k)
+    {
+        WeierstrassCurve c = curve();
+        return comb().multiply(c, k.mod(n));
+    }
+
+    public ECPoint multiply(ECPoint q, BigInteger k)
+    {
+        //k Q for a secret k and Q of order n, by the ladder
+        return ladders.get().multiply(q, k.mod(n));
+    }
+
+    public ECPoint multiplyAdd(BigInteger u1, ECPoint q, BigInteger u2)
+    {
+        //u1 G + u2 Q in one pass
+        WeierstrassCurve c = curve();
+        WeierstrassCurve.Jacobian r = c.newPoint();
+        WNafMultiplier.multiplyAdd(c, generatorTable(), u1.mod(n), new WNafMultiplier(c, q), u2.mod(n), r);
+        return c.toAffine(r);
+    }
+
+    private synchronized FixedBaseComb comb()
+    {
+        if (comb == null)
+            comb = new FixedBaseComb(curve.copy(), g, n);
+        return comb;
+    }
+
+    private synchronized WNafMultiplier generatorTable()
+    {
+        if (generatorTable == null)
+            generatorTable = new WNafMultiplier(curve.copy(), g, GENERATOR_WIDTH);
+        return generatorTable;
+    }
+}
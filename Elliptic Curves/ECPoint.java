@@ -0,0 +1,56 @@
+/*
+ * A point on an elliptic curve in affine coordinates (x, y), or the point at infinity O.
+ *
+ * Points are immutable and only used at the edges of a computation: curves convert them to
+ * Jacobian coordinates to do arithmetic and back again at the end.
+ */
+
+import java.math.BigInteger;
+
+
+public final class ECPoint
+{
+    public static final ECPoint INFINITY = new ECPoint(null, null);
+
+    public final BigInteger x;
+    public final BigInteger y;
+
+    public ECPoint(BigInteger x, BigInteger y)
+    {
+        this.x = x;
+        this.y = y;
+    }
+
+    public ECPoint(long x, long y)
+    {
+        this(BigInteger.valueOf(x), BigInteger.valueOf(y));
+    }
+
+    public boolean isInfinity()
+    {
+        return x == null;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (!(o instanceof ECPoint))
+            return false;
+        ECPoint other = (ECPoint) o;
+        if (isInfinity() || other.isInfinity())
+            return isInfinity() == other.isInfinity();
+        return x.equals(other.x) && y.equals(other.y);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return isInfinity() ? 0 : 31 * x.hashCode() + y.hashCode();
+    }
+
+    @Override
+    public String toString()
+    {
+        return isInfinity() ? "O" : "(" + x + ", " + y + ")";
+    }
+}
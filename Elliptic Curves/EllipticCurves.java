@@ -7,90 +7,108 @@
  * Command line arguments for different modes
  * Verify: <p> <a> <b> verify <point.x> <point.y>
  * Add: <p> <a> <b> add <point1.x> <point1.y> <point2.x> <point2.y>
- * Multiply: <p> <a> <b> multiply <point.x> <point.y> <multiplier>
+ * Multiply: <p> <a> <b> multiply <point.x> <point.y> <multiplier> [window width]
+ * Ladder: <p> <a> <b> ladder <point.x> <point.y> <multiplier>
  *
  * The following rules are followed for point of infinity O
- * i. O + P = P + O = O
+ * i. O + P = P + O = P
  * ii. O + O = O
+ *
+ * Coordinates are BigIntegers, so any prime works. Adding two points uses the affine formulas,
+ * which take one modular inverse. Multiplying goes through WNafMultiplier instead, which works in
+ * Jacobian coordinates, only inverts once at the end and adds for about 1 bit in w + 1 of the
+ * multiplier. An optional window width follows the multiplier on the command line. The ladder mode
+ * multiplies with LadderMultiplier instead, the same point operations for every bit: an x-only
+ * ladder when the curve has a Montgomery form, a co-Z Jacobian ladder when it does not. The co-Z
+ * ladder needs the odd order of the point, which follows the multiplier on the command line.
  */
- 
-import java.awt.Point;
+
 import java.math.BigInteger;
 
 public class EllipticCurves
 {
     // Some variables
-    static int prime;
-    static int a;
-    static int b;
+    static BigInteger prime;
+    static BigInteger a;
+    static BigInteger b;
 
     public static void main(String[] args)
     {
-        prime = Integer.parseInt(args[0]);
-        a = Integer.parseInt(args[1]);
-        b = Integer.parseInt(args[2]);
+        prime = new BigInteger(args[0]);
+        a = new BigInteger(args[1]);
+        b = new BigInteger(args[2]);
 
         // Determine whether to verify the point, add points, or find a multiple
         // of a point
         switch (args[3].toLowerCase())
         {
             case "verify":
-                Point p = new Point(Integer.parseInt(args[4]),
-                        Integer.parseInt(args[5]));
+                ECPoint p = new ECPoint(new BigInteger(args[4]),
+                        new BigInteger(args[5]));
                 // Verify the point and print the result
                 if (verifyPoint(p, true))
-                    System.out.printf("Point (%d, %d) is on the curve\n", p.x,
-                            p.y);
+                    System.out.printf("Point %s is on the curve\n", p);
                 else
-                    System.out.printf("Point (%d, %d) is not on the curve\n",
-                            p.x, p.y);
+                    System.out.printf("Point %s is not on the curve\n", p);
                 break;
             case "add":
-                Point A = new Point(Integer.parseInt(args[4]),
-                        Integer.parseInt(args[5]));
-                Point B = new Point(Integer.parseInt(args[6]),
-                        Integer.parseInt(args[7]));
+                ECPoint A = new ECPoint(new BigInteger(args[4]),
+                        new BigInteger(args[5]));
+                ECPoint B = new ECPoint(new BigInteger(args[6]),
+                        new BigInteger(args[7]));
                 // Verify the points, then add them
                 if (verifyPoint(A, false) && verifyPoint(B, false))
                 {
-                    Point sum = addPoint(A, B);
-                    System.out
-                            .printf("Sum of points (%d, %d) and (%d, %d) is (%d, %d)\n",
-                                    A.x, A.y, B.x, B.y, sum.x, sum.y);
+                    ECPoint sum = addPoint(A, B);
+                    System.out.printf("Sum of points %s and %s is %s\n", A, B,
+                            sum);
                 }
                 else
-                    System.out
-                            .printf("Points (%d, %d) and/or (%d, %d) are not on the curve\n",
-                                    A.x, A.y, B.x, B.y);
+                    System.out.printf("Points %s and/or %s are not on the curve\n",
+                            A, B);
                 break;
             case "multiply":
-                Point P = new Point(Integer.parseInt(args[4]),
-                        Integer.parseInt(args[5]));
-                int multiplier = Integer.parseInt(args[6]);
+                ECPoint P = new ECPoint(new BigInteger(args[4]),
+                        new BigInteger(args[5]));
+                BigInteger multiplier = new BigInteger(args[6]);
+                int width = args.length > 7 ? Integer.parseInt(args[7])
+                        : WNafMultiplier.DEFAULT_WIDTH;
                 // Verify the point and then find the multiple of the point
                 if (verifyPoint(P, false))
                 {
-                    Point multiply = multiplyPoint(P, multiplier);
-                    System.out
-                            .printf("Point (%d, %d) multiplied with %d gives the point (%d, %d)\n",
-                                    P.x, P.y, multiplier, multiply.x,
-                                    multiply.y);
+                    ECPoint multiply = multiplyPoint(P, multiplier, width);
+                    System.out.printf("Point %s multiplied with %d gives the point %s\n",
+                            P, multiplier, multiply);
+                }
+                else
+                    System.out.printf("Point %s is not on the curve\n", P);
+                break;
+            case "ladder":
+                ECPoint L = new ECPoint(new BigInteger(args[4]),
+                        new BigInteger(args[5]));
+                BigInteger k = new BigInteger(args[6]);
+                BigInteger order = args.length > 7 ? new BigInteger(args[7]) : null;
+                if (verifyPoint(L, false))
+                {
+                    ECPoint multiply = ladderMultiplyPoint(L, k, order);
+                    System.out.printf("Point %s multiplied with %d gives the point %s\n",
+                            L, k, multiply);
                 }
                 else
-                    System.out.printf("Point (%d, %d) is not on the curve\n",
-                            P.x, P.y);
+                    System.out.printf("Point %s is not on the curve\n", L);
                 break;
         }
     }
 
-    public static boolean verifyPoint(Point p, boolean print)
+    public static boolean verifyPoint(ECPoint p, boolean print)
     {
+        if (p.isInfinity())
+            return true;
+        // Calculate the left hand side (y^2) and right hand side (x^3 + ax + b)
+        BigInteger lhs = p.y.multiply(p.y).mod(prime);
+        BigInteger rhs = p.x.pow(3).add(a.multiply(p.x)).add(b).mod(prime);
         if (print)
         {
-            // Calculate the left hand side (y^2) and right hand side (x^3 + ax
-            // + b)
-            int lhs = (p.y * p.y) % prime;
-            int rhs = (p.x * p.x * p.x + a * p.x + b) % prime;
             // Print in nice readable form
             System.out.println("Left Hand Side: y^2");
             System.out.printf("y^2 = %d * %d = %d mod %d\n", p.y, p.y, lhs,
@@ -99,59 +117,86 @@ public class EllipticCurves
             System.out.printf(
                     "x^3 + ax + b = (%d)^3 + (%d)(%d) + %d = %d mod %d\n", p.x,
                     a, p.x, b, rhs, prime);
-            return lhs == rhs;
         }
-        else
-            // Just calculate equality, no need to print
-            return ((p.y * p.y) % prime) == ((p.x * p.x * p.x + a * p.x + b) % prime);
+        return lhs.equals(rhs);
     }
 
-    public static Point addPoint(Point A, Point B)
+    public static ECPoint addPoint(ECPoint A, ECPoint B)
     {
         // If B is the point of infinity, then return A as the sum or viceversa
-        if (B.x == Integer.MAX_VALUE && B.y == Integer.MAX_VALUE)
+        if (B.isInfinity())
             return A;
-        if (A.x == Integer.MAX_VALUE && A.y == Integer.MAX_VALUE)
+        if (A.isInfinity())
             return B;
-        int m = 0;
-        if (A.equals(B)) // A == B, so use the formula of slope obtained by
-                         // formula of tangent line to curve
+        BigInteger num, den;
+        if (A.x.equals(B.x))
         {
-            BigInteger num = new BigInteger((3 * A.x * A.x + a) + "");
-            BigInteger den = new BigInteger((2 * A.y) + "");
-            m = num.multiply(den.modInverse(new BigInteger(prime + "")))
-                    .mod(new BigInteger(prime + "")).intValue();
+            // Opposite points (or a point with y = 0 doubled) add up to O
+            if (!A.y.equals(B.y) || A.y.signum() == 0)
+                return ECPoint.INFINITY;
+            // A == B, so use the formula of slope obtained by
+            // formula of tangent line to curve
+            num = A.x.multiply(A.x).multiply(BigInteger.valueOf(3)).add(a);
+            den = A.y.shiftLeft(1);
         }
         else // Formula of slope from slope of line passing through two points
         {
-            BigInteger num = new BigInteger((B.y - A.y) + "");
-            BigInteger den = new BigInteger((B.x - A.x) + "");
-            m = num.multiply(den.modInverse(new BigInteger(prime + "")))
-                    .mod(new BigInteger(prime + "")).intValue();
+            num = B.y.subtract(A.y);
+            den = B.x.subtract(A.x);
         }
-        Point C = new Point();
-        C.x = (m * m - A.x - B.x) % prime; // x coordinate is m^2 - x1 - x2
-        if (C.x < 0)
-            C.x += prime;
+        BigInteger m = num.multiply(den.modInverse(prime)).mod(prime);
+        // x coordinate is m^2 - x1 - x2
+        BigInteger x = m.multiply(m).subtract(A.x).subtract(B.x).mod(prime);
         // Plug x coordinate in point/slope formula to get y coordinate
-        C.y = ((m * (C.x - A.x) + A.y) * -1) % prime;
-        if (C.y < 0)
-            C.y += prime;
-        return C;
+        BigInteger y = m.multiply(x.subtract(A.x)).add(A.y).negate().mod(prime);
+        return new ECPoint(x, y);
+    }
+
+    public static ECPoint multiplyPoint(ECPoint P, BigInteger multiplier)
+    {
+        return multiplyPoint(P, multiplier, WNafMultiplier.DEFAULT_WIDTH);
+    }
+
+    public static ECPoint multiplyPoint(ECPoint P, BigInteger multiplier, int width)
+    {
+        if (P.isInfinity())
+            return P;
+        WeierstrassCurve curve = new WeierstrassCurve(prime, a, b);
+        // Points of tiny order cannot fill a window table, plain double and add works
+        if (!WNafMultiplier.fitsTable(curve, P, width))
+            return curve.multiply(P, multiplier);
+        return new WNafMultiplier(curve, P, width).multiply(multiplier);
+    }
+
+    public static ECPoint ladderMultiplyPoint(ECPoint P, BigInteger multiplier, BigInteger order)
+    {
+        // Montgomery ladder, x-only if the curve has a Montgomery form, co-Z otherwise, which
+        // needs the order of P (null is fine with a Montgomery form)
+        return new LadderMultiplier(new WeierstrassCurve(prime, a, b), order).multiply(P, multiplier);
+    }
+
+    public static ECPoint multiplyPoints(ECPoint[] P, BigInteger[] multipliers)
+    {
+        // Sum of multipliers[i] P[i], by Straus or Pippenger in MultiScalarMultiplier
+        return MultiScalarMultiplier.multiply(new WeierstrassCurve(prime, a, b), P, multipliers);
+    }
+
+    public static BigInteger discreteLog(ECPoint P, BigInteger order, ECPoint Q)
+    {
+        // k with Q = kP for P of prime order, by parallel Pollard rho in ECDiscreteLog
+        return ECDiscreteLog.discreteLog(new WeierstrassCurve(prime, a, b), P, order, Q);
     }
 
-    public static Point multiplyPoint(Point P, int multiplier)
+    static ECPoint affineMultiply(ECPoint P, BigInteger multiplier)
     {
-        // Get the binary of multiplier
-        char[] bits = Integer.toBinaryString(multiplier).toCharArray();
-        Point answer = new Point(P);
-        // Loop to add and double point
-        for (int i = 1; i < bits.length; ++i)
+        // Double and add with addPoint, one inversion per step, for comparison
+        ECPoint answer = ECPoint.INFINITY;
+        for (int i = multiplier.bitLength() - 1; i >= 0; --i)
         {
             // Always double the point
             answer = addPoint(answer, answer);
             // If 1 bit, then add P
-            if (bits[i] == '1')
+            if (multiplier.testBit(i))
                 answer = addPoint(answer, P);
         }
         return answer;
@@ -0,0 +1,215 @@
+/*
+ * Fixed base scalar multiplication k G by the Lim-Lee comb, for a base point that is used over and
+ * over, like the generator of a curve.
+ *
+ * Write the t bit scalar as w rows of d = v e bits, row i holding bits i d to i d + d - 1, and cut
+ * every row into v blocks of e bits. For each block s and each w bit pattern j the table holds
+ *		T[s][j] = 2^(s e) (sum over the set bits i of j of 2^(i d)) G
+ * Column c of block s picks one bit from each row, bit i d + s e + c of k, which makes a pattern j,
+ * and k G is the sum of 2^c T[s][j] over all blocks and columns. Going through the columns from the
+ * top with a doubling between them (Horner) takes e - 1 doublings and v e additions, so with w = 8
+ * and v = 4 a 256 bit scalar needs 7 doublings and 33 mixed additions, against about 256 doublings
+ * and 50 additions for wNAF.
+ *
+ * The scalar is usually secret (a private key or an ECDSA nonce), so the comb is made regular:
+ * 1. k is replaced by whichever of k and n - k is odd (n is the odd order of G), and the result is
+ *    negated at the end if it was n - k. Both are recoded and the digits picked by a mask.
+ * 2. The columns are recoded so every pattern is odd, with a sign (as in mbed TLS): going up from
+ *    column 1, an even column x_c becomes x_c + x_(c-1) (added row by row, where a row that sums to 2
+ *    carries 1 into the next column) and x_(c-1) is negated, since
+ *		-2^(c-1) x + 2^c (y + x) = 2^(c-1) x + 2^c y
+ *    Every row stays below 2^d, so the carries end in one extra column d, which uses one more block
+ *    of the table with s = v.
+ * 3. Since every digit is odd and nonzero, every column adds a point, and the table only holds odd
+ *    patterns: (v + 1) 2^(w-1) affine points.
+ * 4. Each addition reads the whole block of the table and keeps the entry it wants with masks, then
+ *    negates y by a mask, so the memory accesses do not depend on k.
+ * So the sequence of doublings and additions and the table reads are the same for every k. The field
+ * arithmetic below is plain Java and the first addition (to O) and the exceptional cases of the
+ * addition formulas still branch; the exceptional cases only come up with negligible probability for
+ * a random k.
+ *
+ * The tables are only read after they are built, so one comb can be shared by any number of
+ * threads, each passing its own WeierstrassCurve to do the arithmetic with.
+ */
+
+import java.math.BigInteger;
+
+
+public class FixedBaseComb
+{
+    static final int DEFAULT_TEETH = 8;
+    static final int DEFAULT_COMBS = 4;
+
+    private final BigInteger order;
+    private final int teeth, combs, spacing, blockLength;
+    //x[s][j], y[s][j] is T[s][2 j + 1] in affine form
+    private final long[][][] x, y;
+
+    public FixedBaseComb(WeierstrassCurve curve, ECPoint base, BigInteger order)
+    {
+        this(curve, base, order, DEFAULT_TEETH, DEFAULT_COMBS);
+    }
+
+    public FixedBaseComb(WeierstrassCurve curve, ECPoint base, BigInteger order, int teeth, int combs)
+    {
+        if (teeth < 1 || teeth > 16 || combs < 1)
+            throw new IllegalArgumentException("Need 1 to 16 teeth and at least 1 comb");
+        if (!order.testBit(0) || order.compareTo(BigInteger.TWO) <= 0 || base.isInfinity())
+            throw new IllegalArgumentException("The base point must have an odd order above 2");
+        this.order = order;
+        this.teeth = teeth;
+        this.combs = combs;
+        int bits = order.bitLength();
+        blockLength = (bits + teeth * combs - 1) / (teeth * combs);
+        spacing = blockLength * combs;
+
+        //powers[s][i] = 2^(i d + s e) G, by doubling e times from one to the next, for s up to v
+        WeierstrassCurve.Jacobian[] powers = new WeierstrassCurve.Jacobian[teeth * (combs + 1)];
+        WeierstrassCurve.Jacobian current = curve.toJacobian(base);
+        for (int i = 0; i < teeth; ++i)
+            for (int s = 0; s < combs; ++s)
+            {
+                powers[s * teeth + i] = curve.newPoint();
+                curve.copy(current, powers[s * teeth + i]);
+                for (int c = 0; c < blockLength; ++c)
+                    curve.doublePoint(current, current);
+            }
+        //2^(i d + d) G is the next row's first power, or where the doublings ended for the last row
+        for (int i = 0; i < teeth; ++i)
+        {
+            powers[combs * teeth + i] = curve.newPoint();
+            curve.copy(i + 1 < teeth ? powers[i + 1] : current, powers[combs * teeth + i]);
+        }
+        curve.normalize(powers);
+
+        //T[s][j] = T[s][j without its top bit] + powers[s][top bit], for odd j only
+        int size = 1 << (teeth - 1);
+        WeierstrassCurve.Jacobian[] table = new WeierstrassCurve.Jacobian[(combs + 1) * size];
+        for (int s = 0; s <= combs; ++s)
+        {
+            table[s * size] = curve.newPoint();
+            curve.copy(powers[s * teeth], table[s * size]);
+            for (int j = 3; j < 2 * size; j += 2)
+            {
+                int top = 31 - Integer.numberOfLeadingZeros(j);
+                WeierstrassCurve.Jacobian power = powers[s * teeth + top];
+                WeierstrassCurve.Jacobian entry = curve.newPoint();
+                curve.addAffine(table[s * size + ((j ^ (1 << top)) >> 1)], power.x, power.y, entry);
+                table[s * size + (j >> 1)] = entry;
+            }
+        }
+        //The additions cannot take O, which only turns up when the order is tiny
+        for (WeierstrassCurve.Jacobian entry : table)
+            if (curve.isInfinity(entry))
+                throw new IllegalArgumentException("The order of the base point is too small for the comb");
+        curve.normalize(table);
+        x = new long[combs + 1][size][];
+        y = new long[combs + 1][size][];
+        for (int s = 0; s <= combs; ++s)
+            for (int j = 0; j < size; ++j)
+            {
+                x[s][j] = table[s * size + j].x;
+                y[s][j] = table[s * size + j].y;
+            }
+    }
+
+    //Largest scalar bit length the comb covers
+    public int bits()
+    {
+        return teeth * spacing;
+    }
+
+    public int tableSize()
+    {
+        return (combs + 1) << (teeth - 1);
+    }
+
+    public ECPoint multiply(WeierstrassCurve curve, BigInteger k)
+    {
+        WeierstrassCurve.Jacobian r = curve.newPoint();
+        multiply(curve, k, r);
+        return curve.toAffine(r);
+    }
+
+    public void multiply(WeierstrassCurve curve, BigInteger k, WeierstrassCurve.Jacobian r)
+    {
+        //k must be from 0 to n - 1, reduce it mod the order of G first
+        if (k.signum() < 0 || k.compareTo(order) >= 0)
+            throw new IllegalArgumentException("Scalar is out of range for the comb");
+        //Use n - k when k is even, then negate at the end
+        long even = (k.intValue() & 1) - 1;
+        int[] digits = recode(k);
+        int[] flipped = recode(order.subtract(k));
+        for (int c = 0; c < digits.length; ++c)
+            digits[c] ^= (int) even & (digits[c] ^ flipped[c]);
+
+        PrimeField field = curve.field();
+        long[] px = field.element(), py = field.element(), negativeY = field.element();
+        curve.set(ECPoint.INFINITY, r);
+        for (int c = blockLength - 1; c >= 0; --c)
+        {
+            curve.doublePoint(r, r);
+            for (int s = 0; s < combs; ++s)
+            {
+                select(field, s, digits[s * blockLength + c], px, py, negativeY);
+                curve.addAffine(r, px, py, r);
+            }
+        }
+        //The extra column d, worth 2^d, is the last block
+        select(field, combs, digits[spacing], px, py, negativeY);
+        curve.addAffine(r, px, py, r);
+        field.negate(r.y, negativeY);
+        conditionalCopy(negativeY, r.y, even);
+    }
+
+    private int[] recode(BigInteger k)
+    {
+        //Column c of odd k as a pattern with every row's bit, for columns 0 to d, recoded so that
+        //every pattern is odd; bit 16 is set for a negative digit
+        int[] columns = new int[spacing + 1];
+        for (int c = 0; c < spacing; ++c)
+            for (int i = teeth - 1; i >= 0; --i)
+                columns[c] = (columns[c] << 1) | (k.testBit(i * spacing + c) ? 1 : 0);
+        int carry = 0;
+        for (int c = 1; c <= spacing; ++c)
+        {
+            //Add the carry in, then if the pattern is even add the one below it and negate that one
+            int next = columns[c] & carry;
+            columns[c] ^= carry;
+            int adjust = 1 - (columns[c] & 1);
+            int below = columns[c - 1] & 0xFFFF & -adjust;
+            next |= columns[c] & below;
+            columns[c] ^= below;
+            columns[c - 1] |= adjust << 16;
+            carry = next;
+        }
+        return columns;
+    }
+
+    private void select(PrimeField field, int s, int digit, long[] px, long[] py, long[] negativeY)
+    {
+        //px, py = T[s][pattern] (negated for a negative digit) by reading every entry of the block
+        int index = (digit & 0xFFFF) >> 1;
+        field.zero(px);
+        field.zero(py);
+        for (int j = 0; j < x[s].length; ++j)
+        {
+            long mask = ((j ^ index) - 1L) >> 63;
+            for (int l = 0; l < px.length; ++l)
+            {
+                px[l] |= x[s][j][l] & mask;
+                py[l] |= y[s][j][l] & mask;
+            }
+        }
+        field.negate(py, negativeY);
+        conditionalCopy(negativeY, py, -(long) (digit >>> 16));
+    }
+
+    private static void conditionalCopy(long[] a, long[] r, long mask)
+    {
+        //r = a when mask is all ones, unchanged when it is 0
+        for (int i = 0; i < r.length; ++i)
+            r[i] ^= mask & (a[i] ^ r[i]);
+    }
+}
@@ -0,0 +1,666 @@
+/*
+ * Montgomery ladder scalar multiplication, the same sequence of point operations for every bit of
+ * the scalar.
+ *
+ * Montgomery form. y^2 = x^3 + ax + b can be written as B v^2 = u^3 + A u^2 + u exactly when
+ * x^3 + ax + b has a root alpha mod p and 3 alpha^2 + a is a nonzero square. Then with
+ * s = 1 / sqrt(3 alpha^2 + a), A = 3 alpha s, B = s and (u, v) = (s (x - alpha), s y). The root comes
+ * from gcd(x^p - x, x^3 + ax + b), split by gcd((x + delta)^((p-1)/2) - 1, g) for random delta.
+ * On that form the ladder only needs u: keeping (U2 : Z2) = m P and (U3 : Z3) = (m + 1)P, each bit
+ * does one differential addition and one doubling,
+ *		U3 = (DA + CB)^2, Z3 = u (DA - CB)^2, U2 = AA BB, Z2 = E (AA + a24 E)
+ * with A' = U2 + Z2, B' = U2 - Z2, C = U3 + Z3, D = U3 - Z3, AA = A'^2, BB = B'^2, E = AA - BB and
+ * a24 = (A - 2) / 4, after swapping the two points when the bit is 1 (by masks, not a branch). That
+ * is 6 multiplications and 4 squarings a bit, against about 3 + 3.5 multiplications and 5 + 2
+ * squarings for Jacobian double and add, roughly 30% fewer on paper; in main's timings on Curve25519
+ * it comes out level with double and add rather than ahead. v is recovered at the end with the
+ * Okeya-Sakurai formula from u(P), v(P), u(kP) and u((k+1)P), sharing the one inversion:
+ *		v(kP) = ((uP u + 1)(uP + u + 2A) - 2A - (uP - u)^2 u') / (2B vP)
+ *
+ * Co-Z ladder. Other curves (any curve of odd order, like P-256, since it has no point of order 2
+ * and so no root) use Jacobian points that share one Z coordinate. ZADDC gives R_b + R_(1-b) and
+ * R_b - R_(1-b) with a common Z, and ZADDU gives their sum (which is 2 R_b) together with the first
+ * one moved to the new Z, so each bit is one ZADDC and one ZADDU (Goundar, Joye and Miyaji). The
+ * ladder starts from (P, 2P), so the top bit has to be 1; it needs the odd order n of the points,
+ * given to the constructor, and runs on k' = (k mod n) + n or (k mod n) + 2n, whichever has exactly
+ * n.bitLength() + 1 bits (picked by a mask), so every scalar takes n.bitLength() steps. The two
+ * points are swapped into place by masks rather than picked by the bit. Along the way the formulas
+ * only meet a point and its negative (which they cannot add) when k is 0, 1, -2 or -1 mod n, and
+ * those k are answered directly. The co-Z ladder costs 11 multiplications and 5 squarings a bit,
+ * about 20% more field work than double and add, and it is not faster on P-256: main measures it
+ * from level with double and add to twice as slow. That is the price of the fixed sequence.
+ *
+ * Both ladders are uniform at the level of point operations, but the field arithmetic underneath
+ * (BigInteger inversion, conditional subtractions) is not constant time. The state lives in the
+ * object, so use one per thread.
+ */
+
+import java.math.BigInteger;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.spec.NamedParameterSpec;
+import java.security.spec.XECPrivateKeySpec;
+import java.security.spec.XECPublicKeySpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import javax.crypto.KeyAgreement;
+
+
+public class LadderMultiplier
+{
+    private final WeierstrassCurve curve;
+    private final PrimeField field;
+    private final BigInteger p;
+    //Order of the points for the co-Z ladder, null when it was not given
+    private final BigInteger order;
+    //Montgomery form, null when there is none
+    private final BigInteger alpha, s, sInverse, montgomeryA, montgomeryB;
+    private final long[] a24, twoA, twoB;
+    private final long[] x2, z2, x3, z3, t0, t1, t2, t3, t4, t5;
+
+    public LadderMultiplier(WeierstrassCurve curve)
+    {
+        this(curve, null);
+    }
+
+    public LadderMultiplier(WeierstrassCurve curve, BigInteger order)
+    {
+        //order is the odd order of the points to multiply, needed when there is no Montgomery form
+        if (order != null && (!order.testBit(0) || order.compareTo(BigInteger.valueOf(3)) < 0))
+            throw new IllegalArgumentException("The order of the points must be odd and at least 3");
+        this.curve = curve;
+        this.order = order;
+        field = curve.field();
+        p = field.modulus();
+        BigInteger[] form = montgomeryForm(curve.a(), curve.b(), p, new Random(p.hashCode()));
+        if (form != null)
+        {
+            alpha = form[0];
+            s = form[1];
+            sInverse = s.modInverse(p);
+            montgomeryA = BigInteger.valueOf(3).multiply(alpha).multiply(s).mod(p);
+            montgomeryB = s;
+            BigInteger quarter = BigInteger.valueOf(4).modInverse(p);
+            a24 = field.element(montgomeryA.subtract(BigInteger.TWO).multiply(quarter));
+            twoA = field.element(montgomeryA.shiftLeft(1));
+            twoB = field.element(montgomeryB.shiftLeft(1));
+        }
+        else
+        {
+            alpha = s = sInverse = montgomeryA = montgomeryB = null;
+            a24 = twoA = twoB = null;
+        }
+        x2 = field.element();
+        z2 = field.element();
+        x3 = field.element();
+        z3 = field.element();
+        t0 = field.element();
+        t1 = field.element();
+        t2 = field.element();
+        t3 = field.element();
+        t4 = field.element();
+        t5 = field.element();
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        //Curve25519 (u^3 + 486662 u^2 + u = v^2) written as y^2 = x^3 + ax + b, against JDK X25519
+        BigInteger p = BigInteger.TWO.pow(255).subtract(BigInteger.valueOf(19));
+        BigInteger A = BigInteger.valueOf(486662);
+        BigInteger three = BigInteger.valueOf(3);
+        BigInteger a = three.subtract(A.pow(2)).multiply(three.modInverse(p)).mod(p);
+        BigInteger b = A.pow(3).shiftLeft(1).subtract(A.multiply(BigInteger.valueOf(9)))
+                .multiply(BigInteger.valueOf(27).modInverse(p)).mod(p);
+        WeierstrassCurve curve = new WeierstrassCurve(p, a, b);
+        LadderMultiplier ladder = new LadderMultiplier(curve);
+        if (!ladder.hasMontgomeryForm())
+            throw new IllegalStateException("Curve25519 has no Montgomery form?");
+        System.out.println("Curve25519 found in Montgomery form with A = " + ladder.montgomeryA()
+                + ", B = " + ladder.montgomeryB());
+        Random random = new Random(1);
+        KeyFactory factory = KeyFactory.getInstance("XDH");
+        for (int i = 0; i < 10; ++i)
+        {
+            ECPoint point = curve.findPoint(random);
+            byte[] scalar = new byte[32];
+            random.nextBytes(scalar);
+            //X25519 clears the low 3 bits and the top bit of the scalar and sets bit 254
+            byte[] clamped = scalar.clone();
+            clamped[0] &= (byte) 248;
+            clamped[31] &= 127;
+            clamped[31] |= 64;
+            BigInteger k = new BigInteger(1, reverse(clamped));
+            ECPoint product = ladder.multiply(point, k);
+            if (!product.equals(curve.multiply(point, k)))
+                throw new IllegalStateException("Montgomery ladder differs from double and add");
+            BigInteger u = ladder.toMontgomeryU(point);
+            PrivateKey privateKey = factory.generatePrivate(
+                    new XECPrivateKeySpec(NamedParameterSpec.X25519, scalar));
+            PublicKey publicKey = factory.generatePublic(
+                    new XECPublicKeySpec(NamedParameterSpec.X25519, u));
+            KeyAgreement agreement = KeyAgreement.getInstance("XDH");
+            agreement.init(privateKey);
+            agreement.doPhase(publicKey, true);
+            BigInteger expected = new BigInteger(1, reverse(agreement.generateSecret()));
+            if (!expected.equals(ladder.toMontgomeryU(product)))
+                throw new IllegalStateException("Montgomery ladder differs from X25519");
+        }
+        System.out.println("Montgomery ladder agrees with X25519 and double and add");
+
+        //P-256 has no Montgomery form, so it takes the co-Z ladder
+        ECDomain domain = ECDomain.P256;
+        LadderMultiplier coZ = new LadderMultiplier(domain.curve(), domain.n);
+        if (coZ.hasMontgomeryForm())
+            throw new IllegalStateException("P-256 has no point of order 2");
+        for (int i = 0; i < 10; ++i)
+        {
+            BigInteger k = new BigInteger(256, random);
+            if (!coZ.multiply(domain.g, k).equals(domain.curve().multiply(domain.g, k)))
+                throw new IllegalStateException("Co-Z ladder differs from double and add");
+        }
+        for (int i = -3; i <= 3; ++i)
+        {
+            BigInteger k = domain.n.add(BigInteger.valueOf(i));
+            if (!coZ.multiply(domain.g, k).equals(domain.curve().multiply(domain.g, k)))
+                throw new IllegalStateException("Co-Z ladder is wrong near the group order");
+        }
+        System.out.println("Co-Z ladder agrees with double and add on P-256");
+
+        //Small random curves, with and without a Montgomery form
+        int montgomery = 0;
+        for (int i = 0; i < 200; ++i)
+        {
+            BigInteger q = BigInteger.probablePrime(40, random);
+            WeierstrassCurve small;
+            try
+            {
+                small = new WeierstrassCurve(q, new BigInteger(40, random), new BigInteger(40, random));
+            }
+            catch (IllegalArgumentException e)
+            {
+                continue;
+            }
+            LadderMultiplier smallLadder = new LadderMultiplier(small);
+            ECPoint point = small.findPoint(random);
+            if (smallLadder.hasMontgomeryForm())
+                montgomery++;
+            else
+            {
+                //The co-Z ladder gets a point of the largest odd prime order dividing #E
+                long count = CurveOrder.order(q, small.a(), small.b(), random).longValue();
+                long prime = largestOddPrimeFactor(count);
+                if (prime < 3)
+                    continue;
+                point = small.multiply(point, BigInteger.valueOf(count / prime));
+                if (point.isInfinity())
+                    continue;
+                smallLadder = new LadderMultiplier(small, BigInteger.valueOf(prime));
+            }
+            for (int j = 0; j < 8; ++j)
+            {
+                BigInteger k = j < 3 ? BigInteger.valueOf(j) : new BigInteger(48, random);
+                if (!smallLadder.multiply(point, k).equals(small.multiply(point, k)))
+                    throw new IllegalStateException("Ladder differs on y^2 = x^3 + " + small.a() + "x + "
+                            + small.b() + " mod " + q);
+            }
+        }
+        System.out.println("Ladders agree on 200 small curves, " + montgomery + " with a Montgomery form");
+
+        //Timing on Curve25519 and P-256
+        ECPoint point = curve.findPoint(random);
+        BigInteger k = new BigInteger(255, random);
+        System.out.printf("Curve25519: double and add %.3f ms, Montgomery ladder %.3f ms\n",
+                time(() -> curve.multiply(point, k)), time(() -> ladder.multiply(point, k)));
+        WeierstrassCurve p256 = domain.curve();
+        System.out.printf("P-256: double and add %.3f ms, co-Z ladder %.3f ms\n",
+                time(() -> p256.multiply(domain.g, k)), time(() -> coZ.multiply(domain.g, k)));
+    }
+
+    private static double time(Runnable work)
+    {
+        //Best of 5 rounds after a warm up, since a shared machine makes single rounds noisy
+        for (int i = 0; i < 300; ++i)
+            work.run();
+        int runs = 100;
+        double best = Double.MAX_VALUE;
+        for (int round = 0; round < 5; ++round)
+        {
+            long start = System.nanoTime();
+            for (int i = 0; i < runs; ++i)
+                work.run();
+            best = Math.min(best, (System.nanoTime() - start) / 1e6 / runs);
+        }
+        return best;
+    }
+
+    private static long largestOddPrimeFactor(long n)
+    {
+        long largest = 1;
+        while (n % 2 == 0)
+            n /= 2;
+        for (long d = 3; d * d <= n; d += 2)
+            while (n % d == 0)
+            {
+                largest = d;
+                n /= d;
+            }
+        return Math.max(largest, n);
+    }
+
+    private static byte[] reverse(byte[] bytes)
+    {
+        byte[] r = new byte[bytes.length];
+        for (int i = 0; i < bytes.length; ++i)
+            r[i] = bytes[bytes.length - 1 - i];
+        return r;
+    }
+
+    public boolean hasMontgomeryForm()
+    {
+        return alpha != null;
+    }
+
+    public BigInteger montgomeryA()
+    {
+        return montgomeryA;
+    }
+
+    public BigInteger montgomeryB()
+    {
+        return montgomeryB;
+    }
+
+    public BigInteger toMontgomeryU(ECPoint point)
+    {
+        return s.multiply(point.x.subtract(alpha)).mod(p);
+    }
+
+    public ECPoint multiply(ECPoint point, BigInteger k)
+    {
+        if (point.isInfinity() || k.signum() == 0)
+            return ECPoint.INFINITY;
+        if (k.signum() < 0)
+        {
+            point = new ECPoint(point.x, p.subtract(point.y).mod(p));
+            k = k.negate();
+        }
+        //Points of order 2 have no slope to work with, and k P is just P or O
+        if (point.y.signum() == 0)
+            return k.testBit(0) ? point : ECPoint.INFINITY;
+        if (hasMontgomeryForm())
+            return montgomeryLadder(point, k);
+        if (order == null)
+            throw new IllegalStateException("The co-Z ladder needs the order of the points");
+        //The co-Z formulas cannot add a point to itself or its negative, which they would meet
+        //for these k
+        k = k.mod(order);
+        BigInteger fromOrder = order.subtract(k);
+        if (k.signum() == 0)
+            return ECPoint.INFINITY;
+        if (k.equals(BigInteger.ONE))
+            return point;
+        if (fromOrder.equals(BigInteger.ONE))
+            return negate(point);
+        if (fromOrder.equals(BigInteger.TWO))
+            return negate(curve.add(point, point));
+        return coZLadder(point, k);
+    }
+
+    private ECPoint negate(ECPoint point)
+    {
+        return point.isInfinity() ? point : new ECPoint(point.x, p.subtract(point.y).mod(p));
+    }
+
+    private ECPoint montgomeryLadder(ECPoint point, BigInteger k)
+    {
+        BigInteger uP = toMontgomeryU(point), vP = s.multiply(point.y).mod(p);
+        long[] u = field.element(uP);
+        field.one(x2);
+        field.zero(z2);
+        field.copy(u, x3);
+        field.one(z3);
+        int bits = Math.max(k.bitLength(), p.bitLength() + 1);
+        long swap = 0;
+        for (int i = bits - 1; i >= 0; --i)
+        {
+            long bit = k.testBit(i) ? 1 : 0;
+            swap ^= bit;
+            conditionalSwap(x2, x3, swap);
+            conditionalSwap(z2, z3, swap);
+            swap = bit;
+            ladderStep(u);
+        }
+        conditionalSwap(x2, x3, swap);
+        conditionalSwap(z2, z3, swap);
+
+        //(x2 : z2) = kP and (x3 : z3) = (k + 1)P
+        if (field.isZero(z2))
+            return ECPoint.INFINITY;
+        if (field.isZero(z3))
+            return new ECPoint(point.x, p.subtract(point.y).mod(p));
+        //Okeya-Sakurai with u = x2 / z2 and u' = x3 / z3, all over 2B vP z2^2 z3
+        long[] up = u, vp = field.element(vP);
+        long[] numerator = t0, left = t1, right = t2, denominator = t3;
+        field.multiply(up, x2, left);
+        field.add(left, z2, left);
+        field.multiply(up, z2, right);
+        field.add(right, x2, right);
+        field.multiply(twoA, z2, t4);
+        field.add(right, t4, right);
+        field.multiply(left, right, numerator);
+        field.multiply(numerator, z3, numerator);
+        field.square(z2, t4);
+        field.multiply(t4, z3, t5);
+        field.multiply(t5, twoA, left);
+        field.subtract(numerator, left, numerator);
+        field.multiply(up, z2, left);
+        field.subtract(left, x2, left);
+        field.square(left, left);
+        field.multiply(left, x3, left);
+        field.subtract(numerator, left, numerator);
+        field.multiply(twoB, vp, denominator);
+        field.multiply(denominator, t5, denominator);
+        //u = x2 2B vP z2 z3 / denominator
+        field.invert(denominator, t4);
+        field.multiply(numerator, t4, numerator);
+        field.multiply(twoB, vp, left);
+        field.multiply(left, z2, left);
+        field.multiply(left, z3, left);
+        field.multiply(left, x2, left);
+        field.multiply(left, t4, left);
+
+        //Back to Weierstrass: x = u / s + alpha, y = v / s
+        BigInteger x = field.get(left).multiply(sInverse).add(alpha).mod(p);
+        BigInteger y = field.get(numerator).multiply(sInverse).mod(p);
+        return new ECPoint(x, y);
+    }
+
+    private void ladderStep(long[] u)
+    {
+        //(x2 : z2) = 2 (x2 : z2) and (x3 : z3) = (x2 : z2) + (x3 : z3), whose difference is u
+        long[] sum = t0, difference = t1, aa = t2, bb = t3, e = t4, da = t5;
+        field.add(x2, z2, sum);
+        field.subtract(x2, z2, difference);
+        field.square(sum, aa);
+        field.square(difference, bb);
+        field.subtract(aa, bb, e);
+        field.subtract(x3, z3, da);
+        field.multiply(da, sum, da);
+        field.add(x3, z3, sum);
+        field.multiply(sum, difference, sum);
+        field.add(da, sum, x3);
+        field.square(x3, x3);
+        field.subtract(da, sum, z3);
+        field.square(z3, z3);
+        field.multiply(z3, u, z3);
+        field.multiply(aa, bb, x2);
+        field.multiply(a24, e, z2);
+        field.add(z2, aa, z2);
+        field.multiply(z2, e, z2);
+    }
+
+    private static void conditionalSwap(long[] a, long[] b, long swap)
+    {
+        long mask = -swap;
+        for (int i = 0; i < a.length; ++i)
+        {
+            long t = mask & (a[i] ^ b[i]);
+            a[i] ^= t;
+            b[i] ^= t;
+        }
+    }
+
+    private ECPoint coZLadder(ECPoint point, BigInteger k)
+    {
+        //k' = k + n or k + 2n, whichever is 2^t to 2^(t+1) - 1 for t = n.bitLength(), by a mask
+        int t = order.bitLength();
+        BigInteger once = k.add(order), twice = once.add(order);
+        int useOnce = once.testBit(t) ? 1 : 0;
+        //R0 = mP and R1 = (m + 1)P with a shared Z, for m the bits of k' above the current one
+        long[] x0 = field.element(), y0 = field.element(), x1 = field.element(), y1 = field.element();
+        long[] z = field.element();
+        doubleWithUpdate(field.element(point.x), field.element(point.y), x0, y0, x1, y1, z);
+        boolean degenerate = false;
+        long swap = 0;
+        for (int i = t - 1; i >= 0; --i)
+        {
+            int bit = (once.testBit(i) ? useOnce : 0) | (twice.testBit(i) ? 1 - useOnce : 0);
+            //Slot 1 holds R_b and slot 0 holds R_(1-b), so a 0 bit swaps them
+            swap ^= 1 - bit;
+            conditionalSwap(x0, x1, swap);
+            conditionalSwap(y0, y1, swap);
+            swap = 1 - bit;
+            //(slot 0, slot 1) = (R_b + R_(1-b), R_b - R_(1-b)), then slot 1 = sum + difference = 2 R_b
+            //and slot 0 = the sum, which is R_(2m+1) in either case
+            degenerate |= addConjugate(x1, y1, x0, y0, z);
+            degenerate |= addUpdate(x0, y0, x1, y1, z);
+        }
+        conditionalSwap(x0, x1, swap);
+        conditionalSwap(y0, y1, swap);
+        if (degenerate)
+            throw new IllegalArgumentException("The point does not have the order given for the ladder");
+        WeierstrassCurve.Jacobian r = curve.newPoint();
+        field.copy(x0, r.x);
+        field.copy(y0, r.y);
+        field.copy(z, r.z);
+        return curve.toAffine(r);
+    }
+
+    private void doubleWithUpdate(long[] px, long[] py, long[] x0, long[] y0, long[] x1, long[] y1, long[] z)
+    {
+        //DBLU: R1 = 2P and R0 = P, both with Z = 2y
+        long[] xx = t0, yy = t1, yyyy = t2, s = t3, m = t4;
+        field.square(px, xx);
+        field.square(py, yy);
+        field.square(yy, yyyy);
+        field.add(px, yy, s);
+        field.square(s, s);
+        field.subtract(s, xx, s);
+        field.subtract(s, yyyy, s);
+        field.add(s, s, s);
+        field.add(xx, xx, m);
+        field.add(m, xx, m);
+        field.set(curve.a(), t5);
+        field.add(m, t5, m);
+        field.square(m, x1);
+        field.subtract(x1, s, x1);
+        field.subtract(x1, s, x1);
+        field.add(yyyy, yyyy, yyyy);
+        field.add(yyyy, yyyy, yyyy);
+        field.add(yyyy, yyyy, yyyy);
+        field.subtract(s, x1, y1);
+        field.multiply(m, y1, y1);
+        field.subtract(y1, yyyy, y1);
+        field.add(py, py, z);
+        field.copy(s, x0);
+        field.copy(yyyy, y0);
+    }
+
+    private boolean addConjugate(long[] x1, long[] y1, long[] x2, long[] y2, long[] z)
+    {
+        //ZADDC: with P = (x1, y1) and Q = (x2, y2), Q becomes P + Q and P becomes P - Q. Returns true
+        //when the x coordinates are equal, which the formulas cannot handle
+        long[] c = t0, w1 = t1, w2 = t2, a1 = t3, d = t4;
+        field.subtract(x1, x2, t5);
+        boolean equal = field.isZero(t5);
+        field.multiply(z, t5, z);
+        field.square(t5, c);
+        field.multiply(x1, c, w1);
+        field.multiply(x2, c, w2);
+        field.subtract(w1, w2, a1);
+        field.multiply(y1, a1, a1);
+        //Sum into Q, using y1 - y2
+        field.subtract(y1, y2, d);
+        field.add(y1, y2, t5);
+        field.square(d, x2);
+        field.subtract(x2, w1, x2);
+        field.subtract(x2, w2, x2);
+        field.subtract(w1, x2, y2);
+        field.multiply(d, y2, y2);
+        field.subtract(y2, a1, y2);
+        //Difference into P, using y1 + y2
+        field.square(t5, x1);
+        field.subtract(x1, w1, x1);
+        field.subtract(x1, w2, x1);
+        field.subtract(w1, x1, y1);
+        field.multiply(t5, y1, y1);
+        field.subtract(y1, a1, y1);
+        return equal;
+    }
+
+    private boolean addUpdate(long[] x1, long[] y1, long[] x2, long[] y2, long[] z)
+    {
+        //ZADDU: with P = (x1, y1) and Q = (x2, y2), Q becomes P + Q and P is moved to the new Z.
+        //Returns true when the x coordinates are equal
+        long[] c = t0, w1 = t1, w2 = t2, a1 = t3, d = t4;
+        field.subtract(x1, x2, t5);
+        boolean equal = field.isZero(t5);
+        field.multiply(z, t5, z);
+        field.square(t5, c);
+        field.multiply(x1, c, w1);
+        field.multiply(x2, c, w2);
+        field.subtract(w1, w2, a1);
+        field.multiply(y1, a1, a1);
+        field.subtract(y1, y2, d);
+        field.square(d, x2);
+        field.subtract(x2, w1, x2);
+        field.subtract(x2, w2, x2);
+        field.subtract(w1, x2, y2);
+        field.multiply(d, y2, y2);
+        field.subtract(y2, a1, y2);
+        field.copy(w1, x1);
+        field.copy(a1, y1);
+        return equal;
+    }
+
+    static BigInteger[] montgomeryForm(BigInteger a, BigInteger b, BigInteger p, Random random)
+    {
+        //{ alpha, s } for the first root alpha of x^3 + ax + b with 3 alpha^2 + a a square, or null
+        BigInteger[] f = { b.mod(p), a.mod(p), BigInteger.ZERO, BigInteger.ONE };
+        for (BigInteger alpha : roots(f, p, random))
+        {
+            BigInteger t = BigInteger.valueOf(3).multiply(alpha.pow(2)).add(a).mod(p);
+            BigInteger root = t.signum() == 0 ? null : WeierstrassCurve.squareRoot(t, p);
+            if (root != null)
+                return new BigInteger[] { alpha, root.modInverse(p) };
+        }
+        return null;
+    }
+
+    private static List<BigInteger> roots(BigInteger[] f, BigInteger p, Random random)
+    {
+        //The roots of f in Z_p: g = gcd(f, x^p - x) is the product of (x - root), which is split
+        List<BigInteger> roots = new ArrayList<>();
+        BigInteger[] x = { BigInteger.ZERO, BigInteger.ONE };
+        BigInteger[] g = gcd(f, subtract(powerMod(x, p, f, p), x, p), p);
+        split(g, p, random, roots);
+        return roots;
+    }
+
+    private static void split(BigInteger[] g, BigInteger p, Random random, List<BigInteger> roots)
+    {
+        int degree = g.length - 1;
+        if (degree < 1)
+            return;
+        if (degree == 1)
+        {
+            roots.add(g[0].negate().multiply(g[1].modInverse(p)).mod(p));
+            return;
+        }
+        //A random delta makes (x + delta)^((p-1)/2) = 1 at about half the roots
+        BigInteger half = p.shiftRight(1);
+        while (true)
+        {
+            BigInteger[] shifted = { new BigInteger(p.bitLength() + 8, random).mod(p), BigInteger.ONE };
+            BigInteger[] h = subtract(powerMod(shifted, half, g, p), new BigInteger[] { BigInteger.ONE }, p);
+            BigInteger[] d = gcd(g, h, p);
+            if (d.length > 1 && d.length < g.length)
+            {
+                split(d, p, random, roots);
+                split(divide(g, d, p)[0], p, random, roots);
+                return;
+            }
+        }
+    }
+
+    //Polynomials over Z_p as coefficient arrays, lowest power first, no trailing zeros
+
+    private static BigInteger[] trim(BigInteger[] a)
+    {
+        int length = a.length;
+        while (length > 0 && a[length - 1].signum() == 0)
+            length--;
+        return Arrays.copyOf(a, length);
+    }
+
+    private static BigInteger[] subtract(BigInteger[] a, BigInteger[] b, BigInteger p)
+    {
+        BigInteger[] r = new BigInteger[Math.max(a.length, b.length)];
+        for (int i = 0; i < r.length; ++i)
+        {
+            BigInteger ai = i < a.length ? a[i] : BigInteger.ZERO;
+            BigInteger bi = i < b.length ? b[i] : BigInteger.ZERO;
+            r[i] = ai.subtract(bi).mod(p);
+        }
+        return trim(r);
+    }
+
+    private static BigInteger[][] divide(BigInteger[] a, BigInteger[] b, BigInteger p)
+    {
+        //{ quotient, remainder }
+        BigInteger[] r = a.clone();
+        int qLength = Math.max(0, a.length - b.length + 1);
+        BigInteger[] q = new BigInteger[qLength];
+        Arrays.fill(q, BigInteger.ZERO);
+        BigInteger lead = b[b.length - 1].modInverse(p);
+        for (int i = qLength - 1; i >= 0; --i)
+        {
+            BigInteger c = r[i + b.length - 1].multiply(lead).mod(p);
+            q[i] = c;
+            for (int j = 0; j < b.length; ++j)
+                r[i + j] = r[i + j].subtract(c.multiply(b[j])).mod(p);
+        }
+        return new BigInteger[][] { trim(q), trim(Arrays.copyOf(r, Math.min(r.length, b.length - 1))) };
+    }
+
+    private static BigInteger[] multiplyMod(BigInteger[] a, BigInteger[] b, BigInteger[] m, BigInteger p)
+    {
+        if (a.length == 0 || b.length == 0)
+            return a.length == 0 ? a : b;
+        BigInteger[] r = new BigInteger[a.length + b.length - 1];
+        Arrays.fill(r, BigInteger.ZERO);
+        for (int i = 0; i < a.length; ++i)
+            for (int j = 0; j < b.length; ++j)
+                r[i + j] = r[i + j].add(a[i].multiply(b[j]));
+        for (int i = 0; i < r.length; ++i)
+            r[i] = r[i].mod(p);
+        return divide(trim(r), m, p)[1];
+    }
+
+    private static BigInteger[] powerMod(BigInteger[] a, BigInteger e, BigInteger[] m, BigInteger p)
+    {
+        BigInteger[] result = divide(new BigInteger[] { BigInteger.ONE }, m, p)[1];
+        BigInteger[] base = divide(a, m, p)[1];
+        for (int i = e.bitLength() - 1; i >= 0; --i)
+        {
+            result = multiplyMod(result, result, m, p);
+            if (e.testBit(i))
+                result = multiplyMod(result, base, m, p);
+        }
+        return result;
+    }
+
+    private static BigInteger[] gcd(BigInteger[] a, BigInteger[] b, BigInteger p)
+    {
+        while (b.length > 0)
+        {
+            BigInteger[] r = divide(a, b, p)[1];
+            a = b;
+            b = r;
+        }
+        return a;
+    }
+}
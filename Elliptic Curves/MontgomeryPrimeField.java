@@ -0,0 +1,268 @@
+/*
+ * Arithmetic mod a prime p of any size, in k 64 bit limbs (lowest limb first), in Montgomery form
+ * with R = 2^(64k).
+ *
+ * Products use CIOS (coarsely integrated operand scanning) Montgomery multiplication: for each limb
+ * b[i], add a b[i] to the running total t, then add m p with m = -t[0] p^-1 mod 2^64, which clears
+ * the lowest limb, and shift t down a limb. After k rounds t = a b R^-1 is below 2p, so one
+ * conditional subtraction finishes. Limb products are unsigned 128 bit values from
+ * Math.multiplyHigh with a correction for the sign bits.
+ *
+ * Inversion goes through BigInteger.modInverse, since curves only invert once per normalization.
+ * The running total lives in a work array, so use copy() for other threads.
+ */
+
+import java.math.BigInteger;
+
+
+public class MontgomeryPrimeField extends PrimeField
+{
+    private final BigInteger modulus;
+    private final int k;
+    private final long[] p;
+    //-p^-1 mod 2^64
+    private final long pInv;
+    //R mod p and R^2 mod p
+    private final long[] r1, r2;
+    private final long[] unit;
+    //Running total of a product, k + 2 limbs
+    private final long[] t;
+
+    public MontgomeryPrimeField(BigInteger p)
+    {
+        if (p.signum() <= 0 || !p.testBit(0))
+            throw new IllegalArgumentException("Modulus must be an odd prime");
+        modulus = p;
+        k = (p.bitLength() + 63) / 64;
+        this.p = toLimbs(p, k);
+        long inverse = this.p[0];
+        for (int i = 0; i < 6; ++i)
+            inverse *= 2 - this.p[0] * inverse;
+        pInv = -inverse;
+        BigInteger r = BigInteger.ONE.shiftLeft(64 * k).mod(p);
+        r1 = toLimbs(r, k);
+        r2 = toLimbs(r.multiply(r).mod(p), k);
+        unit = new long[k];
+        unit[0] = 1;
+        t = new long[k + 2];
+    }
+
+    private MontgomeryPrimeField(MontgomeryPrimeField field)
+    {
+        modulus = field.modulus;
+        k = field.k;
+        p = field.p;
+        pInv = field.pInv;
+        r1 = field.r1;
+        r2 = field.r2;
+        unit = field.unit;
+        t = new long[k + 2];
+    }
+
+    @Override
+    public BigInteger modulus()
+    {
+        return modulus;
+    }
+
+    @Override
+    public int length()
+    {
+        return k;
+    }
+
+    @Override
+    public PrimeField copy()
+    {
+        return new MontgomeryPrimeField(this);
+    }
+
+    @Override
+    public void set(BigInteger value, long[] r)
+    {
+        long[] limbs = toLimbs(value.mod(modulus), k);
+        multiply(limbs, r2, r);
+    }
+
+    @Override
+    public BigInteger get(long[] a)
+    {
+        long[] plain = new long[k];
+        multiply(a, unit, plain);
+        return fromLimbs(plain);
+    }
+
+    @Override
+    public void zero(long[] r)
+    {
+        for (int i = 0; i < k; ++i)
+            r[i] = 0;
+    }
+
+    @Override
+    public void one(long[] r)
+    {
+        System.arraycopy(r1, 0, r, 0, k);
+    }
+
+    @Override
+    public void add(long[] a, long[] b, long[] r)
+    {
+        long carry = 0;
+        for (int i = 0; i < k; ++i)
+        {
+            long s = a[i] + b[i];
+            long c = Long.compareUnsigned(s, a[i]) < 0 ? 1 : 0;
+            long s2 = s + carry;
+            c |= Long.compareUnsigned(s2, s) < 0 ? 1 : 0;
+            r[i] = s2;
+            carry = c;
+        }
+        if (carry != 0 || compare(r, p) >= 0)
+            subtractLimbs(r, p, r);
+    }
+
+    @Override
+    public void subtract(long[] a, long[] b, long[] r)
+    {
+        if (subtractLimbs(a, b, r) != 0)
+            addLimbs(r, p, r);
+    }
+
+    @Override
+    public void negate(long[] a, long[] r)
+    {
+        if (isZero(a))
+            zero(r);
+        else
+            subtractLimbs(p, a, r);
+    }
+
+    @Override
+    public void multiply(long[] a, long[] b, long[] r)
+    {
+        long[] t = this.t;
+        for (int i = 0; i < k + 2; ++i)
+            t[i] = 0;
+        for (int i = 0; i < k; ++i)
+        {
+            //t += a b[i]
+            long bi = b[i];
+            long carry = 0;
+            for (int j = 0; j < k; ++j)
+            {
+                long x = a[j];
+                long lo = x * bi;
+                long hi = Math.multiplyHigh(x, bi) + ((x >> 63) & bi) + ((bi >> 63) & x);
+                long s = lo + t[j];
+                hi += Long.compareUnsigned(s, lo) < 0 ? 1 : 0;
+                long s2 = s + carry;
+                hi += Long.compareUnsigned(s2, s) < 0 ? 1 : 0;
+                t[j] = s2;
+                carry = hi;
+            }
+            long s = t[k] + carry;
+            t[k + 1] = Long.compareUnsigned(s, carry) < 0 ? 1 : 0;
+            t[k] = s;
+
+            //t = (t + m p) / 2^64
+            long m = t[0] * pInv;
+            long lo = m * p[0];
+            carry = Math.multiplyHigh(m, p[0]) + ((m >> 63) & p[0]) + ((p[0] >> 63) & m)
+                    + (Long.compareUnsigned(lo + t[0], lo) < 0 ? 1 : 0);
+            for (int j = 1; j < k; ++j)
+            {
+                long x = p[j];
+                lo = m * x;
+                long hi = Math.multiplyHigh(m, x) + ((m >> 63) & x) + ((x >> 63) & m);
+                s = lo + t[j];
+                hi += Long.compareUnsigned(s, lo) < 0 ? 1 : 0;
+                long s2 = s + carry;
+                hi += Long.compareUnsigned(s2, s) < 0 ? 1 : 0;
+                t[j - 1] = s2;
+                carry = hi;
+            }
+            s = t[k] + carry;
+            t[k - 1] = s;
+            t[k] = t[k + 1] + (Long.compareUnsigned(s, carry) < 0 ? 1 : 0);
+        }
+        //t is below 2p, t[k] holds the bit past the top limb
+        if (t[k] != 0 || compare(t, p) >= 0)
+            subtractLimbs(t, p, t);
+        System.arraycopy(t, 0, r, 0, k);
+    }
+
+    @Override
+    public void invert(long[] a, long[] r)
+    {
+        if (isZero(a))
+            throw new ArithmeticException("Zero has no inverse");
+        set(get(a).modInverse(modulus), r);
+    }
+
+    @Override
+    public boolean isZero(long[] a)
+    {
+        for (int i = 0; i < k; ++i)
+            if (a[i] != 0)
+                return false;
+        return true;
+    }
+
+    private int compare(long[] a, long[] b)
+    {
+        //Unsigned comparison of the low k limbs
+        for (int i = k - 1; i >= 0; --i)
+            if (a[i] != b[i])
+                return Long.compareUnsigned(a[i], b[i]);
+        return 0;
+    }
+
+    private long subtractLimbs(long[] a, long[] b, long[] r)
+    {
+        //r = a - b over k limbs, returns the borrow
+        long borrow = 0;
+        for (int i = 0; i < k; ++i)
+        {
+            long d = a[i] - b[i];
+            long out = Long.compareUnsigned(a[i], b[i]) < 0 ? 1 : 0;
+            long d2 = d - borrow;
+            out |= Long.compareUnsigned(d, borrow) < 0 ? 1 : 0;
+            r[i] = d2;
+            borrow = out;
+        }
+        return borrow;
+    }
+
+    private void addLimbs(long[] a, long[] b, long[] r)
+    {
+        //r = a + b over k limbs, dropping the carry out
+        long carry = 0;
+        for (int i = 0; i < k; ++i)
+        {
+            long s = a[i] + b[i];
+            long c = Long.compareUnsigned(s, a[i]) < 0 ? 1 : 0;
+            long s2 = s + carry;
+            c |= Long.compareUnsigned(s2, s) < 0 ? 1 : 0;
+            r[i] = s2;
+            carry = c;
+        }
+    }
+
+    static long[] toLimbs(BigInteger value, int k)
+    {
+        long[] limbs = new long[k];
+        for (int i = 0; i < k; ++i)
+            limbs[i] = value.shiftRight(64 * i).longValue();
+        return limbs;
+    }
+
+    static BigInteger fromLimbs(long[] limbs)
+    {
+        byte[] bytes = new byte[8 * limbs.length];
+        for (int i = 0; i < limbs.length; ++i)
+            for (int j = 0; j < 8; ++j)
+                bytes[bytes.length - 1 - 8 * i - j] = (byte) (limbs[i] >>> (8 * j));
+        return new BigInteger(1, bytes);
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Multi-scalar multiplication: k_1 P_1 + k_2 P_2 + ... + k_n P_n in one go, instead of n scalar
+ * multiplications and a sum.
+ *
+ * Two methods, and multiply picks whichever its operation count estimate says is cheaper:
+ * 1. Straus (Shamir's trick for many points): a wNAF table for each point, and one pass over the
+ *    digit positions from the top, doubling once per position and adding each point's digit. The
+ *    b doublings are shared by all the points, so n points cost b doublings and about n b / (w + 1)
+ *    additions. Best for small n, since every point needs its own table.
+ * 2. Pippenger (bucket method): cut every scalar into c bit windows. For window j put each P_i in
+ *    bucket d, its digit in that window, adding it to the bucket. Then the window sum
+ *		S_j = sum over d of d B_d = B_top + (B_top + B_top-1) + ...
+ *    comes from running sums from the top bucket down, 2^(c+1) additions. Finally
+ *		sum k_i P_i = sum over j of 2^(c j) S_j
+ *    by Horner. Each window costs about n + 2^(c+1) additions, so with c near log2(n) - 3 the total
+ *    is about b n / (log2(n) - 3), and no tables.
+ *
+ * The Pippenger windows are independent, and so are different slices of the points within a window
+ * (S_j is linear in the buckets), so the buckets are split by (window, slice of points) over the
+ * common fork-join pool, each piece with its own copy of the curve.
+ */
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+public class MultiScalarMultiplier
+{
+    //Points per fork-join piece of a Pippenger window
+    static final int POINTS_PER_TASK = 1024;
+    static final int STRAUS_WIDTH = 5;
+
+    public static void main(String[] args)
+    {
+        ECDomain domain = ECDomain.P256;
+        WeierstrassCurve curve = domain.curve();
+        Random random = new Random(1);
+        System.out.println("Threads: " + ForkJoinPool.commonPool().getParallelism());
+        //The first round warms up the JIT and is not printed
+        for (int round = 0; round < 2; ++round)
+        {
+            for (int n : new int[] { 1, 4, 16, 64, 256, 1024, 4096 })
+            {
+                ECPoint[] points = new ECPoint[n];
+                BigInteger[] scalars = new BigInteger[n];
+                for (int i = 0; i < n; ++i)
+                {
+                    points[i] = domain.multiplyGenerator(new BigInteger(256, random));
+                    scalars[i] = new BigInteger(256, random);
+                }
+                //One multiplication at a time, as before
+                long start = System.nanoTime();
+                ECPoint expected = ECPoint.INFINITY;
+                for (int i = 0; i < n; ++i)
+                    expected = curve.add(expected, new WNafMultiplier(curve, points[i]).multiply(scalars[i]));
+                double single = (System.nanoTime() - start) / 1e6;
+                start = System.nanoTime();
+                ECPoint straus = straus(curve, points, scalars);
+                double strausTime = (System.nanoTime() - start) / 1e6;
+                start = System.nanoTime();
+                ECPoint pippenger = pippenger(curve, points, scalars);
+                double pippengerTime = (System.nanoTime() - start) / 1e6;
+                if (!expected.equals(straus) || !expected.equals(pippenger)
+                        || !expected.equals(multiply(curve, points, scalars)))
+                    throw new IllegalStateException("Sums of " + n + " multiples differ");
+                if (round > 0)
+                    System.out.printf("n = %4d: one by one %8.1f ms, Straus %8.1f ms, Pippenger %8.1f ms"
+                            + " (window %d), multiply uses %s\n", n, single, strausTime, pippengerTime,
+                            pippengerWindow(n, 256), useStraus(n, 256) ? "Straus" : "Pippenger");
+            }
+        }
+    }
+
+    public static ECPoint multiply(WeierstrassCurve curve, ECPoint[] points, BigInteger[] scalars)
+    {
+        checkLengths(points, scalars);
+        int bits = 1;
+        for (BigInteger k : scalars)
+            bits = Math.max(bits, k.bitLength());
+        if (useStraus(points.length, bits))
+            return straus(curve, points, scalars);
+        return pippenger(curve, points, scalars);
+    }
+
+    private static void checkLengths(ECPoint[] points, BigInteger[] scalars)
+    {
+        if (points.length != scalars.length)
+            throw new IllegalArgumentException("Need one scalar per point");
+    }
+
+    static boolean useStraus(int n, int bits)
+    {
+        //Additions and doublings counted alike, tables included
+        double straus = bits + n * (bits / (STRAUS_WIDTH + 1.0) + (1 << (STRAUS_WIDTH - 2)));
+        int c = pippengerWindow(n, bits);
+        double pippenger = pippengerCost(n, bits, c);
+        return straus <= pippenger;
+    }
+
+    static int pippengerWindow(int n, int bits)
+    {
+        int best = 1;
+        for (int c = 2; c <= 20; ++c)
+            if (pippengerCost(n, bits, c) < pippengerCost(n, bits, best))
+                best = c;
+        return best;
+    }
+
+    private static double pippengerCost(int n, int bits, int c)
+    {
+        //Bucket additions and running sums per window, plus the doublings between windows
+        int windows = (bits + c - 1) / c;
+        return windows * (n + 2.0 * (1 << c)) + bits;
+    }
+
+    public static ECPoint straus(WeierstrassCurve curve, ECPoint[] points, BigInteger[] scalars)
+    {
+        checkLengths(points, scalars);
+        int n = points.length;
+        WNafMultiplier[] tables = new WNafMultiplier[n];
+        byte[][] digits = new byte[n][];
+        int length = 0;
+        for (int i = 0; i < n; ++i)
+        {
+            if (points[i].isInfinity() || scalars[i].signum() == 0)
+                continue;
+            tables[i] = new WNafMultiplier(curve, points[i], STRAUS_WIDTH);
+            digits[i] = WNafMultiplier.recode(scalars[i].abs(), STRAUS_WIDTH);
+            length = Math.max(length, digits[i].length);
+        }
+        WeierstrassCurve.Jacobian r = curve.newPoint();
+        for (int position = length - 1; position >= 0; --position)
+        {
+            curve.doublePoint(r, r);
+            for (int i = 0; i < n; ++i)
+                if (tables[i] != null && position < digits[i].length)
+                    tables[i].addDigit(curve, digits[i][position], scalars[i].signum() < 0, r);
+        }
+        return curve.toAffine(r);
+    }
+
+    public static ECPoint pippenger(WeierstrassCurve curve, ECPoint[] points, BigInteger[] scalars)
+    {
+        checkLengths(points, scalars);
+        //The empty sum, which would leave no slices to split the points into
+        if (points.length == 0)
+            return ECPoint.INFINITY;
+        int n = points.length;
+        PrimeField field = curve.field();
+        //Affine points as field elements, with y negated for negative scalars
+        long[][] x = new long[n][], y = new long[n][];
+        BigInteger[] k = new BigInteger[n];
+        int bits = 1;
+        for (int i = 0; i < n; ++i)
+        {
+            if (points[i].isInfinity())
+            {
+                k[i] = BigInteger.ZERO;
+                continue;
+            }
+            x[i] = field.element(points[i].x);
+            y[i] = field.element(points[i].y);
+            if (scalars[i].signum() < 0)
+                field.negate(y[i], y[i]);
+            k[i] = scalars[i].abs();
+            bits = Math.max(bits, k[i].bitLength());
+        }
+        int c = pippengerWindow(n, bits);
+        int windows = (bits + c - 1) / c;
+        int slices = (n + POINTS_PER_TASK - 1) / POINTS_PER_TASK;
+        WeierstrassCurve.Jacobian[][] sums = new WeierstrassCurve.Jacobian[windows][slices];
+        ForkJoinPool.commonPool().invoke(new WindowTask(curve, x, y, k, c, sums, 0, windows * slices));
+
+        //Horner over the windows, from the top: r = 2^c r + S_j
+        WeierstrassCurve.Jacobian r = curve.newPoint();
+        for (int j = windows - 1; j >= 0; --j)
+        {
+            for (int i = 0; i < c; ++i)
+                curve.doublePoint(r, r);
+            for (WeierstrassCurve.Jacobian sum : sums[j])
+                curve.add(r, sum, r);
+        }
+        return curve.toAffine(r);
+    }
+
+    //Fills sums[window][slice] for the pieces [from, to), numbered window * slices + slice
+    private static class WindowTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        final WeierstrassCurve curve;
+        final long[][] x, y;
+        final BigInteger[] k;
+        final int c;
+        final WeierstrassCurve.Jacobian[][] sums;
+        final int from, to;
+
+        WindowTask(WeierstrassCurve curve, long[][] x, long[][] y, BigInteger[] k, int c,
+                WeierstrassCurve.Jacobian[][] sums, int from, int to)
+        {
+            this.curve = curve;
+            this.x = x;
+            this.y = y;
+            this.k = k;
+            this.c = c;
+            this.sums = sums;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to - from > 1)
+            {
+                int middle = (from + to) >>> 1;
+                invokeAll(new WindowTask(curve, x, y, k, c, sums, from, middle),
+                        new WindowTask(curve, x, y, k, c, sums, middle, to));
+                return;
+            }
+            int slices = sums[0].length;
+            int window = from / slices, slice = from % slices;
+            WeierstrassCurve local = curve.copy();
+            WeierstrassCurve.Jacobian[] buckets = new WeierstrassCurve.Jacobian[1 << c];
+            for (int d = 1; d < buckets.length; ++d)
+                buckets[d] = local.newPoint();
+            int end = Math.min(k.length, (slice + 1) * POINTS_PER_TASK);
+            for (int i = slice * POINTS_PER_TASK; i < end; ++i)
+            {
+                int d = 0;
+                for (int b = c - 1; b >= 0; --b)
+                    d = (d << 1) | (k[i].testBit(window * c + b) ? 1 : 0);
+                if (d != 0)
+                    local.addAffine(buckets[d], x[i], y[i], buckets[d]);
+            }
+            //S = sum d B_d, as the sum of the running sums B_top + ... + B_d
+            WeierstrassCurve.Jacobian running = local.newPoint(), sum = local.newPoint();
+            for (int d = buckets.length - 1; d >= 1; --d)
+            {
+                local.add(running, buckets[d], running);
+                local.add(sum, running, sum);
+            }
+            sums[window][slice] = sum;
+        }
+    }
+}
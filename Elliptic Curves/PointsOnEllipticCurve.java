@@ -1,31 +1,150 @@
 /*
  * Finds the number of points on an elliptic curve mod p i.e. the order of curve mod p using
  * legendre symbol
+ *
+ * Every x gives 1 + (f(x) / p) points, where f(x) = x^3 + ax + b and (f / p) is the legendre
+ * symbol, so the order is p + 1 + sum of (f(x) / p), counting O.
+ *
+ * countPoints does this for primes below 2^62 in long arithmetic:
+ * 1. f(x) is not evaluated from scratch. Its differences d1(x) = f(x + 1) - f(x) = 3x^2 + 3x + 1 + a
+ *    and d2(x) = d1(x + 1) - d1(x) = 6x + 6 step by 6, so the next value is three modular additions.
+ * 2. (f / p) comes from quadratic reciprocity as a Jacobi symbol, with subtractions and shifts
+ *    only (the binary algorithm), instead of a modPow.
+ * 3. The x range is cut into blocks that a parallel stream sums on all cores. Each block starts its
+ *    differences with BigInteger and then only adds.
+ * At under 100 ns per x on one core, p near 2^32 is a matter of minutes, less with more cores.
+ *
+ * Command line: [<p> <a> <b>], the curve below by default.
  */
 
 import java.math.BigInteger;
+import java.util.Random;
+import java.util.stream.LongStream;
 
-public class PointsOnEllipticCurve 
+public class PointsOnEllipticCurve
 {
     // Make variables
     static BigInteger a = BigInteger.ONE;
     static BigInteger b = new BigInteger("28");
     static BigInteger p = new BigInteger("71");
 
-    public static void main(String[] args) 
+    //x values per parallel block
+    static final long BLOCK = 1 << 20;
+
+    public static void main(String[] args)
     {
+        if (args.length >= 3)
+        {
+            p = new BigInteger(args[0]);
+            a = new BigInteger(args[1]);
+            b = new BigInteger(args[2]);
+        }
         // Start number of points on curve with p+1
         BigInteger numPoints = p.add(BigInteger.ONE);
         // Calculate the legendre symbol from 0 to p-1 and add to count
-        for (BigInteger i = BigInteger.ZERO; i.compareTo(p) < 0; i = i
-                .add(BigInteger.ONE))
-            numPoints.add(legendre(i));
+        if (p.bitLength() <= 24)
+        {
+            for (BigInteger i = BigInteger.ZERO; i.compareTo(p) < 0; i = i
+                    .add(BigInteger.ONE))
+                numPoints = numPoints.add(legendre(i));
+            if (numPoints.longValue() != countPoints(a.longValue(), b.longValue(), p.longValue()))
+                throw new IllegalStateException("Counts differ");
+        }
+        else
+            numPoints = BigInteger.valueOf(countPoints(a.longValue(), b.longValue(), p.longValue()));
         // Print the count
-        System.out.println("Number of points on elliptic curve are: "
-                + numPoints.intValue());
+        System.out.println("Number of points on elliptic curve are: " + numPoints);
+        if (args.length >= 3)
+            return;
+
+        //Check against the modPow count on small curves, then time larger primes
+        Random random = new Random(1);
+        for (int i = 0; i < 50; ++i)
+        {
+            p = BigInteger.probablePrime(12, random);
+            a = new BigInteger(12, random).mod(p);
+            b = new BigInteger(12, random).mod(p);
+            BigInteger expected = p.add(BigInteger.ONE);
+            for (BigInteger x = BigInteger.ZERO; x.compareTo(p) < 0; x = x.add(BigInteger.ONE))
+                expected = expected.add(legendre(x));
+            if (expected.longValue() != countPoints(a.longValue(), b.longValue(), p.longValue()))
+                throw new IllegalStateException("Counts differ mod " + p);
+        }
+        System.out.println("countPoints agrees with the modPow count on 50 curves");
+        for (int bits : new int[] { 20, 24, 28 })
+        {
+            long prime = BigInteger.probablePrime(bits, random).longValue();
+            long start = System.nanoTime();
+            long count = countPoints(5, 7, prime);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            //Hasse: |p + 1 - count| <= 2 sqrt(p)
+            if (Math.abs(prime + 1 - count) > 2 * Math.sqrt(prime))
+                throw new IllegalStateException("Count breaks the Hasse bound");
+            System.out.printf("p = %d (%d bits): %d points in %.2f s, %.1f ns per x\n", prime, bits,
+                    count, seconds, seconds * 1e9 / prime);
+        }
+    }
+
+    public static long countPoints(long a, long b, long p)
+    {
+        //Order of y^2 = x^3 + ax + b mod an odd prime p < 2^62
+        if (p < 3 || p >= 1L << 62 || (p & 1) == 0)
+            throw new IllegalArgumentException("Need an odd prime below 2^62");
+        long am = Math.floorMod(a, p), bm = Math.floorMod(b, p);
+        long blocks = (p + BLOCK - 1) / BLOCK;
+        long symbols = LongStream.range(0, blocks).parallel()
+                .map(block -> sumSymbols(am, bm, p, block * BLOCK, Math.min(p, (block + 1) * BLOCK)))
+                .sum();
+        return p + 1 + symbols;
+    }
+
+    private static long sumSymbols(long a, long b, long p, long from, long to)
+    {
+        //Sum of (f(x) / p) for x in [from, to)
+        BigInteger P = BigInteger.valueOf(p), x = BigInteger.valueOf(from), A = BigInteger.valueOf(a);
+        long f = x.pow(3).add(A.multiply(x)).add(BigInteger.valueOf(b)).mod(P).longValue();
+        long d1 = x.pow(2).add(x).multiply(BigInteger.valueOf(3)).add(BigInteger.ONE).add(A).mod(P)
+                .longValue();
+        long d2 = x.add(BigInteger.ONE).multiply(BigInteger.valueOf(6)).mod(P).longValue();
+        long six = 6 % p;
+        long sum = 0;
+        for (long i = from; i < to; ++i)
+        {
+            sum += jacobi(f, p);
+            f = addMod(f, d1, p);
+            d1 = addMod(d1, d2, p);
+            d2 = addMod(d2, six, p);
+        }
+        return sum;
+    }
+
+    private static long addMod(long x, long y, long p)
+    {
+        long r = x + y - p;
+        return r < 0 ? r + p : r;
+    }
+
+    static int jacobi(long a, long n)
+    {
+        //(a / n) for odd n > 0 and 0 <= a < n, by the binary algorithm. The sign is the low bit
+        //of s, and the swap when a < n is done with the mask of a - n rather than a branch
+        long s = 0;
+        while (a != 0)
+        {
+            int twos = Long.numberOfTrailingZeros(a);
+            a >>>= twos;
+            //(2 / n) = -1 when n = 3, 5 mod 8, i.e. when bits 1 and 2 of n differ
+            s ^= twos & ((n >> 1) ^ (n >> 2));
+            long t = a - n, mask = t >> 63;
+            //Reciprocity flips the sign when both are 3 mod 4
+            s ^= (a & n & mask) >> 1;
+            n += t & mask;
+            a = (t ^ mask) - mask;
+        }
+        return n == 1 ? 1 - 2 * (int) (s & 1) : 0;
     }
 
-    private static BigInteger legendre(BigInteger i) 
+    private static BigInteger legendre(BigInteger i)
     {
         // Calculate x^3 + ax + b. If that is divisible by p, then answer is 0
         BigInteger num = i.pow(3).add(a.multiply(i)).add(b);
@@ -36,7 +155,7 @@ public class PointsOnEllipticCurve
         // then answer is -1, otherwise invalid symbol
         BigInteger exponent = p.subtract(BigInteger.ONE).divide(
                 new BigInteger("2"));
-        BigInteger result = a.modPow(exponent, p);
+        BigInteger result = num.mod(p).modPow(exponent, p);
         if (result.equals(BigInteger.ONE))
             return BigInteger.ONE;
         else if (result.equals(p.subtract(BigInteger.ONE)))
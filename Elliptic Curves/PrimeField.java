@@ -0,0 +1,88 @@
+/*
+ * Arithmetic mod a prime p, the base field of an elliptic curve.
+ *
+ * An element is a long array of length() words, made by element(), and every operation writes its
+ * result into an array the caller passes in (which may be one of the inputs), so curve arithmetic
+ * allocates nothing. Elements are kept in Montgomery form, a R mod p for a power of two R, which
+ * turns the division by p in a product into shifts; set and get convert to and from BigInteger.
+ *
+ * of(p) picks the implementation:
+ * 1. WordPrimeField for p below 2^62, one long per element, which also has a primitive long API.
+ * 2. MontgomeryPrimeField for anything larger, with as many 64 bit limbs as p needs.
+ *
+ * Implementations may keep work space, so one object must only be used by one thread at a time;
+ * copy() gives another object for the same field to hand to another thread.
+ */
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+
+public abstract class PrimeField
+{
+    public static PrimeField of(BigInteger p)
+    {
+        if (p.signum() <= 0 || !p.testBit(0))
+            throw new IllegalArgumentException("Modulus must be an odd prime");
+        if (p.bitLength() <= WordPrimeField.MAX_BITS)
+            return new WordPrimeField(p.longValue());
+        return new MontgomeryPrimeField(p);
+    }
+
+    public abstract BigInteger modulus();
+
+    //Number of longs in an element
+    public abstract int length();
+
+    public abstract PrimeField copy();
+
+    public long[] element()
+    {
+        return new long[length()];
+    }
+
+    public long[] element(BigInteger value)
+    {
+        long[] r = element();
+        set(value, r);
+        return r;
+    }
+
+    //r = value mod p
+    public abstract void set(BigInteger value, long[] r);
+
+    public abstract BigInteger get(long[] a);
+
+    public abstract void zero(long[] r);
+
+    public abstract void one(long[] r);
+
+    public abstract void add(long[] a, long[] b, long[] r);
+
+    public abstract void subtract(long[] a, long[] b, long[] r);
+
+    public abstract void negate(long[] a, long[] r);
+
+    public abstract void multiply(long[] a, long[] b, long[] r);
+
+    public void square(long[] a, long[] r)
+    {
+        multiply(a, a, r);
+    }
+
+    //Throws ArithmeticException for zero
+    public abstract void invert(long[] a, long[] r);
+
+    public abstract boolean isZero(long[] a);
+
+    public boolean equal(long[] a, long[] b)
+    {
+        //Elements are always fully reduced, so equal values have equal words
+        return Arrays.equals(a, b);
+    }
+
+    public void copy(long[] a, long[] r)
+    {
+        System.arraycopy(a, 0, r, 0, a.length);
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Scalar multiplication k P by the width-w non-adjacent form (wNAF) of k.
+ *
+ * The wNAF writes k = sum d_i 2^i where each digit d_i is 0 or odd with |d_i| < 2^(w-1), and any
+ * nonzero digit is followed by at least w - 1 zeros. It comes from the bits of k: while k > 0, if k
+ * is odd take d = k mod 2^w in (-2^(w-1), 2^(w-1)) and subtract it (which makes the next w - 1 bits
+ * zero), otherwise d = 0, then halve k. About 1 digit in w + 1 is nonzero, against 1 bit in 2 for
+ * plain double and add, so with w = 5 a 256 bit scalar needs about 43 additions instead of 128.
+ *
+ * The odd multiples P, 3P, ..., (2^(w-1) - 1)P are computed once per point and normalized to affine
+ * together (one inversion), so every addition is a mixed addition. Negative digits use the same
+ * table, since -(x, y) = (x, -y) costs nothing.
+ */
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Random;
+
+
+public class WNafMultiplier
+{
+    static final int DEFAULT_WIDTH = 5;
+
+    private final WeierstrassCurve curve;
+    private final int width;
+    //Affine odd multiples (2i + 1)P, with both signs of y
+    private final long[][] x, y, negativeY;
+
+    public WNafMultiplier(WeierstrassCurve curve, ECPoint point)
+    {
+        this(curve, point, DEFAULT_WIDTH);
+    }
+
+    public WNafMultiplier(WeierstrassCurve curve, ECPoint point, int width)
+    {
+        checkWidth(width);
+        if (point.isInfinity())
+            throw new IllegalArgumentException("Cannot multiply the point at infinity");
+        this.curve = curve;
+        this.width = width;
+        WeierstrassCurve.Jacobian[] table = oddMultiples(curve, point, width);
+        int size = table.length;
+        //A multiple can only be O if P has small order, which the additions cannot take
+        for (WeierstrassCurve.Jacobian multiple : table)
+            if (curve.isInfinity(multiple))
+                throw new IllegalArgumentException("Point order is too small for width " + width);
+        curve.normalize(table);
+        PrimeField field = curve.field();
+        x = new long[size][];
+        y = new long[size][];
+        negativeY = new long[size][];
+        for (int i = 0; i < size; ++i)
+        {
+            x[i] = table[i].x;
+            y[i] = table[i].y;
+            negativeY[i] = field.element();
+            field.negate(y[i], negativeY[i]);
+        }
+    }
+
+    static boolean fitsTable(WeierstrassCurve curve, ECPoint point, int width)
+    {
+        //False when one of P, 3P, ..., (2^(w-1) - 1)P is O, so the point is O or has a small odd order
+        checkWidth(width);
+        if (point.isInfinity())
+            return false;
+        for (WeierstrassCurve.Jacobian multiple : oddMultiples(curve, point, width))
+            if (curve.isInfinity(multiple))
+                return false;
+        return true;
+    }
+
+    private static void checkWidth(int width)
+    {
+        //Digits are bytes, so |d| < 2^(w-1) must fit
+        if (width < 2 || width > 8)
+            throw new IllegalArgumentException("Window width must be from 2 to 8");
+    }
+
+    private static WeierstrassCurve.Jacobian[] oddMultiples(WeierstrassCurve curve, ECPoint point, int width)
+    {
+        //P, 3P, ..., (2^(w-1) - 1)P in Jacobian coordinates
+        WeierstrassCurve.Jacobian[] table = new WeierstrassCurve.Jacobian[1 << (width - 2)];
+        table[0] = curve.toJacobian(point);
+        WeierstrassCurve.Jacobian twice = curve.newPoint();
+        curve.doublePoint(table[0], twice);
+        for (int i = 1; i < table.length; ++i)
+        {
+            table[i] = curve.newPoint();
+            curve.add(table[i - 1], twice, table[i]);
+        }
+        return table;
+    }
+
+    public static void main(String[] args)
+    {
+        BigInteger p = new BigInteger("ffffffff00000001000000000000000000000000ffffffffffffffffffffffff", 16);
+        BigInteger b = new BigInteger("5ac635d8aa3a93e7b3ebbd55769886bc651d06b0cc53b0f63bce3c3e27d2604b", 16);
+        ECPoint g = new ECPoint(
+                new BigInteger("6b17d1f2e12c4247f8bce6e563a440f277037d812deb33a0f4a13945d898c296", 16),
+                new BigInteger("4fe342e2fe1a7f9b8ee7eb4a7c0f9e162bce33576b315ececbb6406837bf51f5", 16));
+        WeierstrassCurve curve = new WeierstrassCurve(p, BigInteger.valueOf(-3), b);
+        Random random = new Random(1);
+        BigInteger[] scalars = new BigInteger[200];
+        for (int i = 0; i < scalars.length; ++i)
+            scalars[i] = new BigInteger(256, random);
+
+        //Every width must agree with double and add, including negative scalars
+        for (int w = 2; w <= 8; ++w)
+        {
+            WNafMultiplier multiplier = new WNafMultiplier(curve, g, w);
+            for (int i = 0; i < 10; ++i)
+            {
+                BigInteger k = i % 2 == 0 ? scalars[i] : scalars[i].negate();
+                if (!multiplier.multiply(k).equals(curve.multiply(g, k)))
+                    throw new IllegalStateException("wNAF with width " + w + " is wrong");
+            }
+        }
+        System.out.println("wNAF agrees with double and add for widths 2 to 8");
+
+        //Additions per 256 bit scalar, and time per multiplication, table included
+        long binaryAdds = 0;
+        for (BigInteger k : scalars)
+            binaryAdds += k.bitCount() - 1;
+        time("Double and add", binaryAdds / (double) scalars.length, () ->
+        {
+            for (BigInteger k : scalars)
+                curve.multiply(g, k);
+        }, scalars.length);
+        for (int w = 3; w <= 7; ++w)
+        {
+            int width = w;
+            long adds = 0;
+            for (BigInteger k : scalars)
+                for (byte d : recode(k, w))
+                    adds += d != 0 ? 1 : 0;
+            //Table building costs 1 doubling and 2^(w-2) - 1 additions
+            double tableAdds = (1 << (w - 2)) - 1;
+            time("wNAF width " + w, adds / (double) scalars.length + tableAdds, () ->
+            {
+                for (BigInteger k : scalars)
+                    new WNafMultiplier(curve, g, width).multiply(k);
+            }, scalars.length);
+        }
+    }
+
+    private static void time(String name, double additions, Runnable work, int count)
+    {
+        for (int i = 0; i < 3; ++i)
+            work.run();
+        long start = System.nanoTime();
+        for (int i = 0; i < 3; ++i)
+            work.run();
+        double ms = (System.nanoTime() - start) / 1e6 / count / 3;
+        System.out.printf("%-15s %6.1f additions, %.3f ms per k P\n", name, additions, ms);
+    }
+
+    public int width()
+    {
+        return width;
+    }
+
+    public ECPoint multiply(BigInteger k)
+    {
+        WeierstrassCurve.Jacobian r = curve.newPoint();
+        multiply(k, r);
+        return curve.toAffine(r);
+    }
+
+    public void multiply(BigInteger k, WeierstrassCurve.Jacobian r)
+    {
+        multiply(curve, k, r);
+    }
+
+    public void multiply(WeierstrassCurve curve, BigInteger k, WeierstrassCurve.Jacobian r)
+    {
+        //The table is only read, so another thread can multiply with its own copy of the curve
+        byte[] digits = recode(k.abs(), width);
+        boolean negative = k.signum() < 0;
+        curve.set(ECPoint.INFINITY, r);
+        for (int i = digits.length - 1; i >= 0; --i)
+        {
+            curve.doublePoint(r, r);
+            addDigit(curve, digits[i], negative, r);
+        }
+    }
+
+    public static void multiplyAdd(WeierstrassCurve curve, WNafMultiplier p, BigInteger j,
+            WNafMultiplier q, BigInteger k, WeierstrassCurve.Jacobian r)
+    {
+        //j P + k Q with the two digit strings interleaved (Shamir's trick), so they share doublings
+        byte[] pDigits = recode(j.abs(), p.width), qDigits = recode(k.abs(), q.width);
+        curve.set(ECPoint.INFINITY, r);
+        for (int i = Math.max(pDigits.length, qDigits.length) - 1; i >= 0; --i)
+        {
+            curve.doublePoint(r, r);
+            if (i < pDigits.length)
+                p.addDigit(curve, pDigits[i], j.signum() < 0, r);
+            if (i < qDigits.length)
+                q.addDigit(curve, qDigits[i], k.signum() < 0, r);
+        }
+    }
+
+    void addDigit(WeierstrassCurve curve, int d, boolean negative, WeierstrassCurve.Jacobian r)
+    {
+        //r += d P, and for a negative scalar r -= d P, using y or -y from the table
+        if (d == 0)
+            return;
+        boolean minus = d < 0 != negative;
+        int index = Math.abs(d) >> 1;
+        curve.addAffine(r, x[index], minus ? negativeY[index] : y[index], r);
+    }
+
+    static byte[] recode(BigInteger k, int w)
+    {
+        //Digits of the wNAF of k >= 0, lowest first, see the top of the file
+        byte[] digits = new byte[k.bitLength() + 1];
+        int mask = (1 << w) - 1, half = 1 << (w - 1);
+        int length = 0;
+        for (int i = 0; k.signum() > 0; ++i)
+        {
+            if (k.testBit(0))
+            {
+                int d = k.intValue() & mask;
+                if (d >= half)
+                    d -= 1 << w;
+                digits[i] = (byte) d;
+                k = k.subtract(BigInteger.valueOf(d));
+                length = i + 1;
+            }
+            //Skip straight past the zeros
+            int zeros = Math.max(1, k.getLowestSetBit());
+            k = k.shiftRight(zeros);
+            i += zeros - 1;
+        }
+        return length == digits.length ? digits : Arrays.copyOf(digits, length);
+    }
+}
@@ -0,0 +1,497 @@
+/*
+ * The elliptic curve y^2 = x^3 + ax + b over Z_p, with point arithmetic in Jacobian coordinates.
+ *
+ * A Jacobian point (X, Y, Z) stands for the affine point (X/Z^2, Y/Z^3), and Z = 0 is the point
+ * at infinity. Adding and doubling in these coordinates takes only multiplications, so a whole
+ * scalar multiplication needs one inversion, when the result is turned back into an ECPoint.
+ * The formulas are the ones from the Explicit-Formulas Database:
+ *
+ * Doubling (dbl-2007-bl), with XX = X^2, YY = Y^2, ZZ = Z^2:
+ *		S = 2((X + YY)^2 - XX - YY^2), M = 3XX + a ZZ^2, T = M^2 - 2S
+ *		X3 = T, Y3 = M(S - T) - 8YY^2, Z3 = (Y + Z)^2 - YY - ZZ
+ *   M is 3(X - ZZ)(X + ZZ) when a = -3 and 3XX when a = 0, which saves a few products.
+ *
+ * Addition (add-2007-bl), with U1 = X1 Z2^2, U2 = X2 Z1^2, S1 = Y1 Z2^3, S2 = Y2 Z1^3:
+ *		H = U2 - U1, I = (2H)^2, J = H I, r = 2(S2 - S1), V = U1 I
+ *		X3 = r^2 - J - 2V, Y3 = r(V - X3) - 2 S1 J, Z3 = ((Z1 + Z2)^2 - Z1^2 - Z2^2) H
+ *   H = 0 means the x coordinates match, so the points are equal (double) or opposite (O).
+ *   When the second point is affine (Z2 = 1) this is madd-2007-bl, which skips the Z2 products.
+ *
+ * Field elements come from a PrimeField, so p can be any size. The temporaries live in the curve
+ * object, so one object must only be used by one thread at a time; copy() makes another.
+ */
+
+import java.math.BigInteger;
+import java.util.Random;
+
+
+public class WeierstrassCurve
+{
+    //A point in Jacobian coordinates, Z = 0 is the point at infinity
+    public static final class Jacobian
+    {
+        public final long[] x, y, z;
+
+        Jacobian(PrimeField field)
+        {
+            x = field.element();
+            y = field.element();
+            z = field.element();
+        }
+    }
+
+    private final PrimeField field;
+    private final BigInteger a, b;
+    private final long[] aElement, bElement;
+    private final boolean aIsZero, aIsMinusThree;
+    //Temporaries for the point formulas
+    private final long[] t0, t1, t2, t3, t4, t5, t6, t7, t8;
+
+    public WeierstrassCurve(BigInteger p, BigInteger a, BigInteger b)
+    {
+        this(PrimeField.of(p), a, b);
+    }
+
+    public WeierstrassCurve(PrimeField field, BigInteger a, BigInteger b)
+    {
+        this.field = field;
+        BigInteger p = field.modulus();
+        this.a = a.mod(p);
+        this.b = b.mod(p);
+        if (this.a.pow(3).shiftLeft(2).add(this.b.pow(2).multiply(BigInteger.valueOf(27))).mod(p)
+                .signum() == 0)
+            throw new IllegalArgumentException("Curve is singular");
+        aElement = field.element(this.a);
+        bElement = field.element(this.b);
+        aIsZero = this.a.signum() == 0;
+        aIsMinusThree = this.a.equals(p.subtract(BigInteger.valueOf(3)));
+        t0 = field.element();
+        t1 = field.element();
+        t2 = field.element();
+        t3 = field.element();
+        t4 = field.element();
+        t5 = field.element();
+        t6 = field.element();
+        t7 = field.element();
+        t8 = field.element();
+    }
+
+    public static void main(String[] args)
+    {
+        //NIST P-256, whose generator has prime order n, so n G = O and (j + k) G = j G + k G
+        BigInteger p = new BigInteger("ffffffff00000001000000000000000000000000ffffffffffffffffffffffff", 16);
+        BigInteger b = new BigInteger("5ac635d8aa3a93e7b3ebbd55769886bc651d06b0cc53b0f63bce3c3e27d2604b", 16);
+        BigInteger n = new BigInteger("ffffffff00000000ffffffffffffffffbce6faada7179e84f3b9cac2fc632551", 16);
+        ECPoint g = new ECPoint(
+                new BigInteger("6b17d1f2e12c4247f8bce6e563a440f277037d812deb33a0f4a13945d898c296", 16),
+                new BigInteger("4fe342e2fe1a7f9b8ee7eb4a7c0f9e162bce33576b315ececbb6406837bf51f5", 16));
+        WeierstrassCurve curve = new WeierstrassCurve(p, BigInteger.valueOf(-3), b);
+        Random random = new Random(1);
+        if (!curve.contains(g) || !curve.multiply(g, n).isInfinity())
+            throw new IllegalStateException("n G is not O on P-256");
+        for (int i = 0; i < 20; ++i)
+        {
+            BigInteger j = new BigInteger(256, random), k = new BigInteger(256, random);
+            ECPoint sum = curve.add(curve.multiply(g, j), curve.multiply(g, k));
+            if (!sum.equals(curve.multiply(g, j.add(k))) || !curve.contains(sum))
+                throw new IllegalStateException("jG + kG is not (j + k)G on P-256");
+        }
+
+        //A curve over a 61 bit prime, which uses WordPrimeField, against affine addition
+        BigInteger q = BigInteger.valueOf(2305843009213693951L);
+        WeierstrassCurve small = new WeierstrassCurve(q, BigInteger.valueOf(5), BigInteger.valueOf(7));
+        ECPoint point = small.findPoint(random);
+        EllipticCurves.prime = q;
+        EllipticCurves.a = BigInteger.valueOf(5);
+        EllipticCurves.b = BigInteger.valueOf(7);
+        ECPoint affine = ECPoint.INFINITY;
+        for (int i = 1; i <= 1000; ++i)
+        {
+            affine = EllipticCurves.addPoint(affine, point);
+            if (!affine.equals(small.multiply(point, BigInteger.valueOf(i))))
+                throw new IllegalStateException(i + " P differs from affine addition");
+        }
+        System.out.println("Jacobian arithmetic agrees on P-256 and a 61 bit curve");
+
+        //Time P-256 scalar multiplication against affine double and add with BigInteger
+        EllipticCurves.prime = p;
+        EllipticCurves.a = BigInteger.valueOf(-3);
+        EllipticCurves.b = b;
+        BigInteger k = new BigInteger(256, random);
+        int runs = 200;
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; ++i)
+            curve.multiply(g, k.add(BigInteger.valueOf(i)));
+        double jacobian = (System.nanoTime() - start) / 1e6 / runs;
+        start = System.nanoTime();
+        for (int i = 0; i < runs / 10; ++i)
+            EllipticCurves.affineMultiply(g, k.add(BigInteger.valueOf(i)));
+        double affineTime = (System.nanoTime() - start) / 1e6 / (runs / 10);
+        System.out.printf("P-256 k G: Jacobian %.3f ms, affine BigInteger %.3f ms\n", jacobian,
+                affineTime);
+    }
+
+    public PrimeField field()
+    {
+        return field;
+    }
+
+    public BigInteger prime()
+    {
+        return field.modulus();
+    }
+
+    public BigInteger a()
+    {
+        return a;
+    }
+
+    public BigInteger b()
+    {
+        return b;
+    }
+
+    public WeierstrassCurve copy()
+    {
+        return new WeierstrassCurve(field.copy(), a, b);
+    }
+
+    public boolean contains(ECPoint point)
+    {
+        if (point.isInfinity())
+            return true;
+        BigInteger p = field.modulus();
+        if (point.x.signum() < 0 || point.x.compareTo(p) >= 0 || point.y.signum() < 0
+                || point.y.compareTo(p) >= 0)
+            return false;
+        BigInteger rhs = point.x.pow(3).add(a.multiply(point.x)).add(b).mod(p);
+        return point.y.multiply(point.y).mod(p).equals(rhs);
+    }
+
+    public ECPoint findPoint(Random random)
+    {
+        //A random point, trying random x until x^3 + ax + b is a square (p = 3 mod 4 is quick)
+        BigInteger p = field.modulus();
+        while (true)
+        {
+            BigInteger x = new BigInteger(p.bitLength() + 8, random).mod(p);
+            BigInteger rhs = x.pow(3).add(a.multiply(x)).add(b).mod(p);
+            BigInteger y = squareRoot(rhs, p);
+            if (y != null)
+                return new ECPoint(x, y);
+        }
+    }
+
+    public Jacobian newPoint()
+    {
+        //The point at infinity
+        return new Jacobian(field);
+    }
+
+    public Jacobian toJacobian(ECPoint point)
+    {
+        Jacobian r = newPoint();
+        set(point, r);
+        return r;
+    }
+
+    public void set(ECPoint point, Jacobian r)
+    {
+        if (point.isInfinity())
+        {
+            field.one(r.x);
+            field.one(r.y);
+            field.zero(r.z);
+            return;
+        }
+        field.set(point.x, r.x);
+        field.set(point.y, r.y);
+        field.one(r.z);
+    }
+
+    public ECPoint toAffine(Jacobian point)
+    {
+        if (isInfinity(point))
+            return ECPoint.INFINITY;
+        field.invert(point.z, t0);
+        field.square(t0, t1);
+        field.multiply(point.x, t1, t2);
+        field.multiply(t1, t0, t1);
+        field.multiply(point.y, t1, t3);
+        return new ECPoint(field.get(t2), field.get(t3));
+    }
+
+    public void normalize(Jacobian[] points)
+    {
+        //Make every Z 1 with one inversion (Montgomery's trick): invert the product of all the Zs,
+        //then peel off one Z at a time going backwards. Points at infinity are left alone
+        int n = points.length;
+        long[][] prefix = new long[n + 1][];
+        prefix[0] = field.element();
+        field.one(prefix[0]);
+        for (int i = 0; i < n; ++i)
+        {
+            prefix[i + 1] = field.element();
+            if (isInfinity(points[i]))
+                field.copy(prefix[i], prefix[i + 1]);
+            else
+                field.multiply(prefix[i], points[i].z, prefix[i + 1]);
+        }
+        long[] inverse = field.element();
+        field.invert(prefix[n], inverse);
+        for (int i = n - 1; i >= 0; --i)
+        {
+            Jacobian point = points[i];
+            if (isInfinity(point))
+                continue;
+            //inverse is 1 / (Z0 ... Zi), so 1 / Zi is inverse times Z0 ... Z(i-1)
+            field.multiply(inverse, prefix[i], t0);
+            field.multiply(inverse, point.z, inverse);
+            field.square(t0, t1);
+            field.multiply(point.x, t1, point.x);
+            field.multiply(t1, t0, t1);
+            field.multiply(point.y, t1, point.y);
+            field.one(point.z);
+        }
+    }
+
+    public boolean isInfinity(Jacobian point)
+    {
+        return field.isZero(point.z);
+    }
+
+    public void copy(Jacobian point, Jacobian r)
+    {
+        field.copy(point.x, r.x);
+        field.copy(point.y, r.y);
+        field.copy(point.z, r.z);
+    }
+
+    public void negate(Jacobian point, Jacobian r)
+    {
+        field.copy(point.x, r.x);
+        field.negate(point.y, r.y);
+        field.copy(point.z, r.z);
+    }
+
+    public void doublePoint(Jacobian point, Jacobian r)
+    {
+        if (isInfinity(point) || field.isZero(point.y))
+        {
+            field.zero(r.z);
+            return;
+        }
+        long[] xx = t0, yy = t1, yyyy = t2, zz = t3, s = t4, m = t5, z3 = t6;
+        field.square(point.x, xx);
+        field.square(point.y, yy);
+        field.square(yy, yyyy);
+        field.square(point.z, zz);
+        //S = 2((X + YY)^2 - XX - YYYY)
+        field.add(point.x, yy, s);
+        field.square(s, s);
+        field.subtract(s, xx, s);
+        field.subtract(s, yyyy, s);
+        field.add(s, s, s);
+        //M = 3XX + a ZZ^2
+        if (aIsMinusThree)
+        {
+            field.subtract(point.x, zz, m);
+            field.add(point.x, zz, t7);
+            field.multiply(m, t7, m);
+            field.add(m, m, t7);
+            field.add(m, t7, m);
+        }
+        else
+        {
+            field.add(xx, xx, m);
+            field.add(m, xx, m);
+            if (!aIsZero)
+            {
+                field.square(zz, t7);
+                field.multiply(t7, aElement, t7);
+                field.add(m, t7, m);
+            }
+        }
+        //Z3 = (Y + Z)^2 - YY - ZZ, before the inputs can be overwritten
+        field.add(point.y, point.z, z3);
+        field.square(z3, z3);
+        field.subtract(z3, yy, z3);
+        field.subtract(z3, zz, z3);
+        //X3 = M^2 - 2S
+        field.square(m, t7);
+        field.subtract(t7, s, t7);
+        field.subtract(t7, s, r.x);
+        //Y3 = M(S - X3) - 8YYYY
+        field.subtract(s, r.x, s);
+        field.multiply(m, s, s);
+        field.add(yyyy, yyyy, yyyy);
+        field.add(yyyy, yyyy, yyyy);
+        field.add(yyyy, yyyy, yyyy);
+        field.subtract(s, yyyy, r.y);
+        field.copy(z3, r.z);
+    }
+
+    public void add(Jacobian p1, Jacobian p2, Jacobian r)
+    {
+        if (isInfinity(p1))
+        {
+            copy(p2, r);
+            return;
+        }
+        if (isInfinity(p2))
+        {
+            copy(p1, r);
+            return;
+        }
+        long[] z1z1 = t0, z2z2 = t1, u1 = t2, u2 = t3, s1 = t4, s2 = t5, h = t6, rr = t7;
+        field.square(p1.z, z1z1);
+        field.square(p2.z, z2z2);
+        field.multiply(p1.x, z2z2, u1);
+        field.multiply(p2.x, z1z1, u2);
+        field.multiply(p1.y, p2.z, s1);
+        field.multiply(s1, z2z2, s1);
+        field.multiply(p2.y, p1.z, s2);
+        field.multiply(s2, z1z1, s2);
+        field.subtract(u2, u1, h);
+        field.subtract(s2, s1, rr);
+        if (field.isZero(h))
+        {
+            if (field.isZero(rr))
+                doublePoint(p1, r);
+            else
+                field.zero(r.z);
+            return;
+        }
+        field.add(rr, rr, rr);
+        //Z3 = ((Z1 + Z2)^2 - Z1Z1 - Z2Z2) H, before the inputs can be overwritten
+        field.add(p1.z, p2.z, t8);
+        field.square(t8, t8);
+        field.subtract(t8, z1z1, t8);
+        field.subtract(t8, z2z2, t8);
+        field.multiply(t8, h, r.z);
+        finishAddition(u1, s1, h, rr, r);
+    }
+
+    public void addAffine(Jacobian p1, long[] x2, long[] y2, Jacobian r)
+    {
+        //p1 + (x2, y2), where the second point is affine and not O
+        if (isInfinity(p1))
+        {
+            field.copy(x2, r.x);
+            field.copy(y2, r.y);
+            field.one(r.z);
+            return;
+        }
+        long[] z1z1 = t0, u2 = t3, s1 = t4, s2 = t5, h = t6, rr = t7;
+        field.square(p1.z, z1z1);
+        field.multiply(x2, z1z1, u2);
+        field.multiply(y2, p1.z, s2);
+        field.multiply(s2, z1z1, s2);
+        field.subtract(u2, p1.x, h);
+        field.subtract(s2, p1.y, rr);
+        if (field.isZero(h))
+        {
+            if (field.isZero(rr))
+                doublePoint(p1, r);
+            else
+                field.zero(r.z);
+            return;
+        }
+        field.copy(p1.x, t2);
+        field.copy(p1.y, s1);
+        field.add(rr, rr, rr);
+        //Z3 = (Z1 + H)^2 - Z1Z1 - HH, which is 2 Z1 H
+        field.multiply(p1.z, h, r.z);
+        field.add(r.z, r.z, r.z);
+        finishAddition(t2, s1, h, rr, r);
+    }
+
+    private void finishAddition(long[] u1, long[] s1, long[] h, long[] rr, Jacobian r)
+    {
+        //X3 and Y3 from U1, S1, H and r = 2(S2 - S1). Uses t0, t1 and t5
+        long[] i = t0, j = t1, v = t5;
+        field.add(h, h, i);
+        field.square(i, i);
+        field.multiply(h, i, j);
+        field.multiply(u1, i, v);
+        //X3 = r^2 - J - 2V
+        field.square(rr, r.x);
+        field.subtract(r.x, j, r.x);
+        field.subtract(r.x, v, r.x);
+        field.subtract(r.x, v, r.x);
+        //Y3 = r(V - X3) - 2 S1 J
+        field.subtract(v, r.x, v);
+        field.multiply(rr, v, v);
+        field.multiply(s1, j, j);
+        field.add(j, j, j);
+        field.subtract(v, j, r.y);
+    }
+
+    public ECPoint add(ECPoint p1, ECPoint p2)
+    {
+        Jacobian r = toJacobian(p1);
+        add(r, toJacobian(p2), r);
+        return toAffine(r);
+    }
+
+    public ECPoint multiply(ECPoint point, BigInteger k)
+    {
+        Jacobian r = newPoint();
+        multiply(point, k, r);
+        return toAffine(r);
+    }
+
+    public void multiply(ECPoint point, BigInteger k, Jacobian r)
+    {
+        //Left to right double and add, adding the affine point with mixed addition
+        field.zero(r.z);
+        if (point.isInfinity() || k.signum() == 0)
+            return;
+        if (k.signum() < 0)
+        {
+            point = new ECPoint(point.x, field.modulus().subtract(point.y).mod(field.modulus()));
+            k = k.negate();
+        }
+        long[] x = field.element(point.x), y = field.element(point.y);
+        for (int i = k.bitLength() - 1; i >= 0; --i)
+        {
+            doublePoint(r, r);
+            if (k.testBit(i))
+                addAffine(r, x, y, r);
+        }
+    }
+
+    static BigInteger squareRoot(BigInteger n, BigInteger p)
+    {
+        //Square root mod p by Tonelli-Shanks, or null if n is not a square
+        n = n.mod(p);
+        if (n.signum() == 0)
+            return BigInteger.ZERO;
+        BigInteger half = p.shiftRight(1);
+        if (!n.modPow(half, p).equals(BigInteger.ONE))
+            return null;
+        if (p.testBit(1))
+            return n.modPow(p.add(BigInteger.ONE).shiftRight(2), p);
+        int s = p.subtract(BigInteger.ONE).getLowestSetBit();
+        BigInteger q = p.shiftRight(s);
+        BigInteger z = BigInteger.valueOf(2);
+        while (z.modPow(half, p).equals(BigInteger.ONE))
+            z = z.add(BigInteger.ONE);
+        BigInteger c = z.modPow(q, p);
+        BigInteger r = n.modPow(q.add(BigInteger.ONE).shiftRight(1), p);
+        BigInteger t = n.modPow(q, p);
+        int m = s;
+        while (!t.equals(BigInteger.ONE))
+        {
+            int i = 0;
+            for (BigInteger u = t; !u.equals(BigInteger.ONE); u = u.multiply(u).mod(p))
+                i++;
+            BigInteger bb = c.modPow(BigInteger.ONE.shiftLeft(m - i - 1), p);
+            r = r.multiply(bb).mod(p);
+            c = bb.multiply(bb).mod(p);
+            t = t.multiply(c).mod(p);
+            m = i;
+        }
+        return r;
+    }
+}
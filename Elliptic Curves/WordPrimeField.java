@@ -0,0 +1,214 @@
+/*
+ * Arithmetic mod a prime p below 2^62, one long per element, in Montgomery form with R = 2^64.
+ *
+ * The product of two elements a R and b R is the 128 bit value a b R^2, made from a b and
+ * Math.multiplyHigh. Montgomery reduction adds m p, with m = -(a b R^2) p^-1 mod 2^64, which
+ * clears the low word, and keeps the high word, which is a b R below 2p. That needs no division,
+ * and with p below 2^62 sums of two elements never overflow.
+ *
+ * Besides the long[] API of PrimeField, the same operations work on plain longs, which is what
+ * word size loops like point counting and batch addition use. Those longs are in Montgomery form
+ * as well, toMontgomery and fromMontgomery convert ordinary residues.
+ */
+
+import java.math.BigInteger;
+
+
+public class WordPrimeField extends PrimeField
+{
+    static final int MAX_BITS = 62;
+
+    private final long p;
+    //-p^-1 mod 2^64
+    private final long pInv;
+    //R, R^2 and R^3 mod p
+    private final long r1, r2, r3;
+
+    public WordPrimeField(long p)
+    {
+        if (p < 3 || (p & 1) == 0 || 64 - Long.numberOfLeadingZeros(p) > MAX_BITS)
+            throw new IllegalArgumentException("Modulus must be an odd prime below 2^62");
+        this.p = p;
+        //Newton's iteration for p^-1 mod 2^64 doubles the correct bits each step
+        long inverse = p;
+        for (int i = 0; i < 6; ++i)
+            inverse *= 2 - p * inverse;
+        pInv = -inverse;
+        BigInteger modulus = BigInteger.valueOf(p);
+        BigInteger r = BigInteger.ONE.shiftLeft(64).mod(modulus);
+        r1 = r.longValue();
+        r2 = r.multiply(r).mod(modulus).longValue();
+        r3 = r.pow(3).mod(modulus).longValue();
+    }
+
+    public long prime()
+    {
+        return p;
+    }
+
+    public long toMontgomery(long value)
+    {
+        long v = value % p;
+        return multiply(v < 0 ? v + p : v, r2);
+    }
+
+    public long fromMontgomery(long a)
+    {
+        return multiply(a, 1);
+    }
+
+    public long one()
+    {
+        return r1;
+    }
+
+    public long add(long a, long b)
+    {
+        long s = a + b;
+        return s >= p ? s - p : s;
+    }
+
+    public long subtract(long a, long b)
+    {
+        long d = a - b;
+        return d < 0 ? d + p : d;
+    }
+
+    public long negate(long a)
+    {
+        return a == 0 ? 0 : p - a;
+    }
+
+    public long multiply(long a, long b)
+    {
+        long lo = a * b;
+        long hi = Math.multiplyHigh(a, b);
+        long m = lo * pInv;
+        //High word of m p with m unsigned, the low words add up to 0 with a carry unless lo is 0
+        long mp = Math.multiplyHigh(m, p) + ((m >> 63) & p);
+        long r = hi + mp + (lo != 0 ? 1 : 0);
+        return r >= p ? r - p : r;
+    }
+
+    public long square(long a)
+    {
+        return multiply(a, a);
+    }
+
+    public long invert(long a)
+    {
+        //Extended Euclid on a R gives a^-1 R^-1, and a Montgomery product with R^3 makes it a^-1 R
+        long t = 0, newT = 1, r = p, newR = a;
+        while (newR != 0)
+        {
+            long q = r / newR;
+            long swap = t - q * newT;
+            t = newT;
+            newT = swap;
+            swap = r - q * newR;
+            r = newR;
+            newR = swap;
+        }
+        if (r != 1)
+            throw new ArithmeticException("Zero has no inverse");
+        return multiply(t < 0 ? t + p : t, r3);
+    }
+
+    public long power(long a, long e)
+    {
+        //a^e for e >= 0, by square and multiply
+        long result = r1;
+        for (; e != 0; e >>>= 1)
+        {
+            if ((e & 1) != 0)
+                result = multiply(result, a);
+            a = multiply(a, a);
+        }
+        return result;
+    }
+
+    @Override
+    public BigInteger modulus()
+    {
+        return BigInteger.valueOf(p);
+    }
+
+    @Override
+    public int length()
+    {
+        return 1;
+    }
+
+    @Override
+    public PrimeField copy()
+    {
+        //No work space, so the same object can be shared
+        return this;
+    }
+
+    @Override
+    public void set(BigInteger value, long[] r)
+    {
+        r[0] = toMontgomery(value.mod(BigInteger.valueOf(p)).longValue());
+    }
+
+    @Override
+    public BigInteger get(long[] a)
+    {
+        return BigInteger.valueOf(fromMontgomery(a[0]));
+    }
+
+    @Override
+    public void zero(long[] r)
+    {
+        r[0] = 0;
+    }
+
+    @Override
+    public void one(long[] r)
+    {
+        r[0] = r1;
+    }
+
+    @Override
+    public void add(long[] a, long[] b, long[] r)
+    {
+        r[0] = add(a[0], b[0]);
+    }
+
+    @Override
+    public void subtract(long[] a, long[] b, long[] r)
+    {
+        r[0] = subtract(a[0], b[0]);
+    }
+
+    @Override
+    public void negate(long[] a, long[] r)
+    {
+        r[0] = negate(a[0]);
+    }
+
+    @Override
+    public void multiply(long[] a, long[] b, long[] r)
+    {
+        r[0] = multiply(a[0], b[0]);
+    }
+
+    @Override
+    public void invert(long[] a, long[] r)
+    {
+        r[0] = invert(a[0]);
+    }
+
+    @Override
+    public boolean isZero(long[] a)
+    {
+        return a[0] == 0;
+    }
+
+    @Override
+    public boolean equal(long[] a, long[] b)
+    {
+        return a[0] == b[0];
+    }
+}
@@ -0,0 +1,442 @@
+/*
+ * Arithmetic mod a fixed odd N in Montgomery form, set up once per modulus
+ *
+ * Each BigInteger.modPow works out -N^-1 again, converts its base into Montgomery form by a
+ * division and converts the result back by a reduction, and a product y.multiply(x).mod(N) does a
+ * full division every time. A context does the setup once and keeps numbers in Montgomery form
+ * (a R mod N) between operations:
+ * - N is kept in k 64 bit limbs (lowest limb first) with R = 2^(64k), together with
+ *   -N^-1 mod 2^64 (Newton's iteration x = x (2 - N x), each step doubling the correct bits) and
+ *   R^2 mod N, so a number goes into Montgomery form with one multiplication by R^2.
+ * - Multiplication is CIOS Montgomery multiplication (see MontgomeryPrimeField) with the product
+ *   and the reduction of each limb in a single pass, into a scratch array of the context, so it
+ *   allocates nothing. Squares get their own routine, which adds each cross product a[i] a[j] once
+ *   and doubles the sum.
+ * - Short powers (a long exponent, as in stage 2 of Pollard p-1) are left to right binary runs of
+ *   squares and products.
+ *
+ * Measured here against multiply and mod (main prints the table), runs of products are 1.5 to 2
+ * times as fast at 1024 and 2048 bits but only level at 3072 and 4096 bits (0.9 to 1.2 times,
+ * depending on the run), and runs of squares are 1.3 to 2.5 times as fast. Full length powers are
+ * not faster at all: HotSpot swaps the Montgomery multiplication inside modPow for hand written
+ * assembly, and a sliding window power on these limb loops ran about 4 times slower. So any one off
+ * power, with a fixed exponent or not, stays on modPow, and a context is only for long runs of
+ * products and squares mod the same N (Pollard p-1 and rho, the squarings of Shanks-Tonelli, the
+ * baby steps of Shanks).
+
+ * The arrays of a context are scratch space, so give each thread its own copy().
+ * Callers compile against this directory: javac -sourcepath ../MontgomeryContext *.java
+ */
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Random;
+
+
+public class MontgomeryContext
+{
+    private final BigInteger modulus;
+    private final int k;
+    private final long[] n;
+    //-N^-1 mod 2^64
+    private final long nInv;
+    //R mod N (one in Montgomery form) and R^2 mod N
+    private final long[] r1, r2;
+    private final long[] unit;
+    //Running total of a product, k + 1 limbs, of a square, 2k + 1 limbs, and the base of a power
+    private final long[] t, square, base;
+
+    public MontgomeryContext(BigInteger N)
+    {
+        if (N.signum() <= 0 || !N.testBit(0) || N.equals(BigInteger.ONE))
+            throw new IllegalArgumentException("Modulus must be odd and above 1");
+        modulus = N;
+        k = (N.bitLength() + 63) / 64;
+        n = toLimbs(N, k);
+        long inverse = n[0];
+        for (int i = 0; i < 6; ++i)
+            inverse *= 2 - n[0] * inverse;
+        nInv = -inverse;
+        BigInteger r = BigInteger.ONE.shiftLeft(64 * k).mod(N);
+        r1 = toLimbs(r, k);
+        r2 = toLimbs(r.multiply(r).mod(N), k);
+        unit = new long[k];
+        unit[0] = 1;
+        t = new long[k + 1];
+        square = new long[2 * k + 1];
+        base = new long[k];
+    }
+
+    private MontgomeryContext(MontgomeryContext context)
+    {
+        modulus = context.modulus;
+        k = context.k;
+        n = context.n;
+        nInv = context.nInv;
+        r1 = context.r1;
+        r2 = context.r2;
+        unit = context.unit;
+        t = new long[k + 1];
+        square = new long[2 * k + 1];
+        base = new long[k];
+    }
+
+    public static void main(String[] args)
+    {
+        Random random = new Random(1);
+        //Small and odd sized moduli against BigInteger
+        for (int trial = 0; trial < 2000; ++trial)
+        {
+            BigInteger N = new BigInteger(2 + random.nextInt(700), random).setBit(0);
+            if (N.equals(BigInteger.ONE))
+                continue;
+            MontgomeryContext context = new MontgomeryContext(N);
+            BigInteger x = new BigInteger(N.bitLength() + 8, random);
+            BigInteger y = new BigInteger(N.bitLength(), random);
+            long shortExponent = random.nextLong() >>> 1 + random.nextInt(63);
+            long[] a = context.toMontgomery(x), b = context.toMontgomery(y);
+            long[] r = new long[context.length()];
+            context.pow(a, shortExponent, r);
+            check(context, r, x.modPow(BigInteger.valueOf(shortExponent), N), "short power");
+            context.multiply(a, b, r);
+            check(context, r, x.multiply(y).mod(N), "product");
+            context.square(a, r);
+            check(context, r, x.multiply(x).mod(N), "square");
+            context.add(a, b, r);
+            check(context, r, x.add(y).mod(N), "sum");
+            context.subtract(a, b, r);
+            check(context, r, x.subtract(y).mod(N), "difference");
+        }
+        System.out.println("Montgomery arithmetic agrees with BigInteger");
+
+        //Runs of products and squares, against BigInteger multiply and mod
+        System.out.println("bits  product: BigInteger Montgomery (x)  square: BigInteger Montgomery (x)");
+        for (int bits : new int[] { 1024, 2048, 3072, 4096 })
+        {
+            BigInteger N = BigInteger.probablePrime(bits / 2, random)
+                    .multiply(BigInteger.probablePrime(bits - bits / 2, random));
+            MontgomeryContext context = new MontgomeryContext(N);
+            BigInteger x = new BigInteger(bits, random).mod(N);
+            long[] a = context.toMontgomery(x), r = new long[context.length()];
+            int steps = (int) ((1L << 36) / bits / bits);
+            //The best of several rounds, the first ones also warming up the JIT
+            double[] times = new double[4];
+            Arrays.fill(times, Double.MAX_VALUE);
+            for (int round = 0; round < 4; ++round)
+            {
+                long start = System.nanoTime();
+                BigInteger y = x;
+                for (int i = 0; i < steps; ++i)
+                    y = y.multiply(x).mod(N);
+                times[0] = Math.min(times[0], (double) (System.nanoTime() - start) / steps);
+                start = System.nanoTime();
+                context.one(r);
+                for (int i = 0; i < steps; ++i)
+                    context.multiply(r, a, r);
+                times[1] = Math.min(times[1], (double) (System.nanoTime() - start) / steps);
+                check(context, r, x.modPow(BigInteger.valueOf(steps), N), "run of products");
+
+                start = System.nanoTime();
+                y = x;
+                for (int i = 0; i < steps; ++i)
+                    y = y.multiply(y).mod(N);
+                times[2] = Math.min(times[2], (double) (System.nanoTime() - start) / steps);
+                start = System.nanoTime();
+                System.arraycopy(a, 0, r, 0, a.length);
+                for (int i = 0; i < steps; ++i)
+                    context.square(r, r);
+                times[3] = Math.min(times[3], (double) (System.nanoTime() - start) / steps);
+                check(context, r, y, "run of squares");
+            }
+            System.out.printf("%4d  %15.0f ns %7.0f ns %4.2f  %14.0f ns %7.0f ns %4.2f\n", bits,
+                    times[0], times[1], times[0] / times[1], times[2], times[3], times[2] / times[3]);
+        }
+    }
+
+    private static void check(MontgomeryContext context, long[] r, BigInteger expected, String operation)
+    {
+        if (!context.fromMontgomery(r).equals(expected))
+            throw new IllegalStateException("Wrong " + operation + " mod " + context.modulus);
+    }
+
+    public BigInteger modulus()
+    {
+        return modulus;
+    }
+
+    public int length()
+    {
+        return k;
+    }
+
+    public MontgomeryContext copy()
+    {
+        //The same modulus with its own scratch arrays, for another thread
+        return new MontgomeryContext(this);
+    }
+
+    public long[] toMontgomery(BigInteger a)
+    {
+        //a R mod N, as (a mod N) R^2 R^-1
+        long[] r = toLimbs(a.signum() >= 0 && a.compareTo(modulus) < 0 ? a : a.mod(modulus), k);
+        multiply(r, r2, r);
+        return r;
+    }
+
+    public BigInteger fromMontgomery(long[] a)
+    {
+        long[] r = new long[k];
+        multiply(a, unit, r);
+        return fromLimbs(r);
+    }
+
+    public void one(long[] r)
+    {
+        System.arraycopy(r1, 0, r, 0, k);
+    }
+
+    public boolean isOne(long[] a)
+    {
+        return Arrays.equals(a, r1);
+    }
+
+    public void pow(long[] a, long exponent, long[] r)
+    {
+        //r = a^exponent for exponent >= 0, by left to right binary powering, for short exponents
+        if (exponent < 0)
+            throw new IllegalArgumentException("Negative exponent " + exponent);
+        if (exponent == 0)
+        {
+            one(r);
+            return;
+        }
+        long[] b = base;
+        System.arraycopy(a, 0, b, 0, k);
+        System.arraycopy(b, 0, r, 0, k);
+        for (int i = 62 - Long.numberOfLeadingZeros(exponent); i >= 0; --i)
+        {
+            square(r, r);
+            if ((exponent >>> i & 1) != 0)
+                multiply(r, b, r);
+        }
+    }
+
+    public void add(long[] a, long[] b, long[] r)
+    {
+        if (addLimbs(a, b, r) != 0 || compare(r, n) >= 0)
+            subtractLimbs(r, n, r);
+    }
+
+    public void subtract(long[] a, long[] b, long[] r)
+    {
+        if (subtractLimbs(a, b, r) != 0)
+            addLimbs(r, n, r);
+    }
+
+    public void multiply(long[] a, long[] b, long[] r)
+    {
+        //r = a b R^-1 mod N for a, b below N (r may be a or b), allocating nothing
+        //CIOS: for each limb b[i], t = (t + a b[i] + m N) / 2^64 with m = (t[0] + a[0] b[i]) nInv,
+        //both products added in the same pass. t stays below 2N, so t[k] is 0 or 1
+        long[] n = this.n, t = this.t;
+        int k = this.k;
+        for (int i = 0; i <= k; ++i)
+            t[i] = 0;
+        for (int i = 0; i < k; ++i)
+        {
+            long bi = b[i];
+            long x = a[0];
+            long lo = x * bi;
+            long hi = Math.multiplyHigh(x, bi) + ((x >> 63) & bi) + ((bi >> 63) & x);
+            long s = t[0] + lo;
+            long c1 = hi + (Long.compareUnsigned(s, lo) < 0 ? 1 : 0);
+            long m = s * nInv;
+            x = n[0];
+            //s + m n[0] is 0 mod 2^64, carrying 1 unless s is 0
+            long c2 = Math.multiplyHigh(m, x) + ((m >> 63) & x) + ((x >> 63) & m) + (s != 0 ? 1 : 0);
+            for (int j = 1; j < k; ++j)
+            {
+                x = a[j];
+                lo = x * bi;
+                hi = Math.multiplyHigh(x, bi) + ((x >> 63) & bi) + ((bi >> 63) & x);
+                s = t[j] + lo;
+                hi += Long.compareUnsigned(s, lo) < 0 ? 1 : 0;
+                s += c1;
+                c1 = hi + (Long.compareUnsigned(s, c1) < 0 ? 1 : 0);
+                x = n[j];
+                lo = m * x;
+                hi = Math.multiplyHigh(m, x) + ((m >> 63) & x) + ((x >> 63) & m);
+                s += lo;
+                hi += Long.compareUnsigned(s, lo) < 0 ? 1 : 0;
+                s += c2;
+                c2 = hi + (Long.compareUnsigned(s, c2) < 0 ? 1 : 0);
+                t[j - 1] = s;
+            }
+            s = t[k] + c1;
+            long top = Long.compareUnsigned(s, c1) < 0 ? 1 : 0;
+            s += c2;
+            top += Long.compareUnsigned(s, c2) < 0 ? 1 : 0;
+            t[k - 1] = s;
+            t[k] = top;
+        }
+        if (t[k] != 0 || compare(t, n) >= 0)
+            subtractLimbs(t, n, t);
+        System.arraycopy(t, 0, r, 0, k);
+    }
+
+    public void square(long[] a, long[] r)
+    {
+        //a^2 in 2k limbs from the cross products a[i] a[j], i < j, doubled, plus the squares a[i]^2,
+        //then the Montgomery reduction of the 2k limbs one limb at a time
+        long[] n = this.n, t = square;
+        int k = this.k;
+        for (int i = 0; i <= 2 * k; ++i)
+            t[i] = 0;
+        for (int i = 0; i < k - 1; ++i)
+        {
+            long x = a[i];
+            long carry = 0;
+            for (int j = i + 1; j < k; ++j)
+            {
+                long y = a[j];
+                long lo = x * y;
+                long hi = Math.multiplyHigh(x, y) + ((x >> 63) & y) + ((y >> 63) & x);
+                long s = t[i + j] + lo;
+                hi += Long.compareUnsigned(s, lo) < 0 ? 1 : 0;
+                s += carry;
+                carry = hi + (Long.compareUnsigned(s, carry) < 0 ? 1 : 0);
+                t[i + j] = s;
+            }
+            t[i + k] = carry;
+        }
+        //Double, then add the squares
+        long shifted = 0;
+        for (int i = 0; i < 2 * k; ++i)
+        {
+            long limb = t[i];
+            t[i] = limb << 1 | shifted;
+            shifted = limb >>> 63;
+        }
+        long carry = 0;
+        for (int i = 0; i < k; ++i)
+        {
+            long x = a[i];
+            long lo = x * x;
+            long hi = Math.multiplyHigh(x, x) + ((x >> 63) & (x << 1));
+            long s = t[2 * i] + lo;
+            long c = Long.compareUnsigned(s, lo) < 0 ? 1 : 0;
+            s += carry;
+            c += Long.compareUnsigned(s, carry) < 0 ? 1 : 0;
+            t[2 * i] = s;
+            long s2 = t[2 * i + 1] + hi;
+            long c2 = Long.compareUnsigned(s2, hi) < 0 ? 1 : 0;
+            s2 += c;
+            c2 += Long.compareUnsigned(s2, c) < 0 ? 1 : 0;
+            t[2 * i + 1] = s2;
+            carry = c2;
+        }
+        //Reduction: add m N 2^(64i) to clear limb i, carrying into t[2k] at the top
+        for (int i = 0; i < k; ++i)
+        {
+            long m = t[i] * nInv;
+            long c = 0;
+            for (int j = 0; j < k; ++j)
+            {
+                long x = n[j];
+                long lo = m * x;
+                long hi = Math.multiplyHigh(m, x) + ((m >> 63) & x) + ((x >> 63) & m);
+                long s = t[i + j] + lo;
+                hi += Long.compareUnsigned(s, lo) < 0 ? 1 : 0;
+                s += c;
+                c = hi + (Long.compareUnsigned(s, c) < 0 ? 1 : 0);
+                t[i + j] = s;
+            }
+            for (int j = i + k; c != 0; ++j)
+            {
+                long s = t[j] + c;
+                c = Long.compareUnsigned(s, c) < 0 ? 1 : 0;
+                t[j] = s;
+            }
+        }
+        //The result, below 2N, is t[k..2k]
+        if (t[2 * k] != 0 || compare(t, k, n) >= 0)
+        {
+            long borrow = 0;
+            for (int i = 0; i < k; ++i)
+            {
+                long x = t[k + i], d = x - n[i];
+                long out = Long.compareUnsigned(x, n[i]) < 0 ? 1 : 0;
+                long d2 = d - borrow;
+                out |= Long.compareUnsigned(d, borrow) < 0 ? 1 : 0;
+                t[k + i] = d2;
+                borrow = out;
+            }
+        }
+        System.arraycopy(t, k, r, 0, k);
+    }
+
+    private int compare(long[] a, long[] b)
+    {
+        return compare(a, 0, b);
+    }
+
+    private int compare(long[] a, int offset, long[] b)
+    {
+        //Unsigned comparison of a[offset..offset + k) with b
+        for (int i = k - 1; i >= 0; --i)
+            if (a[offset + i] != b[i])
+                return Long.compareUnsigned(a[offset + i], b[i]);
+        return 0;
+    }
+
+    private long subtractLimbs(long[] a, long[] b, long[] r)
+    {
+        //r = a - b over k limbs, returns the borrow
+        long borrow = 0;
+        for (int i = 0; i < k; ++i)
+        {
+            long d = a[i] - b[i];
+            long out = Long.compareUnsigned(a[i], b[i]) < 0 ? 1 : 0;
+            long d2 = d - borrow;
+            out |= Long.compareUnsigned(d, borrow) < 0 ? 1 : 0;
+            r[i] = d2;
+            borrow = out;
+        }
+        return borrow;
+    }
+
+    private long addLimbs(long[] a, long[] b, long[] r)
+    {
+        //r = a + b over k limbs, returns the carry
+        long carry = 0;
+        for (int i = 0; i < k; ++i)
+        {
+            long s = a[i] + b[i];
+            long c = Long.compareUnsigned(s, a[i]) < 0 ? 1 : 0;
+            long s2 = s + carry;
+            c |= Long.compareUnsigned(s2, s) < 0 ? 1 : 0;
+            r[i] = s2;
+            carry = c;
+        }
+        return carry;
+    }
+
+    private static long[] toLimbs(BigInteger value, int k)
+    {
+        //The low 64k bits of a non negative value
+        byte[] bytes = value.toByteArray();
+        long[] limbs = new long[k];
+        for (int i = 0; i < bytes.length && i < 8 * k; ++i)
+            limbs[i >>> 3] |= (bytes[bytes.length - 1 - i] & 0xFFL) << (8 * (i & 7));
+        return limbs;
+    }
+
+    private static BigInteger fromLimbs(long[] limbs)
+    {
+        byte[] bytes = new byte[8 * limbs.length];
+        for (int i = 0; i < limbs.length; ++i)
+            for (int j = 0; j < 8; ++j)
+                bytes[bytes.length - 1 - 8 * i - j] = (byte) (limbs[i] >>> (8 * j));
+        return new BigInteger(1, bytes);
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Segmented sieve of Eratosthenes with a mod 30 wheel, for primes up to 2^40
+ *
+ * Only numbers prime to 30 can be primes above 5, and there are 8 of them in every 30: 1, 7, 11,
+ * 13, 17, 19, 23 and 29. So every block of 30 numbers is one byte, 8 blocks make one long of the
+ * bitset, and the sieve needs 1 bit per 3.75 numbers instead of a boolean per number.
+ *
+ * The range is cut into segments of SEGMENT_BYTES, small enough to stay in the L1 cache, and each
+ * segment is sieved on its own by the base primes up to sqrt(limit). For a base prime q the
+ * multiples q m with m prime to 30 fall on 8 residues, and for each residue they step by 30 q,
+ * which is q bytes at a fixed bit. So marking is an add and an or per multiple, and only multiples
+ * with m >= q are marked, since smaller ones were crossed off by a smaller prime.
+ *
+ * Segments are independent, so count sieves them as a parallel stream, and primes gives a stream
+ * of the primes one segment at a time, whose memory is one segment whatever the range. Callers
+ * compile against this directory: javac -sourcepath ../PrimeSieve *.java
+ *
+ * Command line: [limit], counts the primes below it
+ */
+
+import java.util.Arrays;
+import java.util.PrimitiveIterator;
+import java.util.stream.LongStream;
+
+
+public class PrimeSieve
+{
+    public static final long MAX_LIMIT = 1L << 40;
+    //32 KB of bitset per segment, 983040 numbers
+    static final int SEGMENT_BYTES = 1 << 15;
+    static final long SEGMENT_SPAN = 30L * SEGMENT_BYTES;
+
+    //The residues prime to 30 and the bit each one uses (-1 for the others)
+    private static final int[] RESIDUES = { 1, 7, 11, 13, 17, 19, 23, 29 };
+    private static final int[] BIT = new int[30];
+
+    static
+    {
+        Arrays.fill(BIT, -1);
+        for (int i = 0; i < RESIDUES.length; ++i)
+            BIT[RESIDUES[i]] = i;
+    }
+
+    //Base primes from 7 up to sqrt(MAX_LIMIT), sieved once the first time they are needed
+    private static int[] basePrimes;
+
+    public static void main(String[] args)
+    {
+        long limit = args.length > 0 ? Long.parseLong(args[0]) : 1000000000L;
+        //Small ranges against a plain sieve
+        int check = 2000000;
+        boolean[] composite = new boolean[check];
+        long expected = 0;
+        for (int i = 2; i < check; ++i)
+        {
+            if (composite[i])
+                continue;
+            expected++;
+            for (long j = (long) i * i; j < check; j += i)
+                composite[(int) j] = true;
+        }
+        if (count(0, check) != expected)
+            throw new IllegalStateException("Sieve counts " + count(0, check) + " primes below " + check);
+        for (long from = 0; from < 100000; from += 977)
+        {
+            long to = from + 12345;
+            long plain = 0;
+            for (long n = from; n < to; ++n)
+                plain += n >= 2 && !composite[(int) n] ? 1 : 0;
+            if (count(from, to) != plain || primes(from, to).count() != plain)
+                throw new IllegalStateException("Sieve is wrong in [" + from + ", " + to + ")");
+        }
+        System.out.println("Sieve agrees with a plain sieve below " + check);
+
+        long start = System.nanoTime();
+        long primes = count(0, limit);
+        System.out.printf("%d primes below %d in %.2f s on %d threads\n", primes, limit,
+                (System.nanoTime() - start) / 1e9, Runtime.getRuntime().availableProcessors());
+        start = System.nanoTime();
+        long sum = primes(MAX_LIMIT - 100000000L, MAX_LIMIT).sum();
+        System.out.printf("Primes in the last 10^8 below 2^40 summed in %.2f s (sum %d)\n",
+                (System.nanoTime() - start) / 1e9, sum);
+    }
+
+    public static long count(long from, long to)
+    {
+        //Number of primes in [from, to), sieving the segments in parallel
+        checkRange(from, to);
+        return LongStream.range(from / SEGMENT_SPAN, (to + SEGMENT_SPAN - 1) / SEGMENT_SPAN).parallel()
+                .map(segment -> new Segment(segment, to).count(from, to))
+                .sum() + small(from, to).count();
+    }
+
+    public static LongStream primes(long from, long to)
+    {
+        //The primes in [from, to) in increasing order, sieved one segment at a time as they are used
+        checkRange(from, to);
+        return LongStream.concat(small(from, to),
+                LongStream.range(from / SEGMENT_SPAN, (to + SEGMENT_SPAN - 1) / SEGMENT_SPAN)
+                        .flatMap(segment -> new Segment(segment, to).primes(from, to)));
+    }
+
+    public static PrimitiveIterator.OfLong iterator(long from)
+    {
+        //The primes from from on, up to MAX_LIMIT
+        return primes(from, MAX_LIMIT).iterator();
+    }
+
+    public static long nextPrime(long n)
+    {
+        //The smallest prime > n
+        return iterator(n + 1).nextLong();
+    }
+
+    private static LongStream small(long from, long to)
+    {
+        return LongStream.of(2, 3, 5).filter(q -> q >= from && q < to);
+    }
+
+    private static void checkRange(long from, long to)
+    {
+        if (from < 0 || to > MAX_LIMIT || from > to)
+            throw new IllegalArgumentException("Range must be within [0, 2^40]");
+    }
+
+    private static synchronized int[] basePrimes()
+    {
+        if (basePrimes == null)
+        {
+            int limit = (int) Math.sqrt(MAX_LIMIT) + 1;
+            boolean[] composite = new boolean[limit + 1];
+            int[] primes = new int[limit];
+            int count = 0;
+            for (int i = 7; i <= limit; i += 2)
+            {
+                if (composite[i])
+                    continue;
+                if (i % 3 != 0 && i % 5 != 0)
+                    primes[count++] = i;
+                for (long j = (long) i * i; j <= limit; j += 2 * i)
+                    composite[(int) j] = true;
+            }
+            basePrimes = Arrays.copyOf(primes, count);
+        }
+        return basePrimes;
+    }
+
+    //One segment, the numbers [low, low + SEGMENT_SPAN), with a set bit for each composite
+    private static final class Segment
+    {
+        final long low;
+        final long[] bits = new long[SEGMENT_BYTES / 8];
+
+        Segment(long index, long to)
+        {
+            low = index * SEGMENT_SPAN;
+            long high = Math.min(low + SEGMENT_SPAN, to);
+            if (low == 0)
+                bits[0] |= 1;
+            long segmentBits = 8L * SEGMENT_BYTES;
+            for (int q : basePrimes())
+            {
+                long square = (long) q * q;
+                if (square >= high)
+                    break;
+                //The first multiplier m >= q with q m >= low, then one run per residue of m
+                long first = Math.max(q, (low + q - 1) / q);
+                for (int r : RESIDUES)
+                {
+                    long m = first + Math.floorMod(r - first, 30);
+                    long n = q * m;
+                    long position = (n - low) / 30 * 8 + BIT[(int) (n % 30)];
+                    long step = 8L * q;
+                    for (; position < segmentBits; position += step)
+                        bits[(int) (position >>> 6)] |= 1L << position;
+                }
+            }
+        }
+
+        long count(long from, long to)
+        {
+            long count = 0;
+            for (int i = 0; i < bits.length; ++i)
+            {
+                long word = ~bits[i];
+                long base = low + 240L * i;
+                //Whole words inside [from, to) are counted at once
+                if (base >= from && base + 240 <= to)
+                    count += Long.bitCount(word);
+                else
+                    for (; word != 0; word &= word - 1)
+                    {
+                        long n = number(base, Long.numberOfTrailingZeros(word));
+                        count += n >= from && n < to ? 1 : 0;
+                    }
+            }
+            return count;
+        }
+
+        LongStream primes(long from, long to)
+        {
+            LongStream.Builder builder = LongStream.builder();
+            for (int i = 0; i < bits.length; ++i)
+            {
+                long base = low + 240L * i;
+                for (long word = ~bits[i]; word != 0; word &= word - 1)
+                {
+                    long n = number(base, Long.numberOfTrailingZeros(word));
+                    if (n >= from && n < to)
+                        builder.add(n);
+                }
+            }
+            return builder.build();
+        }
+
+        private static long number(long base, int bit)
+        {
+            return base + 30L * (bit >>> 3) + RESIDUES[bit & 7];
+        }
+    }
+}
@@ -3,22 +3,28 @@
  *
  * Encryption
  * Reads the plain text from a file and the number N and encryption exponent b from command line args
- * First we digitize the message and then the cipher text, C = M^b mod N
+ * The bytes of the message are cut into blocks as big as N allows (RSAStream), and each block M
+ * is encrypted to C = M^b mod N and written to a binary file of length prefixed blocks
  *
  * Decryption
  * Reads the cipher text from a file and the number N and encryption exponent b from command line args
- * First we compute the encryption exponent by finding phi(N) and then finding the inverse of b mod
- * phi(N). Once the cipher text is read, we find the message M = C^a mod N and then de-digitize 
- * M to get plain text
+ * First we compute the decryption exponent a, the inverse of b mod phi(N), which needs the factors
+ * of N. Once the cipher text is read, we find the message M = C^a mod N and then take the bytes of
+ * the plain text back out of M
  * C^a = M^ab = M (because a and b have to be inverse of each other mod phi(N))
+ * The factors and exponents are kept in an RSAKey, saved to privatekey.txt the first time N is
+ * factored and loaded from there afterwards, and C^a mod N is worked out mod p and q (CRT).
+ *
+ * Files: plaintext.txt and ciphertext.bin. N needs at least 3 bytes (N >= 65536)
+ * The blocks are done in parallel by RSAPipeline, on as many threads as there are cores unless a
+ * thread count follows b on the command line: encrypt|decrypt <N> <b> [threads]
  */
 
-import java.io.File;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.math.BigInteger;
-import java.util.ArrayList;
-import java.util.Scanner;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 
 public class RSA
@@ -34,148 +40,40 @@ public class RSA
     
     private static void runEncrypt(String[] args) throws IOException
     {
-        //Create a scanner to read files and store N and b
-        Scanner in = new Scanner(new File("plaintext.txt"));
+        //Store N and b, then stream the plain text through RSA block by block on all cores
         BigInteger N = new BigInteger(args[1]);
         BigInteger b = new BigInteger(args[2]);
-        PrintWriter writer = new PrintWriter("ciphertext.txt");
-        
-        //For each word first convert it to digital string as described in the
-        //textbook and then write it to a file
-        while (in.hasNext())
-        {
-            String s = in.next();
-            int digitalString = getDigitalString(s);
-            BigInteger digitalBigInt = new BigInteger(digitalString + "");
-            writer.write(digitalBigInt.modPow(b, N).toString());
-        }
-        in.close();
-        writer.flush();
-        writer.close();
-    }
-    
-    private static int getDigitalString(String str)
-    {
-        //Converts string to integer as described in textbook
-        //Example: DOG = 26^2 * 3 + 26 * 14 + 6
-        int sum = 0;
-        int index = str.length() - 1;
-        for (char c : str.toCharArray())
-            sum += Math.pow(26, index--) * (c - 'A');
-        return sum;
+        RSAPipeline.encrypt(N, b, Paths.get("plaintext.txt"), Paths.get("ciphertext.bin"), threads(args));
     }
-    
+
     private static void runDecrypt(String[] args) throws IOException
     {
-        //Create a scanner to read file and variables to store N and b
-        Scanner in = new Scanner(new File("ciphertext.txt"));
         BigInteger N = new BigInteger(args[1]);
         BigInteger b = new BigInteger(args[2]);
-        PrintWriter writer = new PrintWriter("plaintext.txt");
-        
-        //Factor N and calculate phi(N) and then run extended euclid to calculate
-        //the decryption coefficient from phi(N) and b
-        int phiN = getPhiN(N.intValue());
-        BigInteger a = new BigInteger(extendedEuclidInverse(phiN, b.intValue()) + "");
-        
-        //For each token decrypt it as shown in the textbook and then convert
-        //the integer to alphabets again as shown in the textbook
-        while (in.hasNext())
-        {
-            BigInteger message = new BigInteger(in.next());
-            int digitalMessage = message.modPow(a, N).intValue();
-            writer.write(getMessage(digitalMessage));
-        }
-        in.close();
-        writer.flush();
-        writer.close();
-    }
-    
-    private static String getMessage(int num)
-    {
-        //Convert the integer to alphabets by converting base 10 integer to base
-        //26 and then associating numbers with alphabets. Example: 0=A, 1=B, ...
-        ArrayList<Integer> alphabets = getBaseP(num, 26);
-        String message = "";
-        for (Integer i : alphabets)
-            message = message + ((char)(i + 'A'));
-        return message;
-    }
-    
-    private static ArrayList<Integer> getBaseP(int n, int p)
-    {
-        //Convert integer to base 26 number by constantly dividing by 26 and 
-        //keeping track of the remainder. Then add the remainders to a list in
-        //opposite order and return it
-        ArrayList<Integer> list = new ArrayList<Integer>();
-        int temp = n;
-        while (temp >= p)
-        {
-            list.add(0, temp % p);
-            temp = temp / p;
-        }
-        list.add(0, temp);
-        if (list.size() == 1)
-            list.add(0, 0);
-        if (list.size() == 2)
-            list.add(0, 0);
-        return list;
-    }
-    
-    private static int getPhiN(int N)
-    {
-        //Factorize N to two prime numbers to calculate phi(N)
-        boolean[] composites = sieve(N);
-        for (int i = 1; i <= composites.length; ++i)
-            if (!composites[i] && N % i == 0)
-                return (i - 1) * ((N / i) - 1);
-        return 0;
+
+        //Load the key for N and b, or factor N and save the key for next time
+        RSAKey key = getKey(N, b);
+
+        //Decrypt the blocks with the key on all cores and write out their bytes in order
+        RSAPipeline.decrypt(key, Paths.get("ciphertext.bin"), Paths.get("plaintext.txt"), threads(args));
     }
-    
-    private static boolean[] sieve(int number)
-    {            
-        //Array of booleans, false represents prime, true means not prime
-        boolean[] array = new boolean[number + 1];
-        array[1] = true;  //1 is not prime, so set it to true
 
-        //Set all multiples of the number to true as they are composite
-        //except the number itself as it will be prime
-        //End when the square of loop counter is bigger than the input
-        for (int i = 2; i <= number; i++)
-        {
-            if (i * i > number)
-                break;
-            for (int j = 2; i * j <= number; j++)
-                array[i * j] = true;
-        }
-        return array;
+    private static int threads(String[] args)
+    {
+        return args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
     }
 
-    private static int extendedEuclidInverse(int a, int b)
+    private static RSAKey getKey(BigInteger N, BigInteger b) throws IOException
     {
-        int[] aSeed = {1, 0};
-        int[] bSeed = {0, 1};
-        while (true) //Divide until the remainder is 0
+        Path file = Paths.get("privatekey.txt");
+        if (Files.exists(file))
         {
-            int quotient = a / b;
-            int remainder = a % b;
-
-            if (remainder == 0)
-                break;
-            
-            //Change a and b for the next iteration
-            a = b;
-            b = remainder;
-
-            //Calculation for m, n
-            int newNumA = aSeed[0] - quotient * aSeed[1];
-            int newNumB = bSeed[0] - quotient * bSeed[1];
-            //Replace the old seeds with new ones
-            aSeed[0] = aSeed[1];
-            aSeed[1] = newNumA;
-            bSeed[0] = bSeed[1];
-            bSeed[1] = newNumB;
+            RSAKey key = RSAKey.load(file);
+            if (key.N.equals(N) && key.e.equals(b))
+                return key;
         }
-        return bSeed[1];
+        RSAKey key = RSAKey.factor(N, b);
+        key.save(file);
+        return key;
     }
 }
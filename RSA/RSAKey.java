@@ -0,0 +1,255 @@
+/*
+ * An RSA key pair kept with everything decryption needs, so it is worked out once and saved
+ * instead of being found again on every run.
+ *
+ * Private part: the primes p and q, d = e^-1 mod lcm(p - 1, q - 1), and for the Chinese Remainder
+ * Theorem dP = d mod (p - 1), dQ = d mod (q - 1) and qInv = q^-1 mod p. Decryption then does two
+ * half size exponentiations and Garner's recombination,
+ *		m1 = c^dP mod p, m2 = c^dQ mod q, h = qInv (m1 - m2) mod p, m = m2 + h q
+ * Half the length makes each multiplication about 4 times cheaper and the exponents half as long,
+ * so the pair costs about a quarter of c^d mod N.
+ *
+ * The powers stay on modPow, whose Montgomery multiplication HotSpot runs as assembly (see
+ * MontgomeryContext for the numbers).
+ *
+ * When only N and e are known (the textbook exercises), factor finds p and q by trial division
+ * with the primes of PrimeSieve up to TRIAL_LIMIT, then by Pollard rho with Brent's cycle finding,
+ * which takes about N^(1/4) steps instead of a sieve up to N. Rho is nothing but squares and
+ * products mod N, so it walks in the Montgomery form of a MontgomeryContext, about twice as fast as
+ * multiply and mod. The key is saved as a properties file of decimal numbers.
+ * Compile with javac -sourcepath ../PrimeSieve:../MontgomeryContext *.java
+ */
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.PrimitiveIterator;
+import java.util.Properties;
+
+
+public class RSAKey
+{
+    //Trial division bound before Pollard rho
+    static final long TRIAL_LIMIT = 1 << 16;
+
+    public final BigInteger N, e;
+    //Private part
+    final BigInteger p, q, d, dP, dQ, qInv;
+
+    private RSAKey(BigInteger p, BigInteger q, BigInteger e)
+    {
+        if (p.equals(q))
+            throw new IllegalArgumentException("p and q must differ");
+        //Keep p > q, as Garner does not care but PKCS #1 does
+        if (p.compareTo(q) < 0)
+        {
+            BigInteger t = p;
+            p = q;
+            q = t;
+        }
+        this.p = p;
+        this.q = q;
+        this.e = e;
+        N = p.multiply(q);
+        BigInteger p1 = p.subtract(BigInteger.ONE), q1 = q.subtract(BigInteger.ONE);
+        BigInteger lambda = p1.divide(p1.gcd(q1)).multiply(q1);
+        //Throws ArithmeticException when e is not invertible
+        d = e.modInverse(lambda);
+        dP = d.mod(p1);
+        dQ = d.mod(q1);
+        qInv = q.modInverse(p);
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        //The textbook key, factored and then decrypting what it encrypts
+        RSAKey textbook = factor(new BigInteger("262063"), new BigInteger("1013"));
+        System.out.printf("262063 = %d * %d, d = %d\n", textbook.p, textbook.q, textbook.d);
+        for (int m = 0; m < 1000; ++m)
+        {
+            BigInteger message = BigInteger.valueOf(m * 97);
+            if (!textbook.decrypt(textbook.encrypt(message)).equals(message))
+                throw new IllegalStateException("Textbook key does not decrypt " + message);
+        }
+
+        //Rho on a 64 bit N, then a saved and loaded 2048 bit key
+        SecureRandom random = new SecureRandom();
+        BigInteger e = BigInteger.valueOf(65537);
+        RSAKey small = generate(64, e, random);
+        long start = System.nanoTime();
+        RSAKey factored = factor(small.N, e);
+        System.out.printf("Factored a 64 bit N in %.2f s\n", (System.nanoTime() - start) / 1e9);
+        if (!factored.d.equals(small.d))
+            throw new IllegalStateException("Factoring gives another key");
+
+        RSAKey key = generate(2048, e, random);
+        Path file = Files.createTempFile("rsa", ".key");
+        key.save(file);
+        RSAKey loaded = load(file);
+        Files.delete(file);
+        if (!loaded.N.equals(key.N) || !loaded.d.equals(key.d) || !loaded.qInv.equals(key.qInv))
+            throw new IllegalStateException("Saved key does not load back");
+
+        BigInteger[] ciphertexts = new BigInteger[200];
+        for (int i = 0; i < ciphertexts.length; ++i)
+            ciphertexts[i] = key.encrypt(new BigInteger(2040, random));
+        for (int round = 0; round < 2; ++round)
+        {
+            start = System.nanoTime();
+            for (BigInteger c : ciphertexts)
+                if (!c.modPow(key.d, key.N).equals(key.decrypt(c)))
+                    throw new IllegalStateException("CRT and c^d mod N differ");
+            start = System.nanoTime();
+            for (BigInteger c : ciphertexts)
+                c.modPow(key.d, key.N);
+            double plain = (System.nanoTime() - start) / 1e6 / ciphertexts.length;
+            start = System.nanoTime();
+            for (BigInteger c : ciphertexts)
+                key.decrypt(c);
+            double crt = (System.nanoTime() - start) / 1e6 / ciphertexts.length;
+            if (round > 0)
+                System.out.printf("2048 bit decryption: c^d mod N %.2f ms, CRT %.2f ms (%.1fx)\n", plain, crt,
+                        plain / crt);
+        }
+    }
+
+    public static RSAKey fromFactors(BigInteger p, BigInteger q, BigInteger e)
+    {
+        return new RSAKey(p, q, e);
+    }
+
+    public static RSAKey generate(int bits, BigInteger e, SecureRandom random)
+    {
+        while (true)
+        {
+            BigInteger p = BigInteger.probablePrime(bits - bits / 2, random);
+            BigInteger q = BigInteger.probablePrime(bits / 2, random);
+            if (!p.equals(q) && p.subtract(BigInteger.ONE).gcd(e).equals(BigInteger.ONE)
+                    && q.subtract(BigInteger.ONE).gcd(e).equals(BigInteger.ONE))
+                return new RSAKey(p, q, e);
+        }
+    }
+
+    public static RSAKey factor(BigInteger N, BigInteger e)
+    {
+        //The key for N = pq from e alone, by trial division and Pollard rho
+        BigInteger p = findFactor(N);
+        return new RSAKey(p, N.divide(p), e);
+    }
+
+    public BigInteger encrypt(BigInteger m)
+    {
+        return m.modPow(e, N);
+    }
+
+    public BigInteger decrypt(BigInteger c)
+    {
+        BigInteger m1 = c.mod(p).modPow(dP, p);
+        BigInteger m2 = c.mod(q).modPow(dQ, q);
+        BigInteger h = qInv.multiply(m1.subtract(m2)).mod(p);
+        return m2.add(h.multiply(q));
+    }
+
+    static BigInteger findFactor(BigInteger N)
+    {
+        //A factor of N other than 1 and N
+        if (N.isProbablePrime(40))
+            throw new IllegalArgumentException(N + " is prime");
+        //Small factors by trial division with the primes from PrimeSieve
+        long bound = N.sqrt().min(BigInteger.valueOf(TRIAL_LIMIT)).longValue() + 1;
+        PrimitiveIterator.OfLong primes = PrimeSieve.primes(2, bound + 1).iterator();
+        while (primes.hasNext())
+        {
+            BigInteger prime = BigInteger.valueOf(primes.nextLong());
+            if (N.mod(prime).signum() == 0)
+                return prime;
+        }
+        //Then Pollard rho on x^2 + c with Brent's cycle finding, taking the gcd once per 128 steps
+        //on the product of the differences. The walk runs in Montgomery form, where
+        //(y R)^2 R^-1 + c R = (y^2 + c) R follows the same y as before with no division per step
+        MontgomeryContext context = new MontgomeryContext(N);
+        int length = context.length();
+        long[] x = new long[length], y = new long[length], ys = new long[length];
+        long[] product = new long[length], difference = new long[length];
+        long[] start = context.toMontgomery(BigInteger.TWO);
+        for (BigInteger c = BigInteger.ONE; ; c = c.add(BigInteger.ONE))
+        {
+            long[] constant = context.toMontgomery(c);
+            System.arraycopy(start, 0, y, 0, length);
+            context.one(product);
+            BigInteger g = BigInteger.ONE;
+            for (long r = 1; g.equals(BigInteger.ONE); r <<= 1)
+            {
+                System.arraycopy(y, 0, x, 0, length);
+                for (long i = 0; i < r; ++i)
+                {
+                    context.square(y, y);
+                    context.add(y, constant, y);
+                }
+                for (long k = 0; k < r && g.equals(BigInteger.ONE); k += 128)
+                {
+                    System.arraycopy(y, 0, ys, 0, length);
+                    for (long i = 0; i < Math.min(128, r - k); ++i)
+                    {
+                        context.square(y, y);
+                        context.add(y, constant, y);
+                        context.subtract(x, y, difference);
+                        context.multiply(product, difference, product);
+                    }
+                    g = context.fromMontgomery(product).gcd(N);
+                }
+            }
+            if (g.equals(N))
+            {
+                //The batch overshot, so step again from its start one gcd at a time
+                do
+                {
+                    context.square(ys, ys);
+                    context.add(ys, constant, ys);
+                    context.subtract(x, ys, difference);
+                    g = context.fromMontgomery(difference).gcd(N);
+                }
+                while (g.equals(BigInteger.ONE));
+            }
+            if (!g.equals(N))
+                return g;
+        }
+    }
+
+    public void save(Path file) throws IOException
+    {
+        Properties properties = new Properties();
+        properties.setProperty("N", N.toString());
+        properties.setProperty("e", e.toString());
+        properties.setProperty("p", p.toString());
+        properties.setProperty("q", q.toString());
+        properties.setProperty("d", d.toString());
+        properties.setProperty("dP", dP.toString());
+        properties.setProperty("dQ", dQ.toString());
+        properties.setProperty("qInv", qInv.toString());
+        try (Writer writer = Files.newBufferedWriter(file))
+        {
+            properties.store(writer, "RSA private key");
+        }
+    }
+
+    public static RSAKey load(Path file) throws IOException
+    {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file))
+        {
+            properties.load(reader);
+        }
+        //The CRT values are worked out again from p, q and e and must match what was saved
+        RSAKey key = new RSAKey(new BigInteger(properties.getProperty("p")),
+                new BigInteger(properties.getProperty("q")), new BigInteger(properties.getProperty("e")));
+        if (!key.N.equals(new BigInteger(properties.getProperty("N")))
+                || !key.qInv.equals(new BigInteger(properties.getProperty("qInv"))))
+            throw new IOException("Key file " + file + " is inconsistent");
+        return key;
+    }
+}
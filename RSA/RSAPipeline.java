@@ -0,0 +1,216 @@
+/*
+ * RSA over files on every core, in the block format of RSAStream
+ *
+ * Three stages:
+ * 1. A reader thread cuts the input into batches of BATCH_BLOCKS blocks (plain text chunks when
+ *    encrypting, ciphertext records when decrypting) and hands each batch to the worker pool.
+ * 2. The worker pool does the modPow (or CRT decryption) for a batch and turns the results into
+ *    output bytes.
+ * 3. The writer, on the calling thread, takes the futures of the batches in the order they were
+ *    read and writes each one out when it is done, so the output is the same as RSAStream's.
+ * The futures go through a bounded queue of QUEUE_PER_THREAD batches per worker. When the writer
+ * falls behind (or a batch at the head is slow) the reader blocks on that queue, so memory stays
+ * bounded while every worker has batches waiting.
+ */
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+public class RSAPipeline
+{
+    static final int BATCH_BLOCKS = 16;
+    static final int QUEUE_PER_THREAD = 4;
+
+    //Marks the end of the batches
+    private static final Future<byte[]> END = CompletableFuture.completedFuture(null);
+
+    public static void main(String[] args) throws IOException
+    {
+        int threads = Runtime.getRuntime().availableProcessors();
+        RSAKey key = RSAKey.generate(2048, BigInteger.valueOf(65537), new SecureRandom());
+        Random random = new Random(1);
+        byte[] text = new byte[1 << 20];
+        random.nextBytes(text);
+        Path plain = Files.createTempFile("plain", ".bin");
+        Path single = Files.createTempFile("single", ".rsa");
+        Path piped = Files.createTempFile("piped", ".rsa");
+        Path back = Files.createTempFile("back", ".bin");
+        Files.write(plain, text);
+
+        long start = System.nanoTime();
+        RSAStream.encrypt(key.N, key.e, plain, single);
+        double streamEncrypt = (System.nanoTime() - start) / 1e9;
+        start = System.nanoTime();
+        encrypt(key.N, key.e, plain, piped, threads);
+        double pipeEncrypt = (System.nanoTime() - start) / 1e9;
+        if (!Arrays.equals(Files.readAllBytes(single), Files.readAllBytes(piped)))
+            throw new IllegalStateException("Pipeline ciphertext differs from RSAStream");
+
+        start = System.nanoTime();
+        RSAStream.decrypt(key, piped, back);
+        double streamDecrypt = (System.nanoTime() - start) / 1e9;
+        start = System.nanoTime();
+        decrypt(key, piped, back, threads);
+        double pipeDecrypt = (System.nanoTime() - start) / 1e9;
+        if (!Arrays.equals(text, Files.readAllBytes(back)))
+            throw new IllegalStateException("Pipeline does not decrypt back");
+        System.out.printf("1 MB on %d threads: encrypt %.2f s (one thread %.2f s), decrypt %.2f s"
+                + " (one thread %.2f s)\n", threads, pipeEncrypt, streamEncrypt, pipeDecrypt, streamDecrypt);
+        for (Path file : new Path[] { plain, single, piped, back })
+            Files.delete(file);
+    }
+
+    public static void encrypt(BigInteger N, BigInteger e, Path plain, Path cipher, int threads)
+            throws IOException
+    {
+        int k = RSAStream.modulusBytes(N), blockBytes = RSAStream.blockBytes(N);
+        try (FileChannel in = FileChannel.open(plain);
+                FileChannel out = FileChannel.open(cipher, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            ByteBuffer header = ByteBuffer.allocate(RSAStream.MAGIC.length + 4);
+            header.put(RSAStream.MAGIC).putInt(k).flip();
+            RSAStream.writeFully(out, header);
+            ByteBuffer input = ByteBuffer.allocate(RSAStream.BUFFER_SIZE);
+            input.flip();
+            run(threads, out, () ->
+            {
+                //A batch of plain text blocks, or null at the end
+                List<byte[]> blocks = new ArrayList<>();
+                while (blocks.size() < BATCH_BLOCKS)
+                {
+                    byte[] block = new byte[blockBytes];
+                    int length = RSAStream.read(in, input, block);
+                    if (length == 0)
+                        break;
+                    blocks.add(Arrays.copyOf(block, length));
+                }
+                if (blocks.isEmpty())
+                    return null;
+                return () ->
+                {
+                    ByteBuffer records = ByteBuffer.allocate(blocks.size() * (k + 2));
+                    for (byte[] block : blocks)
+                    {
+                        BigInteger m = RSAStream.encode(block, 0, block.length);
+                        records.put(RSAStream.record(m.modPow(e, N)));
+                    }
+                    return Arrays.copyOf(records.array(), records.position());
+                };
+            });
+        }
+    }
+
+    public static void decrypt(RSAKey key, Path cipher, Path plain, int threads) throws IOException
+    {
+        try (FileChannel in = FileChannel.open(cipher);
+                FileChannel out = FileChannel.open(plain, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            ByteBuffer input = ByteBuffer.allocate(RSAStream.BUFFER_SIZE);
+            input.flip();
+            RSAStream.readHeader(in, input, key.N);
+            run(threads, out, () ->
+            {
+                List<BigInteger> blocks = new ArrayList<>();
+                BigInteger c;
+                while (blocks.size() < BATCH_BLOCKS && (c = RSAStream.readRecord(in, input)) != null)
+                    blocks.add(c);
+                if (blocks.isEmpty())
+                    return null;
+                return () ->
+                {
+                    ByteBuffer data = ByteBuffer.allocate(blocks.size() * RSAStream.modulusBytes(key.N));
+                    for (BigInteger block : blocks)
+                        data.put(RSAStream.decode(key.decrypt(block)));
+                    return Arrays.copyOf(data.array(), data.position());
+                };
+            });
+        }
+    }
+
+    //Reads the next batch and returns the work for it, or null when the input is used up
+    private interface BatchReader
+    {
+        Callable<byte[]> next() throws IOException;
+    }
+
+    private static void run(int threads, WritableByteChannel out, BatchReader batches) throws IOException
+    {
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        BlockingQueue<Future<byte[]>> queue = new ArrayBlockingQueue<>(QUEUE_PER_THREAD * threads);
+        Thread reader = new Thread(() ->
+        {
+            //A failed read goes down the queue in place of END, for the writer to throw; anything
+            //else thrown here has to go too, or the writer would wait on the queue forever
+            Future<byte[]> last = END;
+            try
+            {
+                Callable<byte[]> work;
+                while ((work = batches.next()) != null)
+                    queue.put(workers.submit(work));
+            }
+            catch (IOException | RuntimeException | Error e)
+            {
+                last = CompletableFuture.failedFuture(e);
+            }
+            catch (InterruptedException e)
+            {
+                return;
+            }
+            try
+            {
+                queue.put(last);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }, "RSA reader");
+        reader.start();
+        try
+        {
+            ByteBuffer output = ByteBuffer.allocate(RSAStream.BUFFER_SIZE);
+            for (Future<byte[]> batch = queue.take(); batch != END; batch = queue.take())
+                RSAStream.write(out, output, batch.get());
+            output.flip();
+            RSAStream.writeFully(out, output);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException("RSA block failed", e.getCause());
+        }
+        finally
+        {
+            reader.interrupt();
+            workers.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * RSA over byte streams, with each block filling as much of the modulus as it can
+ *
+ * Blocks. If N takes k bytes, a message block is the byte 0x01 followed by up to k - 2 bytes of
+ * input, read as a big endian number. That is at most k - 1 bytes, so it is below 256^(k-1) <= N,
+ * and the leading 0x01 keeps any leading zero bytes of the data. A 2048 bit N carries 254 bytes per
+ * exponentiation, where a word of letters packed into an int carried a few.
+ *
+ * File format. A header of the magic bytes "RSAB" and k as an int, then one record per block: the
+ * length of the ciphertext block as an unsigned short and its big endian bytes. The last block may
+ * be short, which its length after decryption shows.
+ *
+ * Both directions stream through channels with BUFFER_SIZE byte buffers, so memory does not grow
+ * with the file. (This is textbook RSA without padding: equal blocks encrypt equally.)
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Random;
+
+
+public class RSAStream
+{
+    static final int BUFFER_SIZE = 1 << 16;
+    static final byte[] MAGIC = { 'R', 'S', 'A', 'B' };
+
+    public static void main(String[] args) throws IOException
+    {
+        RSAKey key = RSAKey.generate(2048, BigInteger.valueOf(65537), new SecureRandom());
+        Random random = new Random(1);
+        //Lengths around the block size, including empty input
+        for (int length : new int[] { 0, 1, 253, 254, 255, 508, 509, 100000 })
+        {
+            byte[] plain = new byte[length];
+            random.nextBytes(plain);
+            if (length > 2)
+                plain[0] = plain[1] = 0;
+            if (!Arrays.equals(plain, decrypt(key, encrypt(key.N, key.e, plain))))
+                throw new IllegalStateException("Round trip fails for " + length + " bytes");
+        }
+        System.out.println("Encrypt then decrypt gives back the input");
+
+        //A megabyte through files
+        byte[] text = new byte[1 << 20];
+        for (int i = 0; i < text.length; ++i)
+            text[i] = (byte) (i % 7 == 6 ? ' ' : 'A' + random.nextInt(26));
+        Path plainFile = Files.createTempFile("plain", ".txt");
+        Path cipherFile = Files.createTempFile("cipher", ".bin");
+        Path backFile = Files.createTempFile("back", ".txt");
+        Files.write(plainFile, text);
+        long start = System.nanoTime();
+        encrypt(key.N, key.e, plainFile, cipherFile);
+        double encryptTime = (System.nanoTime() - start) / 1e9;
+        start = System.nanoTime();
+        decrypt(key, cipherFile, backFile);
+        double decryptTime = (System.nanoTime() - start) / 1e9;
+        if (!Arrays.equals(text, Files.readAllBytes(backFile)))
+            throw new IllegalStateException("File round trip fails");
+        long blocks = (text.length + blockBytes(key.N) - 1) / blockBytes(key.N);
+        System.out.printf("1 MB: %d blocks (one per %d bytes, against %d six letter words), ciphertext"
+                + " %d bytes, encrypt %.2f s, decrypt %.2f s\n", blocks, blockBytes(key.N),
+                text.length / 7, Files.size(cipherFile), encryptTime, decryptTime);
+        Files.delete(plainFile);
+        Files.delete(cipherFile);
+        Files.delete(backFile);
+    }
+
+    static int modulusBytes(BigInteger N)
+    {
+        return (N.bitLength() + 7) / 8;
+    }
+
+    static int blockBytes(BigInteger N)
+    {
+        //Data bytes per block, k - 2
+        int bytes = modulusBytes(N) - 2;
+        if (bytes < 1)
+            throw new IllegalArgumentException("Modulus " + N + " is too small for byte blocks");
+        return bytes;
+    }
+
+    static BigInteger encode(byte[] data, int offset, int length)
+    {
+        //0x01 followed by the data, as a big endian number
+        byte[] block = new byte[length + 1];
+        block[0] = 1;
+        System.arraycopy(data, offset, block, 1, length);
+        return new BigInteger(1, block);
+    }
+
+    static byte[] decode(BigInteger m)
+    {
+        byte[] block = m.toByteArray();
+        //toByteArray puts no sign byte in front of 0x01, so it is the first byte
+        if (block[0] != 1)
+            throw new IllegalArgumentException("Block does not start with 0x01, wrong key?");
+        return Arrays.copyOfRange(block, 1, block.length);
+    }
+
+    public static void encrypt(BigInteger N, BigInteger e, Path plain, Path cipher) throws IOException
+    {
+        try (FileChannel in = FileChannel.open(plain);
+                FileChannel out = FileChannel.open(cipher, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            encrypt(N, e, in, out);
+        }
+    }
+
+    public static void decrypt(RSAKey key, Path cipher, Path plain) throws IOException
+    {
+        try (FileChannel in = FileChannel.open(cipher);
+                FileChannel out = FileChannel.open(plain, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            decrypt(key, in, out);
+        }
+    }
+
+    public static void encrypt(BigInteger N, BigInteger e, ReadableByteChannel in, WritableByteChannel out)
+            throws IOException
+    {
+        int k = modulusBytes(N), blockBytes = blockBytes(N);
+        ByteBuffer input = ByteBuffer.allocate(BUFFER_SIZE);
+        input.flip();
+        ByteBuffer output = ByteBuffer.allocate(BUFFER_SIZE);
+        output.put(MAGIC).putInt(k);
+        byte[] block = new byte[blockBytes];
+        while (true)
+        {
+            int length = read(in, input, block);
+            if (length == 0)
+                break;
+            writeRecord(out, output, encode(block, 0, length).modPow(e, N));
+        }
+        output.flip();
+        writeFully(out, output);
+    }
+
+    public static void decrypt(RSAKey key, ReadableByteChannel in, WritableByteChannel out) throws IOException
+    {
+        ByteBuffer input = ByteBuffer.allocate(BUFFER_SIZE);
+        input.flip();
+        ByteBuffer output = ByteBuffer.allocate(BUFFER_SIZE);
+        readHeader(in, input, key.N);
+        BigInteger c;
+        while ((c = readRecord(in, input)) != null)
+        {
+            write(out, output, decode(key.decrypt(c)));
+        }
+        output.flip();
+        writeFully(out, output);
+    }
+
+    static void readHeader(ReadableByteChannel in, ByteBuffer input, BigInteger N) throws IOException
+    {
+        if (!fill(in, input, MAGIC.length + 4))
+            throw new EOFException("No RSA block header");
+        byte[] magic = new byte[MAGIC.length];
+        input.get(magic);
+        int k = input.getInt();
+        if (!Arrays.equals(magic, MAGIC))
+            throw new IOException("Not an RSA block file");
+        if (k != modulusBytes(N))
+            throw new IOException("File is for a " + k + " byte modulus, the key has " + modulusBytes(N));
+    }
+
+    static BigInteger readRecord(ReadableByteChannel in, ByteBuffer input) throws IOException
+    {
+        //The next ciphertext block, or null at the end
+        if (!fill(in, input, 2))
+        {
+            if (input.hasRemaining())
+                throw new EOFException("Truncated record length");
+            return null;
+        }
+        int length = Short.toUnsignedInt(input.getShort());
+        if (!fill(in, input, length))
+            throw new EOFException("Truncated record");
+        byte[] bytes = new byte[length];
+        input.get(bytes);
+        return new BigInteger(1, bytes);
+    }
+
+    static void writeRecord(WritableByteChannel out, ByteBuffer output, BigInteger c) throws IOException
+    {
+        write(out, output, record(c));
+    }
+
+    static byte[] record(BigInteger c)
+    {
+        //Unsigned short length, then the magnitude without a sign byte
+        byte[] bytes = c.toByteArray();
+        int skip = bytes[0] == 0 && bytes.length > 1 ? 1 : 0;
+        int length = bytes.length - skip;
+        byte[] record = new byte[length + 2];
+        record[0] = (byte) (length >>> 8);
+        record[1] = (byte) length;
+        System.arraycopy(bytes, skip, record, 2, length);
+        return record;
+    }
+
+    static void write(WritableByteChannel out, ByteBuffer output, byte[] bytes) throws IOException
+    {
+        //Adds bytes to the output buffer, writing the buffer out first when they do not fit
+        if (output.remaining() < bytes.length)
+        {
+            output.flip();
+            writeFully(out, output);
+            output.clear();
+        }
+        if (bytes.length > output.capacity())
+            writeFully(out, ByteBuffer.wrap(bytes));
+        else
+            output.put(bytes);
+    }
+
+    static int read(ReadableByteChannel in, ByteBuffer input, byte[] block) throws IOException
+    {
+        //Fills block as far as the input goes, returning how many bytes it got
+        int length = 0;
+        while (length < block.length)
+        {
+            if (!input.hasRemaining())
+            {
+                input.clear();
+                int count = in.read(input);
+                input.flip();
+                if (count < 0)
+                    break;
+            }
+            int n = Math.min(input.remaining(), block.length - length);
+            input.get(block, length, n);
+            length += n;
+        }
+        return length;
+    }
+
+    static boolean fill(ReadableByteChannel in, ByteBuffer input, int needed) throws IOException
+    {
+        //Reads until input (in read mode) holds needed bytes, false if the channel ends first
+        while (input.remaining() < needed)
+        {
+            input.compact();
+            int count = in.read(input);
+            input.flip();
+            if (count < 0)
+                return false;
+        }
+        return true;
+    }
+
+    static void writeFully(WritableByteChannel out, ByteBuffer buffer) throws IOException
+    {
+        while (buffer.hasRemaining())
+            out.write(buffer);
+    }
+
+    private static byte[] encrypt(BigInteger N, BigInteger e, byte[] plain) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        encrypt(N, e, Channels.newChannel(new ByteArrayInputStream(plain)), Channels.newChannel(bytes));
+        return bytes.toByteArray();
+    }
+
+    private static byte[] decrypt(RSAKey key, byte[] cipher) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        decrypt(key, Channels.newChannel(new ByteArrayInputStream(cipher)), Channels.newChannel(bytes));
+        return bytes.toByteArray();
+    }
+}
@@ -9,6 +9,8 @@
  * Once we find the match we know that alpha^mj = beta * alpha^-i
  * Thus alpha^(mj+i) = beta, which is the definition of discrete log. Thus l = mj + i on the 
  * matching tuple
+ *
+ * Compile with javac -sourcepath ../MontgomeryContext *.java
  */
 
 import java.math.BigInteger;
@@ -29,12 +31,19 @@ public class ShanksDiscreteLog
         Tuple[] L1 = new Tuple[m];
         Tuple[] L2 = new Tuple[m];
         
-        //Calculate the pairs and store in the tuple array
+        //Calculate the pairs and store in the tuple array. Both lists step by one multiplication,
+        //by alpha^m and by alpha^-1, in the Montgomery form of a context for p made once
+        MontgomeryContext context = new MontgomeryContext(BigInteger.valueOf(prime));
+        long[] giant = context.toMontgomery(alpha.modPow(BigInteger.valueOf(m), context.modulus()));
+        long[] baby = context.toMontgomery(alpha.modInverse(context.modulus()));
+        long[] left = new long[context.length()], right = context.toMontgomery(beta);
+        context.one(left);
         for (int i = 0; i < m; ++i)
         {
-            BigInteger p = new BigInteger(prime + "");
-            L1[i] = new Tuple(i, alpha.modPow(new BigInteger((m * i) + ""), p));
-            L2[i] = new Tuple(i, beta.multiply(alpha.modPow(new BigInteger((-1 * i) + ""), p)).mod(p));
+            L1[i] = new Tuple(i, context.fromMontgomery(left));
+            L2[i] = new Tuple(i, context.fromMontgomery(right));
+            context.multiply(left, giant, left);
+            context.multiply(right, baby, right);
         }
         
         //Sort the arrays
@@ -4,63 +4,78 @@
  * square root, then we keep on modifying it during every iteration of the loop. The loop iteration
  * ends when r = 0, and because the value of r goes down by atleast one every iteration, we know
  * that the loop terminates eventually.
+ * The non square n comes from the primes of PrimeSieve. The one-off powers (the starting x, b and g,
+ * and Euler's criterion) stay on modPow, while b^(2^i) and g^(2^j) are runs of squares, which go
+ * through a MontgomeryContext for p instead of a new modPow by 2^i each time.
+ * Compile with javac -sourcepath ../PrimeSieve:../MontgomeryContext *.java
  */
 
 import java.math.BigInteger;
+import java.util.PrimitiveIterator;
 
 
 public class ShanksTonelliSquareRoot
 {
     public static void main(String [] args)
     {
-        final BigInteger TWO = new BigInteger("2");
-        
         BigInteger p = new BigInteger("4481");
-        BigInteger s = new BigInteger("7");
+        int s = 7;
         BigInteger t = new BigInteger("35");
         BigInteger a = new BigInteger("19");
         
-        BigInteger x = a.modPow(t.add(BigInteger.ONE).divide(TWO), p);
-        BigInteger b = a.modPow(t, p);
+        //The starting powers by modPow, then everything mod p in Montgomery form, with b^(2^i) and
+        //g^(2^j) as runs of squares
+        MontgomeryContext context = new MontgomeryContext(p);
+        int k = context.length();
+        long[] x = context.toMontgomery(a.modPow(t.add(BigInteger.ONE).shiftRight(1), p));
+        long[] b = context.toMontgomery(a.modPow(t, p));
         BigInteger n = getNonSquare(p);
-        BigInteger g = n.modPow(t, p);
-        BigInteger r = new BigInteger(s.toString());
+        long[] g = context.toMontgomery(n.modPow(t, p));
+        long[] power = new long[k];
+        int r = s;
         
         while (true)
         {
-            BigInteger m = null;
-            for (BigInteger i = BigInteger.ZERO; i.compareTo(r) < 0; i = i.add(BigInteger.ONE))
+            //The least m with b^(2^m) = 1
+            int m = 0;
+            System.arraycopy(b, 0, power, 0, k);
+            for (; !context.isOne(power); ++m)
             {
-                BigInteger pow = TWO.pow(i.intValue());
-                if (b.modPow(pow, p).compareTo(BigInteger.ONE) == 0)
-                {
-                    m = i;
-                    break;
-                }
+                if (m == r)
+                    throw new IllegalArgumentException(a + " is not a square mod " + p);
+                context.square(power, power);
             }
-            if (m.compareTo(BigInteger.ZERO) == 0)
+            if (m == 0)
                 break;
             else
             {
-                BigInteger xPow = TWO.pow(r.subtract(m).subtract(BigInteger.ONE).intValue());
-                x = g.modPow(xPow, p).multiply(x).mod(p);
-                BigInteger bPow = TWO.pow(r.subtract(m).intValue());
-                b = g.modPow(bPow, p).multiply(b).mod(p);
-                g = g.modPow(bPow, p);
+                //x = g^(2^(r-m-1)) x, g = g^(2^(r-m)), b = g b
+                System.arraycopy(g, 0, power, 0, k);
+                for (int i = 0; i < r - m - 1; ++i)
+                    context.square(power, power);
+                context.multiply(power, x, x);
+                context.square(power, g);
+                context.multiply(g, b, b);
                 r = m;
             }
         }
-        System.out.println("SQRT IS: " + x.toString());
+        System.out.println("SQRT IS: " + context.fromMontgomery(x).toString());
     }
     
     static BigInteger getNonSquare(BigInteger p)
     {
-        boolean[] array = new boolean[p.intValue()];
-        for (int i = 0; i < array.length; ++i)
-            array[(i * i) % array.length] = true;
-        for (int i = 0; i < array.length; ++i)
-            if (!array[i])
-                return new BigInteger(i + "");
-        return null;
+        //The smallest non square mod p is a prime (a product of squares is a square), so try the
+        //primes from PrimeSieve with Euler's criterion n^((p-1)/2) = -1 mod p
+        BigInteger exponent = p.subtract(BigInteger.ONE).shiftRight(1);
+        BigInteger minusOne = p.subtract(BigInteger.ONE);
+        PrimitiveIterator.OfLong primes = PrimeSieve.iterator(2);
+        while (true)
+        {
+            BigInteger n = BigInteger.valueOf(primes.nextLong());
+            if (n.compareTo(p) >= 0)
+                return null;
+            if (n.modPow(exponent, p).equals(minusOne))
+                return n;
+        }
     }
 }